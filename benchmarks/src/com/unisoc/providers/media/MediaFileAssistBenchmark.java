@@ -0,0 +1,48 @@
+package com.unisoc.providers.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per scanned file helpers in {@link MediaFileAssist}.
+ * Every benchmark takes the state holding its own parameter, so it only runs once per value of it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediaFileAssistBenchmark {
+
+    @State(Scope.Thread)
+    public static class MimeTypeState {
+        @Param({"audio/3gpp", "video/3gpp", "image/jpeg"})
+        public String mimeType;
+    }
+
+    @State(Scope.Thread)
+    public static class CameraTypeState {
+        @Param({"0", "55", "273", "1029"})
+        public String cameraType;
+    }
+
+    @Benchmark
+    public boolean isAudioMimeType(MimeTypeState state) {
+        return MediaFileAssist.isAudioMimeType(state.mimeType);
+    }
+
+    @Benchmark
+    public int flagPolicy(CameraTypeState state) {
+        return MediaFileAssist.getFlagPolicy(MediaFileAssist.parseCameraType(state.cameraType));
+    }
+}
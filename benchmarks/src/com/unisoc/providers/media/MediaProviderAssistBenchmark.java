@@ -0,0 +1,75 @@
+package com.unisoc.providers.media;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per call string assembly in {@link MediaProviderAssist},
+ * against recording the same call in {@link AssistTrace}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediaProviderAssistBenchmark {
+    private static final long DATETAKEN = 1562227200000L;
+
+    private String mUserWhere;
+    private String[] mUserWhereArgs;
+    private Uri mUri;
+    private ContentValues mValues;
+
+    @Setup
+    public void setUp() {
+        mUserWhere = "_id IN (?,?,?,?)";
+        mUserWhereArgs = new String[]{"101", "102", "103", "104"};
+        mUri = Uri.parse("content://media/external/images/media/101");
+        mValues = new ContentValues();
+        mValues.put(MediaFileAssist.Files.TITLE, "IMG_20190704_160000_BURST001");
+        mValues.put(MediaFileAssist.Files.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_BURST);
+        mValues.put(MediaFileAssist.Images.DATE_TAKEN, DATETAKEN);
+    }
+
+    @Benchmark
+    public void burstSelection_noUserWhere(Blackhole bh) {
+        bh.consume(MediaProviderAssist.buildBurstSelection(null));
+        bh.consume(MediaProviderAssist.buildBurstSelectionArgs(DATETAKEN, null));
+    }
+
+    @Benchmark
+    public void burstSelection_userWhere(Blackhole bh) {
+        bh.consume(MediaProviderAssist.buildBurstSelection(mUserWhere));
+        bh.consume(MediaProviderAssist.buildBurstSelectionArgs(DATETAKEN, mUserWhereArgs));
+    }
+
+    @Benchmark
+    public String trackLog_update() {
+        return MediaProviderAssist.buildTrackLog("update", mUri, mValues, mUserWhere, mUserWhereArgs, 1000);
+    }
+
+    @Benchmark
+    public String trackLog_query() {
+        return MediaProviderAssist.buildTrackLog("query", mUri, null, null, null, 1000);
+    }
+
+    @Benchmark
+    public void trace_providerCall() {
+        AssistTrace.record(AssistTrace.EVENT_PROVIDER_CALL, AssistTrace.getInstance().tagId("update"), 1000);
+    }
+}
@@ -0,0 +1,122 @@
+package com.unisoc.providers.media.scan;
+
+import android.content.ContentProviderOperation;
+import android.net.Uri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per scanned file hooks in {@link ModernMediaScannerAssist}.
+ * The mime type benchmarks sniff real 3gpp files written at setup, an audio-only one and one with video.
+ * The folder fallback for unparseable files needs a path on a mounted volume and is not covered here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModernMediaScannerAssistBenchmark {
+    private static final Uri FILES_URI = Uri.parse("content://media/external/file");
+
+    @State(Scope.Thread)
+    public static class CameraTypeState {
+        @Param({"", "12", "55", "1026"})
+        public String cameraType;
+
+        Optional<?> value;
+
+        @Setup
+        public void setUp() {
+            value = cameraType.isEmpty() ? Optional.empty() : Optional.of(cameraType);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FixtureState {
+        File audioOnly;
+        File video;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            audioOnly = write("bench_audio", box("moov", box("mvhd", new byte[100]), track("soun")));
+            video = write("bench_video", box("moov", box("mvhd", new byte[100]), track("soun"), track("vide")));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            audioOnly.delete();
+            video.delete();
+        }
+
+        private static File write(String prefix, byte[] moov) throws IOException {
+            File file = File.createTempFile(prefix, ".3gp");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(box("ftyp", "3gp4".getBytes(StandardCharsets.US_ASCII), new byte[4]));
+                out.write(box("mdat", new byte[64 * 1024]));
+                out.write(moov);
+            }
+            return file;
+        }
+
+        private static byte[] box(String type, byte[]... children) throws IOException {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            for (byte[] child : children) {
+                payload.write(child);
+            }
+            int size = 8 + payload.size();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(new byte[]{(byte) (size >>> 24), (byte) (size >>> 16), (byte) (size >>> 8), (byte) size});
+            out.write(type.getBytes(StandardCharsets.US_ASCII));
+            out.write(payload.toByteArray());
+            return out.toByteArray();
+        }
+
+        private static byte[] track(String handler) throws IOException {
+            byte[] hdlr = new byte[12 + 13];
+            System.arraycopy(handler.getBytes(StandardCharsets.US_ASCII), 0, hdlr, 8, 4);
+            return box("trak", box("tkhd", new byte[84]), box("mdia", box("mdhd", new byte[24]), box("hdlr", hdlr)));
+        }
+    }
+
+    @Benchmark
+    public ContentProviderOperation.Builder withOptionalValueForSpecialPictures(CameraTypeState state) {
+        ContentProviderOperation.Builder op = ContentProviderOperation.newInsert(FILES_URI);
+        ModernMediaScannerAssist.withOptionalValueForSpecialPictures(op, state.value);
+        return op;
+    }
+
+    @Benchmark
+    public String maybeOverrideMimeType_audioOnly(FixtureState fixtures) {
+        return ModernMediaScannerAssist.maybeOverrideMimeType("video/3gpp", fixtures.audioOnly);
+    }
+
+    @Benchmark
+    public String maybeOverrideMimeType_video(FixtureState fixtures) {
+        return ModernMediaScannerAssist.maybeOverrideMimeType("video/3gpp", fixtures.video);
+    }
+
+    @Benchmark
+    public String maybeOverrideMimeType_jpeg(FixtureState fixtures) {
+        return ModernMediaScannerAssist.maybeOverrideMimeType("image/jpeg", fixtures.video);
+    }
+}
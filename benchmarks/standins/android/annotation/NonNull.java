@@ -0,0 +1,8 @@
+package android.annotation;
+
+/**
+ * Host stand-in for {@code android.annotation.NonNull}, only what the unisoc assist classes use.
+ */
+@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.CLASS)
+public @interface NonNull {
+}
@@ -0,0 +1,50 @@
+package android.content;
+
+import android.net.Uri;
+
+/**
+ * Host stand-in for {@code android.content.ContentProviderOperation}, only what the unisoc assist classes use.
+ */
+public class ContentProviderOperation {
+    private final Uri mUri;
+    private final java.util.HashMap<String, Object> mValues;
+
+    private ContentProviderOperation(Builder builder) {
+        mUri = builder.mUri;
+        mValues = builder.mValues;
+    }
+
+    public static Builder newInsert(Uri uri) {
+        return new Builder(uri);
+    }
+
+    public static Builder newUpdate(Uri uri) {
+        return new Builder(uri);
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    public boolean isUpdate() {
+        return true;
+    }
+
+    public static class Builder {
+        private final Uri mUri;
+        private final java.util.HashMap<String, Object> mValues = new java.util.HashMap<>();
+
+        private Builder(Uri uri) {
+            mUri = uri;
+        }
+
+        public Builder withValue(String key, Object value) {
+            mValues.put(key, value);
+            return this;
+        }
+
+        public ContentProviderOperation build() {
+            return new ContentProviderOperation(this);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package android.content;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Host stand-in for {@code android.content.ContentResolver}, only what the unisoc assist classes use.
+ */
+public abstract class ContentResolver {
+    public static final String SCHEME_CONTENT = "content";
+    public static final String SCHEME_FILE = "file";
+    public static final String QUERY_ARG_SQL_SELECTION = "android:query-arg-sql-selection";
+    public static final String QUERY_ARG_SQL_SELECTION_ARGS = "android:query-arg-sql-selection-args";
+    public static final String QUERY_ARG_SQL_SORT_ORDER = "android:query-arg-sql-sort-order";
+
+    public abstract Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder);
+
+    public abstract Uri canonicalizeOrElse(Uri uri);
+
+    public abstract void notifyChange(Uri uri, ContentObserver observer);
+}
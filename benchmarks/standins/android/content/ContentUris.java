@@ -0,0 +1,17 @@
+package android.content;
+
+import android.net.Uri;
+
+/**
+ * Host stand-in for {@code android.content.ContentUris}, only what the unisoc assist classes use.
+ */
+public class ContentUris {
+    public static Uri withAppendedId(Uri contentUri, long id) {
+        return Uri.parse(contentUri + "/" + id);
+    }
+
+    public static long parseId(Uri contentUri) {
+        String last = contentUri.getLastPathSegment();
+        return last == null ? -1 : Long.parseLong(last);
+    }
+}
@@ -0,0 +1,70 @@
+package android.content;
+
+/**
+ * Host stand-in for {@code android.content.ContentValues}, only what the unisoc assist classes use.
+ */
+public final class ContentValues {
+    private final java.util.HashMap<String, Object> mValues = new java.util.HashMap<>();
+
+    public void put(String key, String value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Integer value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Long value) {
+        mValues.put(key, value);
+    }
+
+    public void put(String key, Boolean value) {
+        mValues.put(key, value);
+    }
+
+    public Object get(String key) {
+        return mValues.get(key);
+    }
+
+    public String getAsString(String key) {
+        Object value = mValues.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    public Integer getAsInteger(String key) {
+        Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : null;
+    }
+
+    public Long getAsLong(String key) {
+        Object value = mValues.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    public Boolean getAsBoolean(String key) {
+        Object value = mValues.get(key);
+        if (value instanceof Boolean) return (Boolean) value;
+        return value instanceof Number ? ((Number) value).intValue() != 0 : null;
+    }
+
+    public boolean containsKey(String key) {
+        return mValues.containsKey(key);
+    }
+
+    public void remove(String key) {
+        mValues.remove(key);
+    }
+
+    public void clear() {
+        mValues.clear();
+    }
+
+    public int size() {
+        return mValues.size();
+    }
+
+    @Override
+    public String toString() {
+        return mValues.toString();
+    }
+}
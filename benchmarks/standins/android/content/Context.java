@@ -0,0 +1,16 @@
+package android.content;
+
+/**
+ * Host stand-in for {@code android.content.Context}, only what the unisoc assist classes use.
+ */
+public abstract class Context {
+    public abstract ContentResolver getContentResolver();
+
+    public abstract java.io.File getCacheDir();
+
+    public abstract java.io.File getFilesDir();
+
+    public abstract java.io.File getNoBackupFilesDir();
+
+    public abstract Context getApplicationContext();
+}
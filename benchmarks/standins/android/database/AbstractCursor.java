@@ -0,0 +1,88 @@
+package android.database;
+
+/**
+ * Host stand-in for {@code android.database.AbstractCursor}, only what the unisoc assist classes use.
+ */
+public abstract class AbstractCursor implements Cursor {
+    protected int mPos = -1;
+    protected boolean mClosed;
+
+    public abstract int getCount();
+
+    public abstract String[] getColumnNames();
+
+    public int getPosition() {
+        return mPos;
+    }
+
+    public boolean onMove(int oldPosition, int newPosition) {
+        return true;
+    }
+
+    public final boolean moveToPosition(int position) {
+        final int count = getCount();
+        if (position >= count) {
+            mPos = count;
+            return false;
+        }
+        if (position < 0) {
+            mPos = -1;
+            return false;
+        }
+        if (position == mPos) {
+            return true;
+        }
+        boolean result = onMove(mPos, position);
+        mPos = result ? position : -1;
+        return result;
+    }
+
+    public final boolean move(int offset) {
+        return moveToPosition(mPos + offset);
+    }
+
+    public final boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    public final boolean moveToNext() {
+        return moveToPosition(mPos + 1);
+    }
+
+    public int getColumnIndex(String columnName) {
+        String[] names = getColumnNames();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(columnName)) return i;
+        }
+        return -1;
+    }
+
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0) throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        return index;
+    }
+
+    public int getColumnCount() {
+        return getColumnNames().length;
+    }
+
+    public byte[] getBlob(int columnIndex) {
+        throw new UnsupportedOperationException("getBlob is not supported");
+    }
+
+    public int getType(int columnIndex) {
+        return FIELD_TYPE_STRING;
+    }
+
+    public void deactivate() {
+    }
+
+    public void close() {
+        mClosed = true;
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+}
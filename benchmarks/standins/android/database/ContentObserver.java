@@ -0,0 +1,7 @@
+package android.database;
+
+/**
+ * Host stand-in for {@code android.database.ContentObserver}, only what the unisoc assist classes use.
+ */
+public abstract class ContentObserver {
+}
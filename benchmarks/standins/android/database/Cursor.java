@@ -0,0 +1,55 @@
+package android.database;
+
+/**
+ * Host stand-in for {@code android.database.Cursor}, only what the unisoc assist classes use.
+ */
+public interface Cursor extends java.io.Closeable {
+    int FIELD_TYPE_NULL = 0;
+    int FIELD_TYPE_INTEGER = 1;
+    int FIELD_TYPE_FLOAT = 2;
+    int FIELD_TYPE_STRING = 3;
+    int FIELD_TYPE_BLOB = 4;
+
+    int getCount();
+
+    int getPosition();
+
+    boolean move(int offset);
+
+    boolean moveToPosition(int position);
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getColumnIndex(String columnName);
+
+    int getColumnIndexOrThrow(String columnName);
+
+    String[] getColumnNames();
+
+    int getColumnCount();
+
+    String getString(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    short getShort(int columnIndex);
+
+    float getFloat(int columnIndex);
+
+    double getDouble(int columnIndex);
+
+    byte[] getBlob(int columnIndex);
+
+    boolean isNull(int columnIndex);
+
+    int getType(int columnIndex);
+
+    void deactivate();
+
+    @Override
+    void close();
+}
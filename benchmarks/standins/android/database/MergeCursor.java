@@ -0,0 +1,122 @@
+package android.database;
+
+/**
+ * Host stand-in for {@code android.database.MergeCursor}, only what the unisoc assist classes use.
+ */
+public class MergeCursor implements Cursor {
+    private final Cursor[] mCursors;
+    private Cursor mCursor;
+    private int mPosition = -1;
+
+    public MergeCursor(Cursor[] cursors) {
+        mCursors = cursors;
+    }
+
+    public int getCount() {
+        int count = 0;
+        for (Cursor c : mCursors) {
+            if (c != null) count += c.getCount();
+        }
+        return count;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+
+    public boolean move(int offset) {
+        return moveToPosition(mPosition + offset);
+    }
+
+    public boolean moveToPosition(int position) {
+        mCursor = null;
+        mPosition = Math.max(-1, Math.min(position, getCount()));
+        int start = 0;
+        for (Cursor c : mCursors) {
+            if (c == null) continue;
+            if (position < start + c.getCount()) {
+                if (position < 0) return false;
+                mCursor = c;
+                return c.moveToPosition(position - start);
+            }
+            start += c.getCount();
+        }
+        return false;
+    }
+
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    public boolean moveToNext() {
+        return moveToPosition(mPosition + 1);
+    }
+
+    private Cursor first() {
+        for (Cursor c : mCursors) {
+            if (c != null) return c;
+        }
+        throw new IllegalStateException();
+    }
+
+    public int getColumnIndex(String columnName) {
+        return first().getColumnIndex(columnName);
+    }
+
+    public int getColumnIndexOrThrow(String columnName) {
+        return first().getColumnIndexOrThrow(columnName);
+    }
+
+    public String[] getColumnNames() {
+        return first().getColumnNames();
+    }
+
+    public int getColumnCount() {
+        return first().getColumnCount();
+    }
+
+    public String getString(int columnIndex) {
+        return mCursor.getString(columnIndex);
+    }
+
+    public int getInt(int columnIndex) {
+        return mCursor.getInt(columnIndex);
+    }
+
+    public long getLong(int columnIndex) {
+        return mCursor.getLong(columnIndex);
+    }
+
+    public short getShort(int columnIndex) {
+        return mCursor.getShort(columnIndex);
+    }
+
+    public float getFloat(int columnIndex) {
+        return mCursor.getFloat(columnIndex);
+    }
+
+    public double getDouble(int columnIndex) {
+        return mCursor.getDouble(columnIndex);
+    }
+
+    public byte[] getBlob(int columnIndex) {
+        return mCursor.getBlob(columnIndex);
+    }
+
+    public boolean isNull(int columnIndex) {
+        return mCursor.isNull(columnIndex);
+    }
+
+    public int getType(int columnIndex) {
+        return mCursor.getType(columnIndex);
+    }
+
+    public void deactivate() {
+    }
+
+    public void close() {
+        for (Cursor c : mCursors) {
+            if (c != null) c.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package android.database.sqlite;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+
+/**
+ * Host stand-in for {@code android.database.sqlite.SQLiteDatabase}, only what the unisoc assist classes use.
+ */
+public class SQLiteDatabase {
+    public void execSQL(String sql) {
+    }
+
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+            String groupBy, String having, String orderBy) {
+        return null;
+    }
+
+    public Cursor query(boolean distinct, String table, String[] columns, String selection,
+            String[] selectionArgs, String groupBy, String having, String orderBy, String limit,
+            CancellationSignal cancellationSignal) {
+        return null;
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        return null;
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs, CancellationSignal cancellationSignal) {
+        return null;
+    }
+
+    public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        return 0;
+    }
+
+    public void beginTransaction() {
+    }
+
+    public void setTransactionSuccessful() {
+    }
+
+    public void endTransaction() {
+    }
+
+    public String getPath() {
+        return ":memory:";
+    }
+}
@@ -0,0 +1,7 @@
+package android.drm;
+
+/**
+ * Host stand-in for {@code android.drm.DecryptHandle}, only what the unisoc assist classes use.
+ */
+public class DecryptHandle {
+}
@@ -0,0 +1,34 @@
+package android.drm;
+
+import android.content.Context;
+
+/**
+ * Host stand-in for {@code android.drm.DrmManagerClientEx}, only what the unisoc assist classes use.
+ */
+public class DrmManagerClientEx {
+    public DrmManagerClientEx(Context context) {
+    }
+
+    public boolean canHandle(String path, String mimeType) {
+        return false;
+    }
+
+    public String getOriginalMimeType(String path) {
+        return null;
+    }
+
+    public DecryptHandle openDecryptSession(String path) {
+        return null;
+    }
+
+    public byte[] pread(DecryptHandle handle, int size, int offset) {
+        return null;
+    }
+
+    public int closeDecryptSession(DecryptHandle handle) {
+        return 0;
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,12 @@
+package android.graphics;
+
+/**
+ * Host stand-in for {@code android.graphics.BitmapFactory}, only what the unisoc assist classes use.
+ */
+public class BitmapFactory {
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int outWidth;
+        public int outHeight;
+    }
+}
@@ -0,0 +1,14 @@
+package android.graphics;
+
+import android.drm.DecryptHandle;
+import android.drm.DrmManagerClientEx;
+
+/**
+ * Host stand-in for {@code android.graphics.BitmapFactoryEx}, only what the unisoc assist classes use.
+ */
+public class BitmapFactoryEx {
+    public static Object decodeDrmStream(DrmManagerClientEx client, DecryptHandle handle,
+            BitmapFactory.Options options) {
+        return null;
+    }
+}
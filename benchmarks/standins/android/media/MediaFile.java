@@ -0,0 +1,23 @@
+package android.media;
+
+/**
+ * Host stand-in for {@code android.media.MediaFile}, only what the unisoc assist classes use.
+ */
+public class MediaFile {
+    public static String getFileExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot < 0 ? null : path.substring(dot + 1);
+    }
+
+    public static boolean isImageMimeType(String mimeType) {
+        return mimeType != null && mimeType.startsWith("image/");
+    }
+
+    public static boolean isAudioMimeType(String mimeType) {
+        return mimeType != null && mimeType.startsWith("audio/");
+    }
+
+    public static boolean isVideoMimeType(String mimeType) {
+        return mimeType != null && mimeType.startsWith("video/");
+    }
+}
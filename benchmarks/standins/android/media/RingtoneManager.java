@@ -0,0 +1,17 @@
+package android.media;
+
+import android.content.Context;
+import android.net.Uri;
+
+/**
+ * Host stand-in for {@code android.media.RingtoneManager}, only what the unisoc assist classes use.
+ */
+public class RingtoneManager {
+    public static final int TYPE_RINGTONE = 1;
+    public static final int TYPE_NOTIFICATION = 2;
+    public static final int TYPE_ALARM = 4;
+    public static final int TYPE_RINGTONE1 = 8;
+
+    public static void setActualDefaultRingtoneUri(Context context, int type, Uri ringtoneUri) {
+    }
+}
@@ -0,0 +1,105 @@
+package android.net;
+
+/**
+ * Host stand-in for {@code android.net.Uri}, only what the unisoc assist classes use.
+ */
+public class Uri {
+    private final String mString;
+
+    private Uri(String string) {
+        mString = string;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public String getScheme() {
+        int colon = mString.indexOf(':');
+        return colon < 0 ? null : mString.substring(0, colon);
+    }
+
+    public String getAuthority() {
+        int start = mString.indexOf("://");
+        if (start < 0) return null;
+        int end = start + 3;
+        while (end < mString.length() && "/?#".indexOf(mString.charAt(end)) < 0) end++;
+        return mString.substring(start + 3, end);
+    }
+
+    public String getEncodedQuery() {
+        return getQuery();
+    }
+
+    public String getQuery() {
+        int query = mString.indexOf('?');
+        return query < 0 ? null : mString.substring(query + 1);
+    }
+
+    public java.util.List<String> getPathSegments() {
+        String path = mString;
+        int query = path.indexOf('?');
+        if (query >= 0) path = path.substring(0, query);
+        int start = path.indexOf("://");
+        if (start >= 0) {
+            int slash = path.indexOf('/', start + 3);
+            path = slash < 0 ? "" : path.substring(slash);
+        }
+        java.util.ArrayList<String> segments = new java.util.ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) segments.add(segment);
+        }
+        return segments;
+    }
+
+    public String getLastPathSegment() {
+        java.util.List<String> segments = getPathSegments();
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    public static final class Builder {
+        private final StringBuilder mPath = new StringBuilder();
+        private String mScheme;
+        private String mAuthority;
+        private String mQuery;
+
+        public Builder scheme(String scheme) {
+            mScheme = scheme;
+            return this;
+        }
+
+        public Builder authority(String authority) {
+            mAuthority = authority;
+            return this;
+        }
+
+        public Builder appendPath(String segment) {
+            mPath.append('/').append(segment);
+            return this;
+        }
+
+        public Builder encodedQuery(String query) {
+            mQuery = query;
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(mScheme + "://" + mAuthority + mPath + (mQuery == null ? "" : "?" + mQuery));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && mString.equals(((Uri) o).mString);
+    }
+
+    @Override
+    public int hashCode() {
+        return mString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mString;
+    }
+}
@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * Host stand-in for {@code android.os.Bundle}, only what the unisoc assist classes use.
+ */
+public class Bundle {
+    private final java.util.HashMap<String, Object> mMap = new java.util.HashMap<>();
+
+    public void putString(String key, String value) {
+        mMap.put(key, value);
+    }
+
+    public String getString(String key) {
+        return (String) mMap.get(key);
+    }
+
+    public void putStringArray(String key, String[] value) {
+        mMap.put(key, value);
+    }
+
+    public String[] getStringArray(String key) {
+        return (String[]) mMap.get(key);
+    }
+}
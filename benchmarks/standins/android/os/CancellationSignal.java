@@ -0,0 +1,40 @@
+package android.os;
+
+/**
+ * Host stand-in for {@code android.os.CancellationSignal}, only what the unisoc assist classes use.
+ */
+public class CancellationSignal {
+    private volatile boolean mCanceled;
+    private OnCancelListener mListener;
+
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    public void cancel() {
+        OnCancelListener listener;
+        synchronized (this) {
+            if (mCanceled) return;
+            mCanceled = true;
+            listener = mListener;
+        }
+        if (listener != null) listener.onCancel();
+    }
+
+    public void setOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            if (mListener == listener) return;
+            mListener = listener;
+            if (!mCanceled || listener == null) return;
+        }
+        listener.onCancel();
+    }
+
+    public void throwIfCanceled() {
+        if (mCanceled) throw new OperationCanceledException();
+    }
+}
@@ -0,0 +1,25 @@
+package android.os;
+
+/**
+ * Host stand-in for {@code android.os.Environment}, only what the unisoc assist classes use.
+ */
+public class Environment {
+    public static String DIRECTORY_MUSIC = "Music";
+    public static String DIRECTORY_PODCASTS = "Podcasts";
+    public static String DIRECTORY_RINGTONES = "Ringtones";
+    public static String DIRECTORY_ALARMS = "Alarms";
+    public static String DIRECTORY_NOTIFICATIONS = "Notifications";
+    public static String DIRECTORY_PICTURES = "Pictures";
+    public static String DIRECTORY_MOVIES = "Movies";
+    public static String DIRECTORY_DOWNLOADS = "Download";
+    public static String DIRECTORY_DCIM = "DCIM";
+    public static String DIRECTORY_DOCUMENTS = "Documents";
+
+    public static java.io.File getExternalStorageDirectory() {
+        return new java.io.File("/storage/emulated/0");
+    }
+
+    public static java.io.File getExternalStoragePublicDirectory(String type) {
+        return new java.io.File(getExternalStorageDirectory(), type);
+    }
+}
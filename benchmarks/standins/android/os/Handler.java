@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * Host stand-in for {@code android.os.Handler}, only what the unisoc assist classes use.
+ */
+public class Handler {
+    public final boolean post(Runnable r) {
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+}
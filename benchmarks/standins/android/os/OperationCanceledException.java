@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * Host stand-in for {@code android.os.OperationCanceledException}, only what the unisoc assist classes use.
+ */
+public class OperationCanceledException extends RuntimeException {
+    public OperationCanceledException() {
+    }
+
+    public OperationCanceledException(String message) {
+        super(message);
+    }
+}
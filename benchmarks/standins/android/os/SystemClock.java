@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * Host stand-in for {@code android.os.SystemClock}, only what the unisoc assist classes use.
+ */
+public final class SystemClock {
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime();
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+}
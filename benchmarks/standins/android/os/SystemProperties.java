@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Host stand-in for {@code android.os.SystemProperties}, only what the unisoc assist classes use.
+ */
+public final class SystemProperties {
+    public static String get(String key) {
+        return "";
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        return def;
+    }
+}
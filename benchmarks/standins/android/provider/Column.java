@@ -0,0 +1,10 @@
+package android.provider;
+
+/**
+ * Host stand-in for {@code android.provider.Column}, only what the unisoc assist classes use.
+ */
+public @interface Column {
+    int value();
+
+    boolean readOnly() default false;
+}
@@ -0,0 +1,53 @@
+package android.provider;
+
+import android.net.Uri;
+
+/**
+ * Host stand-in for {@code android.provider.MediaStore}, only what the unisoc assist classes use.
+ */
+public final class MediaStore {
+    public static final String VOLUME_INTERNAL = "internal";
+    public static final String VOLUME_EXTERNAL = "external";
+    public static final String VOLUME_EXTERNAL_PRIMARY = "external_primary";
+
+    public static java.io.File getVolumePath(String volumeName) throws java.io.FileNotFoundException {
+        throw new java.io.FileNotFoundException(volumeName);
+    }
+
+    public interface MediaColumns {
+        String _ID = "_id";
+        String DATA = "_data";
+        String DISPLAY_NAME = "_display_name";
+        String TITLE = "title";
+        String MIME_TYPE = "mime_type";
+        String DATE_MODIFIED = "date_modified";
+        String IS_PENDING = "is_pending";
+        String IS_DRM = "is_drm";
+        String VOLUME_NAME = "volume_name";
+        String SIZE = "_size";
+    }
+
+    public static final class Files {
+        public static Uri getContentUri(String volumeName) {
+            return Uri.parse("content://media/" + volumeName + "/file");
+        }
+
+        public interface FileColumns extends MediaColumns {
+            String MEDIA_TYPE = "media_type";
+            String IS_DOWNLOAD = "is_download";
+            String PARENT = "parent";
+        }
+    }
+
+    public static final class Images {
+        public interface ImageColumns extends MediaColumns {
+            String DATE_TAKEN = "datetaken";
+        }
+    }
+
+    public static final class Audio {
+        public static final class Media {
+            public static final Uri INTERNAL_CONTENT_URI = Uri.parse("content://media/internal/audio/media");
+        }
+    }
+}
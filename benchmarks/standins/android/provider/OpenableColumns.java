@@ -0,0 +1,8 @@
+package android.provider;
+
+/**
+ * Host stand-in for {@code android.provider.OpenableColumns}, only what the unisoc assist classes use.
+ */
+public interface OpenableColumns {
+    String DISPLAY_NAME = "_display_name";
+}
@@ -0,0 +1,18 @@
+package android.provider;
+
+import android.content.ContentResolver;
+
+/**
+ * Host stand-in for {@code android.provider.Settings}, only what the unisoc assist classes use.
+ */
+public final class Settings {
+    public static final class System {
+        public static int getInt(ContentResolver cr, String name, int def) {
+            return def;
+        }
+
+        public static boolean putInt(ContentResolver cr, String name, int value) {
+            return true;
+        }
+    }
+}
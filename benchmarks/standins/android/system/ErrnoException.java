@@ -0,0 +1,13 @@
+package android.system;
+
+/**
+ * Host stand-in for {@code android.system.ErrnoException}, only what the unisoc assist classes use.
+ */
+public final class ErrnoException extends Exception {
+    public final int errno;
+
+    public ErrnoException(String functionName, int errno) {
+        super(functionName + " failed: errno " + errno);
+        this.errno = errno;
+    }
+}
@@ -0,0 +1,34 @@
+package android.system;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host stand-in for {@code android.system.Os}, only what the unisoc assist classes use.
+ */
+public final class Os {
+    public static boolean access(String path, int mode) {
+        return new java.io.File(path).exists();
+    }
+
+    public static StructStat lstat(String path) throws ErrnoException {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(Paths.get(path),
+                    "unix:ino,mode,lastModifiedTime,ctime,size", LinkOption.NOFOLLOW_LINKS);
+            return new StructStat((Long) attrs.get("ino"), (Integer) attrs.get("mode"),
+                    timespec((FileTime) attrs.get("lastModifiedTime")), timespec((FileTime) attrs.get("ctime")),
+                    (Long) attrs.get("size"));
+        } catch (java.io.IOException e) {
+            throw new ErrnoException("lstat", OsConstants.ENOENT);
+        }
+    }
+
+    private static StructTimespec timespec(FileTime time) {
+        final long nanos = time.to(TimeUnit.NANOSECONDS);
+        return new StructTimespec(Math.floorDiv(nanos, 1000000000L), Math.floorMod(nanos, 1000000000L));
+    }
+}
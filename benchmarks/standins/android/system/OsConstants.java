@@ -0,0 +1,9 @@
+package android.system;
+
+/**
+ * Host stand-in for {@code android.system.OsConstants}, only what the unisoc assist classes use.
+ */
+public final class OsConstants {
+    public static final int F_OK = 0;
+    public static final int ENOENT = 2;
+}
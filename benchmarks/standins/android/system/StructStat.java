@@ -0,0 +1,24 @@
+package android.system;
+
+/**
+ * Host stand-in for {@code android.system.StructStat}, only what the unisoc assist classes use.
+ */
+public final class StructStat {
+    public final long st_ino;
+    public final long st_mode;
+    public final long st_mtime;
+    public final StructTimespec st_mtim;
+    public final long st_ctime;
+    public final StructTimespec st_ctim;
+    public final long st_size;
+
+    public StructStat(long st_ino, long st_mode, StructTimespec st_mtim, StructTimespec st_ctim, long st_size) {
+        this.st_ino = st_ino;
+        this.st_mode = st_mode;
+        this.st_mtime = st_mtim.tv_sec;
+        this.st_mtim = st_mtim;
+        this.st_ctime = st_ctim.tv_sec;
+        this.st_ctim = st_ctim;
+        this.st_size = st_size;
+    }
+}
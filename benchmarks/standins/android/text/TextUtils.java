@@ -0,0 +1,21 @@
+package android.text;
+
+/**
+ * Host stand-in for {@code android.text.TextUtils}, only what the unisoc assist classes use.
+ */
+public final class TextUtils {
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        return a == b || (a != null && b != null && a.toString().equals(b.toString()));
+    }
+
+    public static boolean isDigitsOnly(CharSequence str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (!Character.isDigit(str.charAt(i))) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+package android.util;
+
+/**
+ * Host stand-in for {@code android.util.AtomicFile}, only what the unisoc assist classes use.
+ * Like the platform class, a write goes to a new file which replaces the base file when it is finished.
+ */
+public class AtomicFile {
+    private final java.io.File mFile;
+    private final java.io.File mNewFile;
+
+    public AtomicFile(java.io.File file) {
+        mFile = file;
+        mNewFile = new java.io.File(file.getPath() + ".new");
+    }
+
+    public java.io.FileInputStream openRead() throws java.io.FileNotFoundException {
+        return new java.io.FileInputStream(mFile);
+    }
+
+    public java.io.FileOutputStream startWrite() throws java.io.IOException {
+        return new java.io.FileOutputStream(mNewFile);
+    }
+
+    public void finishWrite(java.io.FileOutputStream str) {
+        try {
+            str.close();
+        } catch (java.io.IOException ignored) {
+        }
+        mNewFile.renameTo(mFile);
+    }
+
+    public void failWrite(java.io.FileOutputStream str) {
+        if (str != null) {
+            try {
+                str.close();
+            } catch (java.io.IOException ignored) {
+            }
+        }
+        mNewFile.delete();
+    }
+
+    public void delete() {
+        mFile.delete();
+        mNewFile.delete();
+    }
+
+    public java.io.File getBaseFile() {
+        return mFile;
+    }
+}
@@ -0,0 +1,64 @@
+package android.util;
+
+/**
+ * Host stand-in for {@code android.util.LongSparseArray}, only what the unisoc assist classes use.
+ */
+public class LongSparseArray<E> {
+    private long[] mKeys = new long[8];
+    private Object[] mValues = new Object[8];
+    private int mSize;
+
+    public int indexOfKey(long key) {
+        return java.util.Arrays.binarySearch(mKeys, 0, mSize, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long key) {
+        int i = indexOfKey(key);
+        return i < 0 ? null : (E) mValues[i];
+    }
+
+    public void put(long key, E value) {
+        int i = indexOfKey(key);
+        if (i >= 0) {
+            mValues[i] = value;
+            return;
+        }
+        i = ~i;
+        if (mSize == mKeys.length) {
+            mKeys = java.util.Arrays.copyOf(mKeys, mSize * 2);
+            mValues = java.util.Arrays.copyOf(mValues, mSize * 2);
+        }
+        System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+        mKeys[i] = key;
+        mValues[i] = value;
+        mSize++;
+    }
+
+    public void remove(long key) {
+        int i = indexOfKey(key);
+        if (i >= 0) {
+            System.arraycopy(mKeys, i + 1, mKeys, i, mSize - i - 1);
+            System.arraycopy(mValues, i + 1, mValues, i, mSize - i - 1);
+            mSize--;
+        }
+    }
+
+    public long keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) mValues[index];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+}
@@ -0,0 +1,33 @@
+package android.util;
+
+/**
+ * Host stand-in for {@code android.util.LruCache}, only what the unisoc assist classes use.
+ */
+public class LruCache<K, V> {
+    private final java.util.LinkedHashMap<K, V> mMap;
+
+    public LruCache(int maxSize) {
+        mMap = new java.util.LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        return mMap.get(key);
+    }
+
+    public synchronized V put(K key, V value) {
+        return mMap.put(key, value);
+    }
+
+    public synchronized V remove(K key) {
+        return mMap.remove(key);
+    }
+
+    public synchronized void evictAll() {
+        mMap.clear();
+    }
+}
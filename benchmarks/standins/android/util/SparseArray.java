@@ -0,0 +1,24 @@
+package android.util;
+
+/**
+ * Host stand-in for {@code android.util.SparseArray}, only what the unisoc assist classes use.
+ */
+public class SparseArray<E> {
+    private final java.util.TreeMap<Integer, E> mMap = new java.util.TreeMap<>();
+
+    public E get(int key) {
+        return mMap.get(key);
+    }
+
+    public void put(int key, E value) {
+        mMap.put(key, value);
+    }
+
+    public void append(int key, E value) {
+        mMap.put(key, value);
+    }
+
+    public int size() {
+        return mMap.size();
+    }
+}
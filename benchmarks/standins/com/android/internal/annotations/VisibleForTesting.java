@@ -0,0 +1,7 @@
+package com.android.internal.annotations;
+
+/**
+ * Host stand-in for {@code VisibleForTesting}, only what the unisoc assist classes use.
+ */
+public @interface VisibleForTesting {
+}
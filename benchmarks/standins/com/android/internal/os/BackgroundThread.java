@@ -0,0 +1,14 @@
+package com.android.internal.os;
+
+import android.os.Handler;
+
+/**
+ * Host stand-in for {@code BackgroundThread}, only what the unisoc assist classes use.
+ */
+public final class BackgroundThread {
+    private static final Handler sHandler = new Handler();
+
+    public static Handler getHandler() {
+        return sHandler;
+    }
+}
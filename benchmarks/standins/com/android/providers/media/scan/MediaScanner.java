@@ -0,0 +1,16 @@
+package com.android.providers.media.scan;
+
+import android.content.Context;
+
+/**
+ * Host stand-in for {@code com.android.providers.media.scan.MediaScanner}, only what the unisoc assist classes use.
+ */
+public interface MediaScanner {
+    static MediaScanner instance(Context context) {
+        throw new UnsupportedOperationException();
+    }
+
+    void scanDirectory(java.io.File file);
+
+    android.net.Uri scanFile(java.io.File file);
+}
@@ -0,0 +1,13 @@
+package com.android.providers.media.scan;
+
+/**
+ * Host stand-in for {@code com.android.providers.media.scan.ModernMediaScanner}, only what the unisoc assist classes use.
+ */
+public class ModernMediaScanner {
+    public void scanDirectory(java.io.File file) {
+    }
+
+    public android.net.Uri scanFile(java.io.File file) {
+        return null;
+    }
+}
@@ -0,0 +1,15 @@
+package libcore.io;
+
+/**
+ * Host stand-in for {@code libcore.io.IoUtils}, only what the unisoc assist classes use.
+ */
+public final class IoUtils {
+    public static void closeQuietly(AutoCloseable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.unisoc.providers.media;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on flight recorder of the assist hot paths.
+ * Events are an event id and two long arguments written into a preallocated ring of {@link #CAPACITY} slots,
+ * recording takes no lock, allocates nothing and formats no string.
+ * Events are only turned into text when the ring is dumped through dumpsys or written to a file.
+ * Once the ring is full the oldest events are overwritten.
+ */
+public final class AssistTrace {
+    private static final String TAG = "AssistTrace";
+
+    public static final String FILE_NAME = "assist_trace.txt";
+
+    public static final int EVENT_SPECIAL_PICTURE_FLAG = 1;     // fileFlag, written flag
+    public static final int EVENT_DRM_SKIP = 2;                 // reason, 0
+    public static final int EVENT_DRM_CACHE_HIT = 3;            // width, height
+    public static final int EVENT_DRM_CLIENT_ACQUIRE = 4;       // client identity, 0
+    public static final int EVENT_DRM_SERVICE_RESULT = 5;       // width, height, -1 when not handled
+    public static final int EVENT_DRM_CLIENT_RELEASE = 6;       // client identity, 0
+    public static final int EVENT_MIME_SNIFF = 7;               // sniff result, folder category
+    public static final int EVENT_UPDATE_SPECIAL_PICTURE = 8;   // row id, fileFlag
+    public static final int EVENT_BURST_PICK = 9;               // picked id, flag
+    public static final int EVENT_BURST_BATCH = 10;             // groups, rows updated
+    public static final int EVENT_DRM_SCAN_QUEUED = 11;         // 0, 0
+    public static final int EVENT_PROVIDER_CALL = 12;           // tag, calling pid
+    public static final int EVENT_JOURNAL_HIT = 13;             // fileFlag, 1 when the mime type is recorded
+
+    public static final int DRM_SKIP_DISABLED = 1;
+    public static final int DRM_SKIP_NO_PATH = 2;
+    public static final int DRM_SKIP_NOT_DRM = 3;
+
+    private static final String[] EVENT_NAMES = {
+            null,
+            "special_picture_flag",
+            "drm_skip",
+            "drm_cache_hit",
+            "drm_client_acquire",
+            "drm_service_result",
+            "drm_client_release",
+            "mime_sniff",
+            "update_special_picture",
+            "burst_pick",
+            "burst_batch",
+            "drm_scan_queued",
+            "provider_call",
+            "journal_hit",
+    };
+
+    static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    // stamp, time, event id << 32 | thread id, arg0, arg1
+    private static final int SLOT_LONGS = 5;
+    private static final long STAMP_WRITING = -1;
+
+    private static final int MAX_TAGS = 64;
+
+    private static final AssistTrace sInstance = new AssistTrace();
+
+    private final AtomicLongArray mSlots = new AtomicLongArray(CAPACITY * SLOT_LONGS);
+    private final AtomicLong mCursor = new AtomicLong();
+    private final ConcurrentHashMap<String, Integer> mTagIds = new ConcurrentHashMap<>();
+    private final String[] mTagNames = new String[MAX_TAGS];
+
+    public static AssistTrace getInstance() {
+        return sInstance;
+    }
+
+    AssistTrace() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mSlots.set(i * SLOT_LONGS, STAMP_WRITING);
+        }
+        mTagNames[0] = "other";
+    }
+
+    /**
+     * Record one event.
+     *
+     * @param event one of the EVENT_* values
+     * @param arg0
+     * @param arg1
+     */
+    public static void record(int event, long arg0, long arg1) {
+        sInstance.write(event, arg0, arg1);
+    }
+
+    void write(int event, long arg0, long arg1) {
+        final long seq = mCursor.getAndIncrement();
+        final int base = (int) (seq & MASK) * SLOT_LONGS;
+        // Every store is ordered, a reader seeing the final stamp sees the whole event,
+        // and a reader racing a later overwrite sees the stamp change.
+        mSlots.lazySet(base, STAMP_WRITING);
+        mSlots.lazySet(base + 1, System.nanoTime());
+        mSlots.lazySet(base + 2, ((long) event << 32) | (Thread.currentThread().getId() & 0xFFFFFFFFL));
+        mSlots.lazySet(base + 3, arg0);
+        mSlots.lazySet(base + 4, arg1);
+        mSlots.set(base, seq);
+    }
+
+    /**
+     * Return a small id for a call site tag, to be used as an event argument.
+     * Known tags are looked up without allocating, tags past the table size share id 0.
+     *
+     * @param tag
+     * @return
+     */
+    public int tagId(String tag) {
+        Integer id = mTagIds.get(tag);
+        if (id != null) {
+            return id;
+        }
+        synchronized (mTagNames) {
+            id = mTagIds.get(tag);
+            if (id == null) {
+                id = mTagIds.size() + 1;
+                if (id >= MAX_TAGS) {
+                    return 0;
+                }
+                mTagNames[id] = tag;
+                mTagIds.put(tag, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @param id
+     * @return the tag registered by {@link #tagId(String)}, "other" for unknown ids
+     */
+    public String tagName(int id) {
+        String name = id >= 0 && id < MAX_TAGS ? mTagNames[id] : null;
+        return name != null ? name : mTagNames[0];
+    }
+
+    /**
+     * Copy the events still in the ring, oldest first.
+     *
+     * @param out receives SLOT_LONGS - 1 longs per event: time, event id << 32 | thread id, arg0, arg1
+     * @return the number of events copied
+     */
+    int snapshot(long[] out) {
+        final long end = mCursor.get();
+        int count = 0;
+        for (long seq = Math.max(0, end - CAPACITY); seq < end; seq++) {
+            final int base = (int) (seq & MASK) * SLOT_LONGS;
+            if (mSlots.get(base) != seq) {
+                continue;
+            }
+            final int pos = count * (SLOT_LONGS - 1);
+            for (int i = 0; i < SLOT_LONGS - 1; i++) {
+                out[pos + i] = mSlots.get(base + 1 + i);
+            }
+            if (mSlots.get(base) == seq) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Dump the recorded events, newest last, with times relative to now.
+     *
+     * @param pw
+     */
+    public void dump(PrintWriter pw) {
+        final long[] events = new long[CAPACITY * (SLOT_LONGS - 1)];
+        final int count = snapshot(events);
+        final long now = System.nanoTime();
+        pw.println("AssistTrace: " + count + " events, " + mCursor.get() + " recorded");
+        for (int i = 0; i < count; i++) {
+            final int pos = i * (SLOT_LONGS - 1);
+            final int event = (int) (events[pos + 1] >>> 32);
+            final long arg0 = events[pos + 2];
+            pw.print("  -");
+            pw.print((now - events[pos]) / 1000);
+            pw.print("us tid=");
+            pw.print(events[pos + 1] & 0xFFFFFFFFL);
+            pw.print(' ');
+            pw.print(event > 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : "event" + event);
+            pw.print(' ');
+            if (event == EVENT_PROVIDER_CALL) {
+                pw.print(tagName((int) arg0));
+            } else {
+                pw.print(arg0);
+            }
+            pw.print(' ');
+            pw.println(events[pos + 3]);
+        }
+    }
+
+    /**
+     * Write the text dump to file, so that a trace too long for the dumpsys output can be pulled
+     * from the device. Requested with the --assist-trace dumpsys argument, see MediaProviderAssist#dump.
+     *
+     * @param file
+     * @return true on success
+     */
+    public boolean dumpToFile(File file) {
+        try (PrintWriter pw = new PrintWriter(new FileOutputStream(file))) {
+            dump(pw);
+            return !pw.checkError();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + file, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.unisoc.providers.media;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.util.Log;
+import android.util.LongSparseArray;
+import libcore.io.IoUtils;
+
+/**
+ * In-memory registry of burst groups taken by the camera: datetaken -> member ids and the current cover.
+ * Used by {@link MediaProviderAssist} so that cover re-election on delete is decided in memory
+ * and only the row that really changes is written back.
+ * The registry is rebuilt lazily from the files table on first use and after every invalidation.
+ * Callers must hold the registry lock while using it together with the database.
+ */
+public class BurstGroupRegistry {
+    private static final String TAG = "BurstGroupRegistry";
+
+    /**
+     * Returned by {@link #resolve} when no row has to be updated.
+     */
+    public static final long NO_CHANGE = -1;
+
+    private static final String[] sProjection = new String[]{
+            MediaFileAssist.Files._ID,
+            MediaFileAssist.Images.DATE_TAKEN,
+            MediaFileAssist.Files.FILE_FLAG
+    };
+
+    private static final class Group {
+        long[] members = new long[4];
+        int size;
+        long cover = NO_CHANGE;
+        // The cover was removed since the last resolve, only then is a new one elected
+        boolean coverRemoved;
+
+        void add(long id) {
+            if (indexOf(id) >= 0) return;
+            if (size == members.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(members, 0, grown, 0, size);
+                members = grown;
+            }
+            members[size++] = id;
+        }
+
+        boolean remove(long id) {
+            int index = indexOf(id);
+            if (index < 0) return false;
+            System.arraycopy(members, index + 1, members, index, size - index - 1);
+            size--;
+            if (cover == id) {
+                cover = NO_CHANGE;
+                coverRemoved = true;
+            }
+            return true;
+        }
+
+        int indexOf(long id) {
+            for (int i = 0; i < size; i++) {
+                if (members[i] == id) return i;
+            }
+            return -1;
+        }
+    }
+
+    private final LongSparseArray<Group> mGroups = new LongSparseArray<>();
+    private SQLiteDatabase mDb;
+    private boolean mLoaded;
+
+    /**
+     * Drop the in-memory state, it will be rebuilt on the next {@link #ensureLoaded}.
+     */
+    public synchronized void invalidate() {
+        mLoaded = false;
+        mDb = null;
+        mGroups.clear();
+    }
+
+    /**
+     * Rebuild the registry from db if it has never been loaded, was invalidated, or was built from another database.
+     *
+     * @param db
+     */
+    public synchronized void ensureLoaded(SQLiteDatabase db) {
+        ensureLoaded(db, null);
+    }
+
+    /**
+     * Same as {@link #ensureLoaded(SQLiteDatabase)}, the load query stops when signal is canceled
+     * and the registry stays unloaded.
+     *
+     * @param db
+     * @param signal may be null
+     */
+    public synchronized void ensureLoaded(SQLiteDatabase db, CancellationSignal signal) {
+        if (mLoaded && mDb == db) {
+            return;
+        }
+        mLoaded = false;
+        mGroups.clear();
+        Cursor c = db.query(false, "files", sProjection, MediaProviderAssist.BURST_FLAG_SELECTION, null,
+                null, null, MediaFileAssist.Files._ID, null, signal);
+        try {
+            while (c != null && c.moveToNext()) {
+                addMember(c.getLong(1), c.getLong(0), c.getInt(2));
+            }
+        } finally {
+            IoUtils.closeQuietly(c);
+        }
+        mDb = db;
+        mLoaded = true;
+        if (MediaProviderAssist.LOCAL_LOG_ENABLE) {
+            Log.d(TAG, "ensureLoaded -> groups: " + mGroups.size());
+        }
+    }
+
+    /**
+     * Record a burst row inserted by the camera. Ignored until the registry is loaded,
+     * the lazy load will pick the row up from the database.
+     *
+     * @param datetaken
+     * @param id
+     * @param fileFlag
+     */
+    public synchronized void onInserted(long datetaken, long id, int fileFlag) {
+        if (mLoaded) {
+            addMember(datetaken, id, fileFlag);
+        }
+    }
+
+    private void addMember(long datetaken, long id, int fileFlag) {
+        Group group = mGroups.get(datetaken);
+        if (group == null) {
+            group = new Group();
+            mGroups.put(datetaken, group);
+        }
+        group.add(id);
+        if (fileFlag == MediaFileAssist.IMG_TYPE_MODE_BURST_COVER && group.cover == NO_CHANGE) {
+            group.cover = id;
+        }
+    }
+
+    /**
+     * @param datetaken
+     * @return true when the registry knows a group with members at datetaken
+     */
+    public synchronized boolean hasGroup(long datetaken) {
+        return mGroups.get(datetaken) != null;
+    }
+
+    /**
+     * Forget a deleted member. The group is fixed up later by {@link #resolve},
+     * so that several members can be removed before any decision is taken.
+     *
+     * @param datetaken
+     * @param id
+     */
+    public synchronized void removeMember(long datetaken, long id) {
+        Group group = mGroups.get(datetaken);
+        if (group != null && group.remove(id) && group.size == 0) {
+            mGroups.remove(datetaken);
+        }
+    }
+
+    /**
+     * Decide what has to happen to the group of datetaken after its deleted members were removed,
+     * and apply the decision in memory.
+     *
+     * @param datetaken
+     * @param outFlag   receives the new file_flag of the returned row
+     * @return the _id of the row to update, or {@link #NO_CHANGE}
+     */
+    public synchronized long resolve(long datetaken, int[] outFlag) {
+        Group group = mGroups.get(datetaken);
+        if (group == null) {
+            return NO_CHANGE;
+        }
+        if (group.size == 1) {
+            //Only one picture left, it becomes a normal picture and leaves the registry.
+            mGroups.remove(datetaken);
+            outFlag[0] = MediaFileAssist.IMG_TYPE_MODE_NORMAL;
+            return group.members[0];
+        }
+        if (group.coverRemoved) {
+            //Like the database path, a group that never had a cover is left alone.
+            group.coverRemoved = false;
+            group.cover = group.members[0];
+            outFlag[0] = MediaFileAssist.IMG_TYPE_MODE_BURST_COVER;
+            return group.cover;
+        }
+        return NO_CHANGE;
+    }
+}
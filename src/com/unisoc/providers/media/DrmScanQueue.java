@@ -0,0 +1,201 @@
+package com.unisoc.providers.media;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded, coalescing queue of DRM file scans requested by {@link MediaProviderAssist#maybeTriggerScanDrmFile}.
+ * Repeated requests for a pending path are merged, files waiting in the same directory are scanned
+ * together by one worker, and at most {@link #MAX_CONCURRENT_SCANS} workers run at any time.
+ * The scanner has no call for a list of files, and a directory scan walks and reconciles the whole tree,
+ * so a batch is scanned with one pass over its directory only when the directory has no subdirectory
+ * and the batch is at least {@link #MIN_DIRECTORY_BATCH} files and half of its entries; otherwise file by file,
+ * so that a few downloads don't cost a walk of a large Download folder.
+ * At most {@link #MAX_PENDING} files wait, later requests are dropped and left to the next scan.
+ */
+public class DrmScanQueue {
+    private static final String TAG = "DrmScanQueue";
+
+    private static final int MAX_CONCURRENT_SCANS = 2;
+    static final int MIN_DIRECTORY_BATCH = 4;
+    static final int MAX_PENDING = 256;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Scans files and directories, {@link com.android.providers.media.scan.MediaScanner} in production.
+     */
+    public interface Scanner {
+        void scanFile(File file);
+
+        void scanDirectory(File dir);
+    }
+
+    private final Scanner mScanner;
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Object mLock = new Object();
+    // parent directory -> (path -> enqueue time), both in arrival order
+    private final LinkedHashMap<String, LinkedHashMap<String, Long>> mPending = new LinkedHashMap<>();
+    private int mPendingCount;
+    private int mRunning;
+
+    // Counters, guarded by mLock
+    private long mEnqueued;
+    private long mDeduped;
+    private long mDropped;
+    private long mScanned;
+    private long mBatches;
+    private long mDirectoryScans;
+    private long mTotalLatencyMs;
+    private long mMaxLatencyMs;
+    private int mMaxDepth;
+
+    public DrmScanQueue(Scanner scanner) {
+        mScanner = scanner;
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_SCANS, MAX_CONCURRENT_SCANS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, TAG + "-" + threadCount.incrementAndGet()));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Request a scan of path. Returns immediately, the scan runs on a worker thread.
+     *
+     * @param path
+     */
+    public void enqueue(String path) {
+        String parent = new File(path).getParent();
+        if (parent == null) {
+            parent = "";
+        }
+        synchronized (mLock) {
+            mEnqueued++;
+            LinkedHashMap<String, Long> batch = mPending.get(parent);
+            if (batch == null) {
+                batch = new LinkedHashMap<>();
+                mPending.put(parent, batch);
+            }
+            if (batch.containsKey(path)) {
+                mDeduped++;
+                return;
+            }
+            if (mPendingCount >= MAX_PENDING) {
+                mDropped++;
+                if (batch.isEmpty()) {
+                    mPending.remove(parent);
+                }
+                Log.w(TAG, "queue full, drop " + path);
+                return;
+            }
+            batch.put(path, SystemClock.elapsedRealtime());
+            mPendingCount++;
+            mMaxDepth = Math.max(mMaxDepth, mPendingCount);
+            dispatchLocked();
+        }
+    }
+
+    private void dispatchLocked() {
+        while (mRunning < MAX_CONCURRENT_SCANS && !mPending.isEmpty()) {
+            Iterator<Map.Entry<String, LinkedHashMap<String, Long>>> it = mPending.entrySet().iterator();
+            final Map.Entry<String, LinkedHashMap<String, Long>> entry = it.next();
+            final String parent = entry.getKey();
+            final LinkedHashMap<String, Long> batch = entry.getValue();
+            it.remove();
+            mPendingCount -= batch.size();
+            mRunning++;
+            mBatches++;
+            mExecutor.execute(() -> runBatch(parent, batch));
+        }
+    }
+
+    private void runBatch(String parent, LinkedHashMap<String, Long> batch) {
+        ArrayList<Long> latencies = new ArrayList<>(batch.size());
+        final boolean directory = !parent.isEmpty() && shouldScanDirectory(new File(parent), batch.size());
+        try {
+            if (directory) {
+                try {
+                    mScanner.scanDirectory(new File(parent));
+                } catch (Exception e) {
+                    Log.e(TAG, "scan failed: " + parent, e);
+                }
+                final long now = SystemClock.elapsedRealtime();
+                for (long enqueueTime : batch.values()) {
+                    latencies.add(now - enqueueTime);
+                }
+                return;
+            }
+            for (Map.Entry<String, Long> entry : batch.entrySet()) {
+                try {
+                    mScanner.scanFile(new File(entry.getKey()));
+                } catch (Exception e) {
+                    Log.e(TAG, "scan failed: " + entry.getKey(), e);
+                }
+                latencies.add(SystemClock.elapsedRealtime() - entry.getValue());
+            }
+        } finally {
+            synchronized (mLock) {
+                for (long latency : latencies) {
+                    mScanned++;
+                    mTotalLatencyMs += latency;
+                    mMaxLatencyMs = Math.max(mMaxLatencyMs, latency);
+                }
+                if (directory) {
+                    mDirectoryScans++;
+                }
+                mRunning--;
+                dispatchLocked();
+            }
+        }
+    }
+
+    /**
+     * Return true when one pass over dir is cheaper than scanning batchSize files of it one by one.
+     */
+    static boolean shouldScanDirectory(File dir, int batchSize) {
+        if (batchSize < MIN_DIRECTORY_BATCH) {
+            return false;
+        }
+        final File[] children = dir.listFiles();
+        if (children == null || batchSize * 2 < children.length) {
+            return false;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of files waiting for a worker.
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mPendingCount;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("DrmScanQueue:");
+            pw.println("  depth=" + mPendingCount + " maxDepth=" + mMaxDepth + " running=" + mRunning);
+            pw.println("  enqueued=" + mEnqueued + " deduped=" + mDeduped + " dropped=" + mDropped
+                    + " scanned=" + mScanned + " batches=" + mBatches + " directoryScans=" + mDirectoryScans);
+            pw.println("  latencyMs avg=" + (mScanned == 0 ? 0 : mTotalLatencyMs / mScanned)
+                    + " max=" + mMaxLatencyMs);
+        }
+    }
+}
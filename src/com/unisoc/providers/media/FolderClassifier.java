@@ -0,0 +1,197 @@
+package com.unisoc.providers.media;
+
+import android.os.Environment;
+
+/**
+ * Precompiled classifier of the public folders in {@link MediaProviderAssist#DEFAULT_FOLDER_NAME}.
+ * A path is split into its volume root (such as /storage/emulated/0 or /storage/1234-5678)
+ * and the path below it, which is matched segment by segment against a trie of the public folders.
+ * Matching is case insensitive, like the emulated storage, and never allocates substrings.
+ * A path below a public folder belongs to the deepest public folder that contains it.
+ */
+public class FolderClassifier {
+
+    public static final int CATEGORY_NONE = 0;
+    public static final int CATEGORY_MUSIC = 1;
+    public static final int CATEGORY_PODCASTS = 2;
+    public static final int CATEGORY_RINGTONES = 3;
+    public static final int CATEGORY_ALARMS = 4;
+    public static final int CATEGORY_NOTIFICATIONS = 5;
+    public static final int CATEGORY_PICTURES = 6;
+    public static final int CATEGORY_MOVIES = 7;
+    public static final int CATEGORY_DOWNLOADS = 8;
+    public static final int CATEGORY_DCIM = 9;
+    public static final int CATEGORY_DCIM_THUMBNAILS = 10;
+    public static final int CATEGORY_CAMERA = 11;
+    public static final int CATEGORY_DOCUMENTS = 12;
+    // A folder of DEFAULT_FOLDER_NAME without a dedicated category
+    public static final int CATEGORY_OTHER_DEFAULT = 13;
+
+    /**
+     * Volume roots, '*' matches exactly one segment. Longer prefixes of the same root come first.
+     */
+    private static final String[][] VOLUME_ROOTS = {
+            {"storage", "emulated", "*"},
+            {"storage", "self", "primary"},
+            {"storage", "*"},
+            {"sdcard"},
+            {"mnt", "media_rw", "*"},
+            {"data", "media", "*"},
+    };
+
+    private static FolderClassifier sDefault;
+
+    private static final class Node {
+        String[] names = new String[0];
+        Node[] children = new Node[0];
+        int category = CATEGORY_NONE;
+
+        Node child(String path, int start, int end) {
+            final int length = end - start;
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                if (name.length() == length && path.regionMatches(true, start, name, 0, length)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(String name) {
+            Node child = child(name, 0, name.length());
+            if (child != null) return child;
+            String[] grownNames = new String[names.length + 1];
+            Node[] grownChildren = new Node[children.length + 1];
+            System.arraycopy(names, 0, grownNames, 0, names.length);
+            System.arraycopy(children, 0, grownChildren, 0, children.length);
+            grownNames[names.length] = name;
+            grownChildren[children.length] = child = new Node();
+            names = grownNames;
+            children = grownChildren;
+            return child;
+        }
+    }
+
+    private final Node mFolders = new Node();
+    private final Node mRoots = new Node();
+    // Marks the end of a volume root pattern in mRoots
+    private static final int ROOT_END = -1;
+
+    public static synchronized FolderClassifier getDefault() {
+        if (sDefault == null) {
+            sDefault = new FolderClassifier(MediaProviderAssist.DEFAULT_FOLDER_NAME);
+        }
+        return sDefault;
+    }
+
+    public FolderClassifier(String[] folders) {
+        for (String folder : folders) {
+            Node node = mFolders;
+            for (String segment : folder.split("/")) {
+                if (!segment.isEmpty()) node = node.getOrAddChild(segment);
+            }
+            node.category = categoryOf(folder);
+        }
+        for (String[] root : VOLUME_ROOTS) {
+            Node node = mRoots;
+            for (String segment : root) {
+                node = node.getOrAddChild(segment);
+            }
+            node.category = ROOT_END;
+        }
+    }
+
+    /**
+     * Return the category of a folder of {@link MediaProviderAssist#DEFAULT_FOLDER_NAME}, relative to the volume root.
+     *
+     * @param folder
+     * @return
+     */
+    public static int categoryOf(String folder) {
+        if (folder.equals(Environment.DIRECTORY_MUSIC)) return CATEGORY_MUSIC;
+        if (folder.equals(Environment.DIRECTORY_PODCASTS)) return CATEGORY_PODCASTS;
+        if (folder.equals(Environment.DIRECTORY_RINGTONES)) return CATEGORY_RINGTONES;
+        if (folder.equals(Environment.DIRECTORY_ALARMS)) return CATEGORY_ALARMS;
+        if (folder.equals(Environment.DIRECTORY_NOTIFICATIONS)) return CATEGORY_NOTIFICATIONS;
+        if (folder.equals(Environment.DIRECTORY_PICTURES)) return CATEGORY_PICTURES;
+        if (folder.equals(Environment.DIRECTORY_MOVIES)) return CATEGORY_MOVIES;
+        if (folder.equals(Environment.DIRECTORY_DOWNLOADS)) return CATEGORY_DOWNLOADS;
+        if (folder.equals(Environment.DIRECTORY_DCIM)) return CATEGORY_DCIM;
+        if (folder.equals(Environment.DIRECTORY_DCIM + "/.thumbnails")) return CATEGORY_DCIM_THUMBNAILS;
+        if (folder.equals(Environment.DIRECTORY_DCIM + "/Camera")) return CATEGORY_CAMERA;
+        if (folder.equals(Environment.DIRECTORY_DOCUMENTS)) return CATEGORY_DOCUMENTS;
+        return CATEGORY_OTHER_DEFAULT;
+    }
+
+    /**
+     * Ringtones, alarms and notifications, where a 3gpp file is an audio file.
+     *
+     * @param category
+     * @return
+     */
+    public static boolean isSoundFolder(int category) {
+        return category == CATEGORY_RINGTONES || category == CATEGORY_ALARMS
+                || category == CATEGORY_NOTIFICATIONS;
+    }
+
+    /**
+     * Classify the directory path.
+     *
+     * @param path absolute directory path
+     * @return one of the CATEGORY_* values
+     */
+    public int classifyDirectory(String path) {
+        return classify(path, path.length());
+    }
+
+    /**
+     * Classify the directory containing the file path.
+     *
+     * @param path absolute file path
+     * @return one of the CATEGORY_* values
+     */
+    public int classifyParent(String path) {
+        return classify(path, Math.max(0, path.lastIndexOf('/')));
+    }
+
+    /**
+     * Return the end of the volume root of path, or -1 when path is not on a known volume.
+     */
+    public int findVolumeRootEnd(String path, int end) {
+        Node node = mRoots;
+        int pos = 0;
+        while (pos < end) {
+            while (pos < end && path.charAt(pos) == '/') pos++;
+            if (pos == end) break;
+            int segmentEnd = path.indexOf('/', pos);
+            if (segmentEnd < 0 || segmentEnd > end) segmentEnd = end;
+            Node next = node.child(path, pos, segmentEnd);
+            if (next == null) next = node.child("*", 0, 1);
+            if (next == null) return -1;
+            node = next;
+            pos = segmentEnd;
+            if (node.category == ROOT_END) return pos;
+        }
+        return -1;
+    }
+
+    private int classify(String path, int end) {
+        int pos = findVolumeRootEnd(path, end);
+        if (pos < 0) {
+            return CATEGORY_NONE;
+        }
+        Node node = mFolders;
+        int category = CATEGORY_NONE;
+        while (pos < end) {
+            while (pos < end && path.charAt(pos) == '/') pos++;
+            if (pos == end) break;
+            int segmentEnd = path.indexOf('/', pos);
+            if (segmentEnd < 0 || segmentEnd > end) segmentEnd = end;
+            node = node.child(path, pos, segmentEnd);
+            if (node == null) break;
+            if (node.category != CATEGORY_NONE) category = node.category;
+            pos = segmentEnd;
+        }
+        return category;
+    }
+}
@@ -0,0 +1,423 @@
+package com.unisoc.providers.media;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the public folders of {@link MediaProviderAssist#DEFAULT_FOLDER_NAME} on every attached volume
+ * with inotify, so that new media becomes visible without waiting for a full scan.
+ * inotify isn't recursive: the subfolders down to {@link #MAX_WATCH_DEPTH} levels below a public folder
+ * (Pictures/Screenshots, Download/&lt;app&gt;, Music/&lt;artist&gt;/&lt;album&gt;) are watched as well, those created later
+ * from the moment they show up, at most {@link #MAX_WATCHED_DIRS} folders per volume.
+ * Hidden folders and folders with .nomedia are not watched, deeper folders and those past the limit
+ * are left to the full scans.
+ * Events are coalesced for {@link #BATCH_WINDOW_MS} of quiet time, but never longer than
+ * {@link #MAX_BATCH_DELAY_MS}, then the changed files are scanned one by one through the scanner
+ * and its assist hooks. A directory with more than {@link #MAX_PENDING_FILES} changed files, a new
+ * subdirectory, or a watched directory which went away, is rescanned as a whole instead.
+ * inotify itself drops events when its queue overflows, FileObserver doesn't report that to any observer,
+ * so the periodic scans stay the backstop for lost events.
+ */
+public class FolderWatcher {
+    private static final String TAG = "FolderWatcher";
+
+    /**
+     * Scans changed files and directories, {@link com.android.providers.media.scan.MediaScanner} in production.
+     */
+    public interface Scanner {
+        void scanFile(File file);
+
+        void scanDirectory(File dir);
+    }
+
+    static final int WATCH_MASK = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO | FileObserver.MOVED_FROM
+            | FileObserver.DELETE | FileObserver.CREATE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+    // inotify flag passed along with the event
+    static final int IN_ISDIR = 0x40000000;
+
+    static final int MAX_WATCH_DEPTH = 2;
+    static final int MAX_WATCHED_DIRS = 1000;
+
+    private static final String NOMEDIA = ".nomedia";
+
+    static final long BATCH_WINDOW_MS = 20;
+    static final long MAX_BATCH_DELAY_MS = 200;
+    static final int MAX_PENDING_FILES = 256;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final class DirObserver extends FileObserver {
+        final String root;
+        final File dir;
+        // 0 for a public folder
+        final int depth;
+
+        DirObserver(String root, File dir, int depth) {
+            super(dir, WATCH_MASK);
+            this.root = root;
+            this.dir = dir;
+            this.depth = depth;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            FolderWatcher.this.onEvent(dir, event, name);
+        }
+    }
+
+    private final Scanner mScanner;
+    private final Handler mHandler;
+    private final ThreadPoolExecutor mExecutor;
+    private final Runnable mFlushRunnable = this::flushFromHandler;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    // Watched directories of every volume
+    private final HashMap<File, DirObserver> mObservers = new HashMap<>();
+    // directory -> changed file names, both in arrival order
+    private final LinkedHashMap<File, LinkedHashSet<String>> mPending = new LinkedHashMap<>();
+    private final LinkedHashSet<File> mRescan = new LinkedHashSet<>();
+    private long mFirstPendingTime = -1;
+    private long mLastEventTime;
+    private boolean mScheduled;
+    private long mEvents;
+    private long mFilesScanned;
+    private long mDirsScanned;
+    private long mOverflows;
+    private long mBatches;
+    private long mMaxDelayMs;
+
+    public FolderWatcher(Scanner scanner, Handler handler) {
+        mScanner = scanner;
+        mHandler = handler;
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, TAG));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start watching the public folders of the volume mounted at root and their subfolders.
+     * Folders which don't exist yet are skipped.
+     *
+     * @param root
+     */
+    public void startWatching(File root) {
+        final LinkedHashMap<File, Integer> dirs = new LinkedHashMap<>();
+        for (String folder : MediaProviderAssist.DEFAULT_FOLDER_NAME) {
+            final File dir = new File(root, folder);
+            // Thumbnails are hidden from the scanner anyway
+            if (FolderClassifier.getDefault().classifyDirectory(dir.getPath()) == FolderClassifier.CATEGORY_DCIM_THUMBNAILS
+                    || !dir.isDirectory()) {
+                continue;
+            }
+            collectDirs(dir, 0, dirs);
+        }
+        final List<DirObserver> observers = new ArrayList<>(dirs.size());
+        for (Map.Entry<File, Integer> e : dirs.entrySet()) {
+            observers.add(new DirObserver(root.getPath(), e.getKey(), e.getValue()));
+        }
+        final List<DirObserver> previous;
+        synchronized (mLock) {
+            previous = removeObserversLocked(root.getPath() + "/");
+            for (DirObserver observer : observers) {
+                mObservers.put(observer.dir, observer);
+            }
+        }
+        stop(previous);
+        for (DirObserver observer : observers) {
+            observer.startWatching();
+        }
+        if (MediaProviderAssist.LOCAL_LOG_ENABLE)
+            Log.d(TAG, "watching " + observers.size() + " folders of " + root);
+    }
+
+    /**
+     * Add dir and its subfolders down to {@link #MAX_WATCH_DEPTH} to dirs, up to {@link #MAX_WATCHED_DIRS} folders.
+     *
+     * @param dir
+     * @param depth depth of dir below its public folder
+     * @param dirs directory -> depth
+     */
+    static void collectDirs(File dir, int depth, Map<File, Integer> dirs) {
+        if (dirs.size() >= MAX_WATCHED_DIRS || dirs.containsKey(dir)) {
+            return;
+        }
+        dirs.put(dir, depth);
+        if (depth >= MAX_WATCH_DEPTH) {
+            return;
+        }
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (isWatchable(child)) {
+                collectDirs(child, depth + 1, dirs);
+            }
+        }
+    }
+
+    private static boolean isWatchable(File dir) {
+        return dir.getName().charAt(0) != '.' && dir.isDirectory() && !new File(dir, NOMEDIA).exists();
+    }
+
+    /**
+     * Stop watching the volume mounted at root.
+     *
+     * @param root
+     */
+    public void stopWatching(File root) {
+        final List<DirObserver> observers;
+        synchronized (mLock) {
+            final String prefix = root.getPath() + "/";
+            observers = removeObserversLocked(prefix);
+            mPending.keySet().removeIf(dir -> dir.getPath().startsWith(prefix));
+            mRescan.removeIf(dir -> dir.getPath().startsWith(prefix));
+        }
+        stop(observers);
+    }
+
+    /**
+     * Remove the observers of the directories whose path starts with prefix.
+     *
+     * @return the removed observers, to be stopped outside the lock
+     */
+    private List<DirObserver> removeObserversLocked(String prefix) {
+        final ArrayList<DirObserver> removed = new ArrayList<>();
+        mObservers.values().removeIf(observer -> {
+            if ((observer.dir.getPath() + "/").startsWith(prefix)) {
+                removed.add(observer);
+                return true;
+            }
+            return false;
+        });
+        return removed;
+    }
+
+    private static void stop(List<DirObserver> observers) {
+        for (DirObserver observer : observers) {
+            observer.stopWatching();
+        }
+    }
+
+    /**
+     * Start watching a folder created or moved into the watched folder parent, when it is shallow enough
+     * and the volume is below its limit.
+     *
+     * @return the new observers, to be started outside the lock
+     */
+    private List<DirObserver> watchNewDirLocked(File parent, File dir) {
+        final DirObserver parentObserver = mObservers.get(parent);
+        if (parentObserver == null || parentObserver.depth >= MAX_WATCH_DEPTH || !isWatchable(dir)) {
+            return null;
+        }
+        // A folder moved in may come with subfolders
+        final LinkedHashMap<File, Integer> dirs = new LinkedHashMap<>();
+        collectDirs(dir, parentObserver.depth + 1, dirs);
+        int watched = 0;
+        for (DirObserver observer : mObservers.values()) {
+            if (observer.root.equals(parentObserver.root)) {
+                watched++;
+            }
+        }
+        final ArrayList<DirObserver> added = new ArrayList<>();
+        for (Map.Entry<File, Integer> e : dirs.entrySet()) {
+            if (watched++ >= MAX_WATCHED_DIRS) {
+                break;
+            }
+            if (!mObservers.containsKey(e.getKey())) {
+                final DirObserver observer = new DirObserver(parentObserver.root, e.getKey(), e.getValue());
+                mObservers.put(observer.dir, observer);
+                added.add(observer);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * @return true when dir is being watched
+     */
+    boolean isWatching(File dir) {
+        synchronized (mLock) {
+            return mObservers.containsKey(dir);
+        }
+    }
+
+    void onEvent(File dir, int event, String name) {
+        final long now = SystemClock.uptimeMillis();
+        final long due = onEvent(dir, event, name, now);
+        if (due >= 0) {
+            schedule(due, now);
+        }
+    }
+
+    /**
+     * @return the time the pending scans are due, or -1 when the event is ignored
+     */
+    long onEvent(File dir, int event, String name, long now) {
+        final ArrayList<DirObserver> started = new ArrayList<>();
+        final ArrayList<DirObserver> stopped = new ArrayList<>();
+        final long due = handleEvent(dir, event, name, now, started, stopped);
+        stop(stopped);
+        for (DirObserver observer : started) {
+            observer.startWatching();
+        }
+        return due;
+    }
+
+    /**
+     * @param started receives the observers of new folders, to be started outside the lock
+     * @param stopped receives the observers of folders which went away, to be stopped outside the lock
+     */
+    private long handleEvent(File dir, int event, String name, long now, List<DirObserver> started,
+                             List<DirObserver> stopped) {
+        synchronized (mLock) {
+            mEvents++;
+            if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+                // The watch is gone, and so are the paths of the watches below it
+                stopped.addAll(removeObserversLocked(dir.getPath() + "/"));
+                rescanLocked(dir);
+            } else if (name == null || name.isEmpty() || name.charAt(0) == '.') {
+                // Hidden and pending files, a pending file shows up as MOVED_TO once it is published
+                return -1;
+            } else if ((event & IN_ISDIR) != 0) {
+                final File child = new File(dir, name);
+                if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+                    final List<DirObserver> added = watchNewDirLocked(dir, child);
+                    if (added != null) {
+                        started.addAll(added);
+                    }
+                }
+                rescanLocked(child);
+            } else if ((event & FileObserver.CREATE) != 0) {
+                // The file is scanned once it is closed
+                return -1;
+            } else if (!mRescan.contains(dir)) {
+                LinkedHashSet<String> names = mPending.get(dir);
+                if (names == null) {
+                    names = new LinkedHashSet<>();
+                    mPending.put(dir, names);
+                }
+                names.add(name);
+                if (names.size() > MAX_PENDING_FILES) {
+                    mOverflows++;
+                    rescanLocked(dir);
+                }
+            }
+            if (mFirstPendingTime < 0) {
+                mFirstPendingTime = now;
+            }
+            mLastEventTime = now;
+            return dueTimeLocked();
+        }
+    }
+
+    private void rescanLocked(File dir) {
+        mPending.remove(dir);
+        mRescan.add(dir);
+    }
+
+    private long dueTimeLocked() {
+        return Math.min(mFirstPendingTime + MAX_BATCH_DELAY_MS, mLastEventTime + BATCH_WINDOW_MS);
+    }
+
+    private void schedule(long due, long now) {
+        synchronized (mLock) {
+            // The flush reschedules itself while events keep coming
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        mHandler.postDelayed(mFlushRunnable, Math.max(0, due - now));
+    }
+
+    private void flushFromHandler() {
+        mExecutor.execute(() -> {
+            flush(SystemClock.uptimeMillis());
+            // Events which came in while the batch was scanned, or before it was due
+            final long due;
+            synchronized (mLock) {
+                mScheduled = false;
+                due = mFirstPendingTime >= 0 ? dueTimeLocked() : -1;
+            }
+            if (due >= 0) {
+                schedule(due, SystemClock.uptimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Scan the pending files and directories when they are due.
+     *
+     * @return the time the pending scans are due, or -1 when nothing is pending
+     */
+    long flush(long now) {
+        final ArrayList<File> dirs;
+        final ArrayList<File> files = new ArrayList<>();
+        synchronized (mLock) {
+            if (mFirstPendingTime < 0) {
+                return -1;
+            }
+            final long due = dueTimeLocked();
+            if (now < due) {
+                return due;
+            }
+            dirs = new ArrayList<>(mRescan);
+            for (Map.Entry<File, LinkedHashSet<String>> e : mPending.entrySet()) {
+                for (String name : e.getValue()) {
+                    files.add(new File(e.getKey(), name));
+                }
+            }
+            mRescan.clear();
+            mPending.clear();
+            mMaxDelayMs = Math.max(mMaxDelayMs, now - mFirstPendingTime);
+            mFirstPendingTime = -1;
+            mBatches++;
+            mFilesScanned += files.size();
+            mDirsScanned += dirs.size();
+        }
+        for (File dir : dirs) {
+            try {
+                mScanner.scanDirectory(dir);
+            } catch (Exception e) {
+                Log.e(TAG, "scan failed: " + dir, e);
+            }
+        }
+        for (File file : files) {
+            try {
+                mScanner.scanFile(file);
+            } catch (Exception e) {
+                Log.e(TAG, "scan failed: " + file, e);
+            }
+        }
+        return -1;
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            final HashMap<String, Integer> volumes = new HashMap<>();
+            for (DirObserver observer : mObservers.values()) {
+                final Integer count = volumes.get(observer.root);
+                volumes.put(observer.root, count == null ? 1 : count + 1);
+            }
+            pw.println("FolderWatcher: folders=" + volumes);
+            pw.println("  events=" + mEvents + " batches=" + mBatches + " files=" + mFilesScanned
+                    + " dirs=" + mDirsScanned + " overflows=" + mOverflows + " maxDelayMs=" + mMaxDelayMs);
+        }
+    }
+}
@@ -38,6 +38,159 @@ public class MediaFileAssist {
     public static final int IMG_TYPE_MODE_MOTION_FDR_PHOTO = 1028;
     public static final int IMG_TYPE_MODE_MOTION_FDR_AI_PHOTO = 1029;
 
+    /**
+     * Scan policy of a camera type: store the camera type itself as file_flag.
+     */
+    public static final int FLAG_POLICY_KEEP = 1;
+    /**
+     * Scan policy of a camera type: store {@link #IMG_TYPE_MODE_NORMAL} as file_flag,
+     * burst pictures are only grouped by the camera itself.
+     */
+    public static final int FLAG_POLICY_NORMALIZE = 1 << 1;
+    /**
+     * Update policy of a file_flag: datetaken and date_modified must not be overwritten (bokeh pictures).
+     */
+    public static final int FLAG_POLICY_KEEP_DATES = 1 << 2;
+
+    private static final int DENSE_POLICY_SIZE = 64;
+    private static final byte[] sDensePolicy = new byte[DENSE_POLICY_SIZE];
+    // Open addressing table for the sparse 0x100 and 0x400 codes, a key of 0 marks an empty slot
+    private static final int SPARSE_POLICY_SIZE = 16;
+    private static final int[] sSparseKeys = new int[SPARSE_POLICY_SIZE];
+    private static final byte[] sSparsePolicy = new byte[SPARSE_POLICY_SIZE];
+
+    static {
+        registerFlagPolicy(IMG_TYPE_MODE_NORMAL, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_BLUR_HAS_BOKEH, FLAG_POLICY_KEEP | FLAG_POLICY_KEEP_DATES);
+        registerFlagPolicy(IMG_TYPE_MODE_REAL_BOKEH_HAS_BOKEH, FLAG_POLICY_KEEP | FLAG_POLICY_KEEP_DATES);
+        registerFlagPolicy(IMG_TYPE_MODE_HDR_BOKEH_HAS_BOKEH, FLAG_POLICY_KEEP | FLAG_POLICY_KEEP_DATES);
+        registerFlagPolicy(IMG_TYPE_MODE_BLUR_NO_BOKEH, FLAG_POLICY_KEEP | FLAG_POLICY_KEEP_DATES);
+        registerFlagPolicy(IMG_TYPE_MODE_REAL_BOKEH_NO_BOKEH, FLAG_POLICY_KEEP | FLAG_POLICY_KEEP_DATES);
+        registerFlagPolicy(IMG_TYPE_MODE_HDR_BOKEH_NO_BOKEH, FLAG_POLICY_KEEP | FLAG_POLICY_KEEP_DATES);
+        registerFlagPolicy(IMG_TYPE_MODE_HDR, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_THUMBNAIL, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_AUDIO_CAPTURE, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_HDR_AUDIO_CAPTURE, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_AI_SCENE, FLAG_POLICY_KEEP);
+        //Bug 1422617: add the file_flag for some special pictures, such as AI+HDR, and so on.
+        registerFlagPolicy(IMG_TYPE_MODE_AI_SCENE_HDR, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_AI_SCENE_FDR, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_FDR, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_MOTION_HDR_PHOTO, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_MOTION_FDR_PHOTO, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_MOTION_AI_PHOTO, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_MOTION_HDR_AI_PHOTO, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_MOTION_FDR_AI_PHOTO, FLAG_POLICY_KEEP);
+        registerFlagPolicy(IMG_TYPE_MODE_BURST, FLAG_POLICY_NORMALIZE);
+        registerFlagPolicy(IMG_TYPE_MODE_BURST_COVER, FLAG_POLICY_NORMALIZE);
+    }
+
+    private static void registerFlagPolicy(int code, int policy) {
+        if (code >= 0 && code < DENSE_POLICY_SIZE) {
+            sDensePolicy[code] = (byte) policy;
+            return;
+        }
+        int slot = sparseSlot(code);
+        while (sSparseKeys[slot] != 0) {
+            slot = (slot + 1) & (SPARSE_POLICY_SIZE - 1);
+        }
+        sSparseKeys[slot] = code;
+        sSparsePolicy[slot] = (byte) policy;
+    }
+
+    private static int sparseSlot(int code) {
+        return ((code * 0x9E3779B1) >>> 28) & (SPARSE_POLICY_SIZE - 1);
+    }
+
+    /**
+     * Return the FLAG_POLICY_* bits of a camera type / file_flag, 0 for unknown codes.
+     *
+     * @param code
+     * @return
+     */
+    public static int getFlagPolicy(int code) {
+        if (code >= 0 && code < DENSE_POLICY_SIZE) {
+            return sDensePolicy[code];
+        }
+        if (code < 0) {
+            return 0;
+        }
+        int slot = sparseSlot(code);
+        for (int i = 0; i < SPARSE_POLICY_SIZE; i++) {
+            int key = sSparseKeys[slot];
+            if (key == code) {
+                return sSparsePolicy[slot];
+            }
+            if (key == 0) {
+                return 0;
+            }
+            slot = (slot + 1) & (SPARSE_POLICY_SIZE - 1);
+        }
+        return 0;
+    }
+
+    private static final int MAX_CAMERA_TYPE_DIGITS = 9;
+
+    /**
+     * Parse the decimal camera type written in EXIF without allocating.
+     *
+     * @param value
+     * @return the camera type, or -1 if value is not a non-negative decimal number
+     */
+    public static int parseCameraType(CharSequence value) {
+        if (value == null) {
+            return -1;
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) == ' ') start++;
+        while (end > start && (value.charAt(end - 1) == ' ' || value.charAt(end - 1) == 0)) end--;
+        if (start < end && value.charAt(start) == '+') start++;
+        if (start == end || end - start > MAX_CAMERA_TYPE_DIGITS) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #parseCameraType(CharSequence)}, on raw ASCII bytes.
+     *
+     * @param value
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static int parseCameraType(byte[] value, int offset, int length) {
+        if (value == null) {
+            return -1;
+        }
+        int start = offset;
+        int end = offset + length;
+        while (start < end && value[start] == ' ') start++;
+        while (end > start && (value[end - 1] == ' ' || value[end - 1] == 0)) end--;
+        if (start < end && value[start] == '+') start++;
+        if (start == end || end - start > MAX_CAMERA_TYPE_DIGITS) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = value[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
     public static final class Images implements MediaStore.Images.ImageColumns{
         @Column(Cursor.FIELD_TYPE_INTEGER)
         public static final String FILE_FLAG = "file_flag";
@@ -1,18 +1,42 @@
 package com.unisoc.providers.media;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.Environment;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import libcore.io.IoUtils;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
 import com.android.providers.media.scan.MediaScanner;
+import com.unisoc.providers.media.scan.DrmClientPool;
+import com.unisoc.providers.media.scan.PriorityScanQueue;
+import com.unisoc.providers.media.scan.ScanCheckpoint;
+import com.unisoc.providers.media.scan.ScanJournal;
+import com.unisoc.providers.media.scan.ScanPhaseProfiler;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import android.os.Binder;
 import static android.provider.MediaStore.VOLUME_EXTERNAL_PRIMARY;
 
@@ -25,6 +49,32 @@ public class MediaProviderAssist {
     public static final String INTERNAL_VOLUME = "internal";
     public static final String EXTERNAL_VOLUME = "external";
     private ProviderPlugin mPlugin;
+    private final BurstGroupRegistry mBurstRegistry = new BurstGroupRegistry();
+    private DrmScanQueue mDrmScanQueue;
+
+    // Rows of the db path lookups remembered across calls
+    private static final int FILE_FLAG_CACHE_SIZE = 1024;
+    // fileFlagKey(database, row id) -> file_flag, see updateContentValuesForSpecialPictures(SQLiteDatabase, Uri, ContentValues).
+    // The internal and external databases hand out the same row ids, the key tells them apart.
+    private final LruCache<Long, Integer> mFileFlagCache = new LruCache<>(FILE_FLAG_CACHE_SIZE);
+
+    // Time an assist operation may spend in its queries before it gives up, see OperationBudget
+    static final long ASSIST_QUERY_BUDGET_MS = 2000;
+    // Part of the budget the burst registry may spend on its load before the database path is taken instead
+    static final long REGISTRY_LOAD_BUDGET_MS = 500;
+    // After a load ran out of time the database path is used for a while, instead of timing out on every delete
+    static final long REGISTRY_LOAD_RETRY_MS = 30 * 1000;
+    // uptime before which the burst registry is not loaded again, guarded by mBurstRegistry
+    private long mRegistryLoadRetryTime;
+
+    private static final int CALL_PROFILER_TOP_N = 10;
+    // dumpsys argument writing the scan phase histograms to a file, see dump(PrintWriter, String[])
+    static final String DUMP_ARG_SCAN_PROFILE = "--scan-profile";
+    // dumpsys argument writing the assist trace to a file, see dump(PrintWriter, String[])
+    static final String DUMP_ARG_ASSIST_TRACE = "--assist-trace";
+    private final ProviderCallProfiler mCallProfiler = new ProviderCallProfiler();
+    private NotifyCoalescer mNotifyCoalescer;
+    private FolderWatcher mFolderWatcher;
 
     public static final String IMAGE_COLUMS_NAME = "android.provider.MediaStore$Images$Media";
     public static final String FILE_COLUMS_NAME = "android.provider.MediaStore$Files$FileColumns";
@@ -32,12 +82,20 @@ public class MediaProviderAssist {
     // Anything older than Q is recreated from scratch
     public static final int CREATE_LATEST_SCHEMA_THRESHOLD = 1000;
 
+    /**
+     * Partial index covering only burst rows, so that burst group lookups by datetaken
+     * don't need to scan the whole files table.
+     * Note: sqlite only picks a partial index when the query repeats its WHERE term literally,
+     * see {@link #BURST_FLAG_SELECTION}.
+     */
+    public static final String BURST_INDEX_NAME = "burst_index";
+
     /**
      * Since AndroidQ, MediaProvider has optimized the permission check, which aims to to avoid extra binder calls intoThe OS .
      * Dispatch all change notifications asynchronously, and delay them by some time while the camera is being actively used,
      * to give More important foreground work a fighting chance.
      */
-    public static final int BACKGROUND_NOTIFY_DELAY = 500;// TODO: 7/4/19  Need to investigate whether the delay strategy is correct.
+    public static final int BACKGROUND_NOTIFY_DELAY = 500;// Lower bound of the NotifyCoalescer window while the camera is active.
 
     public static final boolean LOCAL_LOG_ENABLE = Log.isLoggable(TAG, Log.DEBUG); //Log.isLoggable(TAG, Log.DEBUG)
 
@@ -57,11 +115,40 @@ public class MediaProviderAssist {
             MediaFileAssist.Files.FILE_FLAG
     };
 
+    private static final String FILE_FLAG_BY_ID_QUERY = "SELECT " + MediaFileAssist.Files.FILE_FLAG
+            + " FROM files WHERE " + MediaFileAssist.Files._ID + "=?";
+
     private static final String[] sBurstImagesProjection = new String[]{
             MediaFileAssist.Files._ID,
             MediaFileAssist.Files.TITLE
     };
 
+    private static final String[] sCountProjection = new String[]{
+            "COUNT(*)"
+    };
+
+    private static final String[] sBurstGroupProjection = new String[]{
+            MediaFileAssist.Files._ID,
+            MediaFileAssist.Images.DATE_TAKEN,
+            MediaFileAssist.Files.FILE_FLAG
+    };
+
+    static final String BURST_FLAG_SELECTION = MediaFileAssist.Files.FILE_FLAG + " IN ("
+            + MediaFileAssist.IMG_TYPE_MODE_BURST + "," + MediaFileAssist.IMG_TYPE_MODE_BURST_COVER + ")";
+
+    static final String BURST_GROUP_SELECTION = MediaFileAssist.Images.DATE_TAKEN + " = ? AND "
+            + BURST_FLAG_SELECTION;
+
+    /**
+     * Number of ids inlined in one "_id IN (...)" query of {@link ProviderPlugin#providerQueryForIds}.
+     */
+    public static final int QUERY_IDS_CHUNK_SIZE = 500;
+
+    private static final String[] sIdFileFlagProjection = new String[]{
+            MediaFileAssist.Files._ID,
+            MediaFileAssist.Files.FILE_FLAG
+    };
+
     public static final String[] DEFAULT_FOLDER_NAME = {
             Environment.DIRECTORY_MUSIC,
             Environment.DIRECTORY_PODCASTS,
@@ -91,12 +178,89 @@ public class MediaProviderAssist {
 
         public Cursor providerQuery(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal);
 
+        //Deliver a change notification coalesced by NotifyCoalescer
+        default void providerNotifyChange(Uri uri) {
+            providerGetContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        /**
+         * Query the rows of a collection uri whose _id is one of ids, as one cursor.
+         * The ids are inlined in "_id IN (...)" chunks of {@link #QUERY_IDS_CHUNK_SIZE},
+         * one providerQuery per chunk, so their number isn't limited by the sqlite bind argument limit.
+         * Include _id in the projection to tell the rows apart, the order of the rows is undefined.
+         *
+         * @param collection such as content://media/external/images/media
+         * @param projection
+         * @param ids
+         * @param count number of ids to use from the start of ids
+         * @param signal may be null
+         * @return
+         */
+        default Cursor providerQueryForIds(Uri collection, String[] projection, long[] ids, int count,
+                                           CancellationSignal signal) {
+            final Cursor[] cursors = new Cursor[(count + QUERY_IDS_CHUNK_SIZE - 1) / QUERY_IDS_CHUNK_SIZE];
+            boolean success = false;
+            try {
+                for (int chunk = 0; chunk < cursors.length; chunk++) {
+                    final int from = chunk * QUERY_IDS_CHUNK_SIZE;
+                    StringBuilder selection = new StringBuilder();
+                    appendInClause(selection, MediaFileAssist.Files._ID, ids, from,
+                            Math.min(count, from + QUERY_IDS_CHUNK_SIZE));
+                    Bundle queryArgs = new Bundle();
+                    queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection.toString());
+                    cursors[chunk] = providerQuery(collection, projection, queryArgs, signal);
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    for (Cursor c : cursors) {
+                        IoUtils.closeQuietly(c);
+                    }
+                }
+            }
+            return cursors.length == 1 ? cursors[0] : new MergeCursor(cursors);
+        }
+
+        /**
+         * Wrap a task that runs on another thread on behalf of the current caller,
+         * so that it runs with the caller's identity, see {@link MultiVolumeQuery}.
+         * The default can't carry the identity and returns null, the task then runs on the calling thread
+         * and nothing is fanned out. MediaProvider turns the fan-out on by capturing its calling identity
+         * in the wrapper and installing it around the task on the pool thread.
+         *
+         * @return the wrapped task, or null when the caller's identity can't be carried
+         */
+        default <T> Callable<T> providerWithCallingIdentity(Callable<T> task) {
+            return null;
+        }
     }
 
     private Context getContext() {
         return mPlugin.providerGetContext();
     }
 
+    /**
+     * Create the burst partial index {@link #BURST_INDEX_NAME}.
+     * Must be called after the files table is created and on every upgrade, the statement is idempotent
+     * and sqlite keeps the index up to date on its own afterwards.
+     *
+     * @param db
+     */
+    public static void createBurstIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + BURST_INDEX_NAME + " ON files("
+                + MediaFileAssist.Images.DATE_TAKEN + "," + MediaFileAssist.Files.FILE_FLAG
+                + ") WHERE " + BURST_FLAG_SELECTION);
+    }
+
+    /**
+     * Drop the burst partial index, used when the files table is recreated from scratch.
+     *
+     * @param db
+     */
+    public static void dropBurstIndex(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX IF EXISTS " + BURST_INDEX_NAME);
+    }
+
     /**
      * Support special images taken by AI Camera
      *
@@ -104,10 +268,46 @@ public class MediaProviderAssist {
      * @param values
      */
     public void updateContentValuesForSpecialPictures(Uri uri, ContentValues values) {
+        updateContentValuesForSpecialPictures(uri, values, null);
+    }
+
+    /**
+     * Support special images taken by AI Camera
+     *
+     * @param uri
+     * @param values
+     * @param signal cancellation signal of the client call, null for no cancellation and no time limit
+     * @throws android.os.OperationCanceledException when the client canceled or the lookup ran out of time,
+     *         never without a signal
+     */
+    public void updateContentValuesForSpecialPictures(Uri uri, ContentValues values, CancellationSignal signal) {
+        updateContentValuesForSpecialPictures(uri, values, null, signal);
+    }
+
+    /**
+     * Support special images taken by AI Camera, for an operation of an applyBatch.
+     * The flag of the row is taken from prefetched and removed from it, so that a later operation
+     * of the same batch on the row, which may have changed the flag, looks it up again.
+     *
+     * @param uri
+     * @param values
+     * @param prefetched flags returned by {@link #prefetchSpecialPictureFlagsForBatch} for this batch, or null
+     * @param signal cancellation signal of the client call, null for no cancellation and no time limit
+     * @throws android.os.OperationCanceledException when the client canceled or the lookup ran out of time,
+     *         never without a signal
+     */
+    public void updateContentValuesForSpecialPictures(Uri uri, ContentValues values, Map<Long, Integer> prefetched,
+                                                      CancellationSignal signal) {
+        final long rowId = parseRowId(uri);
+        Integer cached = rowId < 0 || prefetched == null ? null : prefetched.remove(fileFlagKey(uri, rowId));
+        if (cached != null) {
+            applySpecialPictureFlag(uri, rowId, cached, values);
+            return;
+        }
         int fileFlag = 0;
         Cursor c = null;
-        try {
-            c = mPlugin.providerQuery(uri, sFileFlagProjection, null, null);
+        try (OperationBudget budget = OperationBudget.start(signal, ASSIST_QUERY_BUDGET_MS)) {
+            c = mPlugin.providerQuery(uri, sFileFlagProjection, null, budget.getSignal());
             if (c != null && c.getCount() == 1) {
                 c.moveToFirst();
                 fileFlag = c.getInt(0);
@@ -116,19 +316,244 @@ public class MediaProviderAssist {
         } finally {
             IoUtils.closeQuietly(c);
         }
-        if (LOCAL_LOG_ENABLE) {
-            Log.d(TAG, "updateContentValuesForSpecialPictures -> uri :" + uri);
-            Log.d(TAG, "updateContentValuesForSpecialPictures -> fileFlag :" + fileFlag);
+        applySpecialPictureFlag(uri, rowId, fileFlag, values);
+    }
+
+    /**
+     * Look up the file_flag of the rows updated by an applyBatch with one bulk query per collection,
+     * instead of one query per operation in {@link #updateContentValuesForSpecialPictures}.
+     * The flags are only valid for this batch, they are handed back to
+     * {@link #updateContentValuesForSpecialPictures(Uri, ContentValues, Map, CancellationSignal)}
+     * and dropped with the batch.
+     *
+     * @param operations
+     * @param signal cancellation signal of the client call, null for no cancellation and no time limit
+     * @return fileFlagKey(database, row id) -> file_flag of the rows found, never null
+     */
+    public Map<Long, Integer> prefetchSpecialPictureFlagsForBatch(List<ContentProviderOperation> operations,
+                                                                 CancellationSignal signal) {
+        ArrayList<Uri> uris = new ArrayList<>(operations.size());
+        for (ContentProviderOperation op : operations) {
+            if (op.isUpdate()) {
+                uris.add(op.getUri());
+            }
+        }
+        return prefetchSpecialPictureFlags(uris, signal);
+    }
+
+    /**
+     * Look up the file_flag of every single item uri of uris with one bulk query per collection.
+     * The flags are not kept in the file_flag cache, nothing would drop them when the rows change
+     * after the batch.
+     * Only images and files uris are prefetched, the projections of the other collections have no file_flag.
+     * The prefetch is an optimization, when it fails or is canceled the flags are looked up one by one later.
+     *
+     * @param uris
+     * @param signal cancellation signal of the client call, null for no cancellation and no time limit
+     * @return fileFlagKey(database, row id) -> file_flag of the rows found, never null
+     */
+    public Map<Long, Integer> prefetchSpecialPictureFlags(List<Uri> uris, CancellationSignal signal) {
+        final HashMap<Long, Integer> prefetched = new HashMap<>();
+        final int size = uris.size();
+        final long[] ids = new long[size];
+        // The collection of every uri, null once handled or when it is not a single item uri
+        final String[] collections = new String[size];
+        for (int i = 0; i < size; i++) {
+            final Uri uri = uris.get(i);
+            final long rowId = parseRowId(uri);
+            if (rowId >= 0 && hasFileFlagColumn(uri)) {
+                ids[i] = rowId;
+                String path = uri.toString();
+                collections[i] = path.substring(0, path.lastIndexOf('/'));
+            }
+        }
+        try (OperationBudget budget = OperationBudget.start(signal, ASSIST_QUERY_BUDGET_MS)) {
+            //A gallery edit touches one or two collections, gather the ids of each in turn.
+            final long[] batch = new long[size];
+            for (int i = 0; i < size; i++) {
+                final String collection = collections[i];
+                if (collection == null) {
+                    continue;
+                }
+                int count = 0;
+                for (int j = i; j < size; j++) {
+                    if (collection.equals(collections[j])) {
+                        batch[count++] = ids[j];
+                        collections[j] = null;
+                    }
+                }
+                budget.throwIfCanceled();
+                final Uri collectionUri = Uri.parse(collection);
+                final boolean internal = isInternalVolume(collectionUri);
+                Cursor c = mPlugin.providerQueryForIds(collectionUri, sIdFileFlagProjection,
+                        batch, count, budget.getSignal());
+                try {
+                    while (c != null && c.moveToNext()) {
+                        prefetched.put(fileFlagKey(internal, c.getLong(0)), c.getInt(1));
+                    }
+                } finally {
+                    IoUtils.closeQuietly(c);
+                }
+            }
+        } catch (RuntimeException e) {
+            //Including OperationCanceledException, the caller goes on with its update.
+            Log.w(TAG, "prefetch of file_flag failed, look them up one by one", e);
         }
-        switch (fileFlag) {
-            case MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH:
-            case MediaFileAssist.IMG_TYPE_MODE_REAL_BOKEH_HAS_BOKEH:
-            case MediaFileAssist.IMG_TYPE_MODE_HDR_BOKEH_HAS_BOKEH:
-            case MediaFileAssist.IMG_TYPE_MODE_BLUR_NO_BOKEH:
-            case MediaFileAssist.IMG_TYPE_MODE_REAL_BOKEH_NO_BOKEH:
-            case MediaFileAssist.IMG_TYPE_MODE_HDR_BOKEH_NO_BOKEH:
-                values.remove(MediaFileAssist.Images.DATE_TAKEN);
-                values.remove(MediaFileAssist.Images.DATE_MODIFIED);
+        return prefetched;
+    }
+
+    /**
+     * Return whether the projection of the collection of uri has a file_flag column, images and files only.
+     */
+    static boolean hasFileFlagColumn(Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) {
+            return false;
+        }
+        final String collection = segments.get(1);
+        return "images".equals(collection) || "file".equals(collection);
+    }
+
+    /**
+     * Support special images taken by AI Camera.
+     * Same as {@link #updateContentValuesForSpecialPictures(Uri, ContentValues)}, but the file_flag is read
+     * straight from db inside the caller's transaction, through a small cache keyed by row id,
+     * instead of a full provider query.
+     *
+     * @param db
+     * @param uri
+     * @param values
+     */
+    public void updateContentValuesForSpecialPictures(SQLiteDatabase db, Uri uri, ContentValues values) {
+        updateContentValuesForSpecialPictures(db, uri, values, null);
+    }
+
+    /**
+     * Same as {@link #updateContentValuesForSpecialPictures(SQLiteDatabase, Uri, ContentValues)},
+     * giving up when the client cancels.
+     *
+     * @param db
+     * @param uri
+     * @param values
+     * @param signal cancellation signal of the client call, null for no cancellation and no time limit
+     * @throws android.os.OperationCanceledException when the client canceled or the lookup ran out of time,
+     *         never without a signal
+     */
+    public void updateContentValuesForSpecialPictures(SQLiteDatabase db, Uri uri, ContentValues values,
+                                                      CancellationSignal signal) {
+        final long rowId = parseRowId(uri);
+        if (rowId < 0) {
+            //Not a single item uri, only the provider knows how to resolve it.
+            updateContentValuesForSpecialPictures(uri, values, signal);
+            return;
+        }
+        final long key = fileFlagKey(uri, rowId);
+        Integer cached = mFileFlagCache.get(key);
+        int fileFlag;
+        if (cached != null) {
+            fileFlag = cached;
+        } else {
+            try (OperationBudget budget = OperationBudget.start(signal, ASSIST_QUERY_BUDGET_MS)) {
+                fileFlag = queryFileFlag(db, rowId, budget.getSignal());
+            }
+            mFileFlagCache.put(key, fileFlag);
+        }
+        applySpecialPictureFlag(uri, rowId, fileFlag, values);
+    }
+
+    private static int queryFileFlag(SQLiteDatabase db, long rowId, CancellationSignal signal) {
+        Cursor c = null;
+        try {
+            c = db.rawQuery(FILE_FLAG_BY_ID_QUERY, new String[]{String.valueOf(rowId)}, signal);
+            if (c != null && c.moveToFirst()) {
+                return c.getInt(0);
+            }
+        } finally {
+            IoUtils.closeQuietly(c);
+        }
+        return 0;
+    }
+
+    private void applySpecialPictureFlag(Uri uri, long rowId, int fileFlag, ContentValues values) {
+        AssistTrace.record(AssistTrace.EVENT_UPDATE_SPECIAL_PICTURE, rowId, fileFlag);
+        final Integer newFlag = values.getAsInteger(MediaFileAssist.Images.FILE_FLAG);
+        if (values.containsKey(MediaFileAssist.Images.FILE_FLAG)) {
+            //rowId is -1 for a collection uri, which may update any row: the whole cache is dropped.
+            invalidateFileFlagCache(rowId);
+        }
+        if ((MediaFileAssist.getFlagPolicy(fileFlag) & MediaFileAssist.FLAG_POLICY_KEEP_DATES) != 0) {
+            values.remove(MediaFileAssist.Images.DATE_TAKEN);
+            values.remove(MediaFileAssist.Images.DATE_MODIFIED);
+        }
+        //Rescans of burst pictures come through here as well, only a real change of the membership
+        //makes the registry reload.
+        if ((newFlag != null && newFlag != fileFlag && (isBurstFlag(fileFlag) || isBurstFlag(newFlag)))
+                || (isBurstFlag(fileFlag) && values.containsKey(MediaFileAssist.Images.DATE_TAKEN))) {
+            mBurstRegistry.invalidate();
+        }
+    }
+
+    private static boolean isBurstFlag(int fileFlag) {
+        return fileFlag == MediaFileAssist.IMG_TYPE_MODE_BURST || fileFlag == MediaFileAssist.IMG_TYPE_MODE_BURST_COVER;
+    }
+
+    /**
+     * Must be called when a transaction in which {@link #updateBurstImage} or {@link #updateBurstImages} ran
+     * ends without success: the burst groups in memory already reflect its deletes, they are rebuilt on next use.
+     */
+    public void onBurstTransactionAborted() {
+        mBurstRegistry.invalidate();
+        invalidateFileFlagCache(-1);
+    }
+
+    /**
+     * Forget the cached file_flag of a row, must be called whenever the row is updated or deleted
+     * through a path that doesn't go through this class.
+     * The row is forgotten in both databases, the callers don't always know which one they write to.
+     *
+     * @param rowId the row id, or a negative value to forget every row
+     */
+    public void invalidateFileFlagCache(long rowId) {
+        if (rowId < 0) {
+            mFileFlagCache.evictAll();
+        } else {
+            mFileFlagCache.remove(fileFlagKey(false, rowId));
+            mFileFlagCache.remove(fileFlagKey(true, rowId));
+        }
+    }
+
+    static long fileFlagKey(boolean internal, long rowId) {
+        return rowId << 1 | (internal ? 1 : 0);
+    }
+
+    private static long fileFlagKey(Uri uri, long rowId) {
+        return fileFlagKey(isInternalVolume(uri), rowId);
+    }
+
+    /**
+     * Return true when uri, such as content://media/internal/audio/media/12, lives in the internal database.
+     */
+    static boolean isInternalVolume(Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        return !segments.isEmpty() && INTERNAL_VOLUME.equals(segments.get(0));
+    }
+
+    /**
+     * Return the row id of a single item uri such as content://media/external/images/media/12,
+     * or -1 for any other uri.
+     */
+    private static long parseRowId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        String last = uri.getLastPathSegment();
+        if (TextUtils.isEmpty(last) || !TextUtils.isDigitsOnly(last)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(last);
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
@@ -144,6 +569,26 @@ public class MediaProviderAssist {
      */
     public void updateBurstImage(int fileFlag, SQLiteDatabase db,
                                  final long id, final long datetaken, String userWhere, String[] args) {
+        updateBurstImage(fileFlag, db, id, datetaken, userWhere, args, null);
+    }
+
+    /**
+     * Used to delete pictures in burst shooting mode.
+     * The re-election stops with an OperationCanceledException when the client cancels the delete
+     * or the queries run out of time, the caller is expected to abort its transaction.
+     *
+     * @param fileFlag
+     * @param db
+     * @param id
+     * @param datetaken
+     * @param userWhere
+     * @param args
+     * @param signal cancellation signal of the client call, null for no cancellation and no time limit
+     */
+    public void updateBurstImage(int fileFlag, SQLiteDatabase db, final long id, final long datetaken,
+                                 String userWhere, String[] args, CancellationSignal signal) {
+
+        invalidateFileFlagCache(id);
 
         //if the deleted image a burst one(no matter is cover or not), we should go to FUNTION updateBurstImage,
         //because when there's only one picture left, we have to set it to normal picture.
@@ -151,27 +596,142 @@ public class MediaProviderAssist {
             return;
         }
 
-        String selection = "datetaken = ? AND (file_flag = ? OR file_flag = ?)";
-        String[] whereArgs = new String[]{
-                String.valueOf(datetaken),
-                String.valueOf(MediaFileAssist.IMG_TYPE_MODE_BURST),
-                String.valueOf(MediaFileAssist.IMG_TYPE_MODE_BURST_COVER)};
+        try (OperationBudget budget = OperationBudget.start(signal, ASSIST_QUERY_BUDGET_MS)) {
+            if (updateBurstImageFromRegistry(db, id, datetaken, userWhere, args, budget)) {
+                return;
+            }
+            updateBurstImageFromDatabase(fileFlag, db, datetaken, userWhere, args, budget);
+        }
+    }
 
-        String[] whereArgsFinal = null;
-        if (args != null) {
-            whereArgsFinal = new String[whereArgs.length + args.length];
-            System.arraycopy(args, 0, whereArgsFinal, 0, args.length);
-            System.arraycopy(whereArgs, 0, whereArgsFinal, args.length, whereArgs.length);
+    private boolean updateBurstImageFromRegistry(SQLiteDatabase db, final long id, final long datetaken,
+                                                 String userWhere, String[] args, OperationBudget budget) {
+        synchronized (mBurstRegistry) {
+            boolean updated = false;
+            try {
+                if (!loadBurstRegistry(db, budget)) {
+                    return false;
+                }
+                if (!mBurstRegistry.hasGroup(datetaken)) {
+                    //Emptied by an earlier row of the same delete, or not a known group at all.
+                    updated = true;
+                    return true;
+                }
+                mBurstRegistry.removeMember(datetaken, id);
+                //Every row matched by userWhere is about to be deleted as well, drop them all now
+                //so that none of them is elected only to be deleted right after.
+                if (!TextUtils.isEmpty(userWhere)) {
+                    removeMatchedMembers(db, datetaken, userWhere, args, budget);
+                }
+                int[] newFlag = new int[1];
+                long pickedId = mBurstRegistry.resolve(datetaken, newFlag);
+                if (pickedId == BurstGroupRegistry.NO_CHANGE) {
+                    updated = true;
+                    return true;
+                }
+                //Check the decision against the database before writing anything,
+                //a stale registry leaves nothing behind in the caller's transaction.
+                final long[] picked = new long[]{pickedId};
+                if (countBurstRows(db, picked, 1, budget) != 1) {
+                    return false;
+                }
+                AssistTrace.record(AssistTrace.EVENT_BURST_PICK, pickedId, newFlag[0]);
+                updateFileFlag(db, picked, 1, newFlag[0]);
+                updated = true;
+                return true;
+            } finally {
+                if (!updated) {
+                    //Out of date or stopped midway, the groups in memory no longer match the database.
+                    mBurstRegistry.invalidate();
+                }
+            }
         }
-        String selectionFinal = null;
-        if (userWhere != null && !userWhere.isEmpty()) {
-            selectionFinal = "_id NOT IN (SELECT _id from files WHERE " + userWhere + ") AND " + selection;
+    }
+
+    /**
+     * Remove the members of the group of datetaken matched by userWhere from the registry.
+     * Must hold mBurstRegistry.
+     */
+    private void removeMatchedMembers(SQLiteDatabase db, long datetaken, String userWhere, String[] args,
+                                      OperationBudget budget) {
+        budget.throwIfCanceled();
+        Cursor c = db.query(false, "files", sBurstImagesProjection,
+                "_id IN (SELECT _id from files WHERE " + userWhere + ") AND " + BURST_GROUP_SELECTION,
+                buildBurstSelectionArgs(datetaken, args), null, null, null, null, budget.getSignal());
+        try {
+            while (c != null && c.moveToNext()) {
+                mBurstRegistry.removeMember(datetaken, c.getLong(0));
+            }
+        } finally {
+            IoUtils.closeQuietly(c);
         }
+    }
 
-        Cursor c = db.query("files", sBurstImagesProjection,
-                (selectionFinal == null) ? selection : selectionFinal,
-                (whereArgsFinal == null) ? whereArgs : whereArgsFinal, null, null, null);
+    /**
+     * Make sure the burst registry is loaded, with a part of the budget of the operation.
+     * Must hold mBurstRegistry.
+     *
+     * @return false when the load ran out of its time, the caller falls back to the database then
+     * @throws OperationCanceledException when the operation itself was canceled
+     */
+    private boolean loadBurstRegistry(SQLiteDatabase db, OperationBudget budget) {
+        if (SystemClock.uptimeMillis() < mRegistryLoadRetryTime) {
+            return false;
+        }
+        try (OperationBudget load = budget.startPart(REGISTRY_LOAD_BUDGET_MS)) {
+            mBurstRegistry.ensureLoaded(db, load.getSignal());
+        } catch (OperationCanceledException e) {
+            budget.throwIfCanceled();
+            Log.w(TAG, "burst registry load took more than " + REGISTRY_LOAD_BUDGET_MS + "ms, use the database");
+            mRegistryLoadRetryTime = SystemClock.uptimeMillis() + REGISTRY_LOAD_RETRY_MS;
+            return false;
+        }
+        budget.throwIfCanceled();
+        return true;
+    }
+
+    /**
+     * Keep the burst registry unloaded for durationMs, deletes take the database path meanwhile.
+     *
+     * @param durationMs
+     */
+    @VisibleForTesting
+    void suspendBurstRegistry(long durationMs) {
+        synchronized (mBurstRegistry) {
+            mBurstRegistry.invalidate();
+            mRegistryLoadRetryTime = SystemClock.uptimeMillis() + durationMs;
+        }
+    }
+
+    /**
+     * Return how many of the given rows are still burst rows, to validate a registry decision before it is written.
+     */
+    private static int countBurstRows(SQLiteDatabase db, long[] ids, int count, OperationBudget budget) {
+        if (count == 0) {
+            return 0;
+        }
+        StringBuilder selection = new StringBuilder();
+        appendInClause(selection, MediaFileAssist.Files._ID, ids, 0, count);
+        selection.append(" AND ").append(BURST_FLAG_SELECTION);
+        budget.throwIfCanceled();
+        Cursor c = db.query(false, "files", sCountProjection, selection.toString(), null,
+                null, null, null, null, budget.getSignal());
+        try {
+            return c != null && c.moveToFirst() ? c.getInt(0) : 0;
+        } finally {
+            IoUtils.closeQuietly(c);
+        }
+    }
+
+    private void updateBurstImageFromDatabase(int fileFlag, SQLiteDatabase db, final long datetaken,
+                                              String userWhere, String[] args, OperationBudget budget) {
+        //The rows updated below are not known up front.
+        invalidateFileFlagCache(-1);
+        budget.throwIfCanceled();
+        Cursor c = db.query(false, "files", sBurstImagesProjection, buildBurstSelection(userWhere),
+                buildBurstSelectionArgs(datetaken, args), null, null, null, null, budget.getSignal());
         try {
+            budget.throwIfCanceled();
             //There is no burst picture with the same datetaken,
             //so we don't have to do anything.
             if (c == null || c.getCount() < 1) return;
@@ -184,7 +744,7 @@ public class MediaProviderAssist {
                 while (c.moveToNext()) {
                     pickedId = c.getLong(0);
                 }
-                Log.d(TAG, "pickedId = " + pickedId);
+                AssistTrace.record(AssistTrace.EVENT_BURST_PICK, pickedId, MediaFileAssist.IMG_TYPE_MODE_NORMAL);
                 ContentValues updateToNormal = new ContentValues();
                 updateToNormal.put(MediaFileAssist.Images.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_NORMAL);
                 db.update("files", updateToNormal,
@@ -196,7 +756,7 @@ public class MediaProviderAssist {
                 //so we have to find a new burst cover.
                 if (c.moveToNext()) {
                     String sPickedId = String.valueOf(c.getLong(0));
-                    Log.d(TAG, "sPickedId = " + sPickedId);
+                    AssistTrace.record(AssistTrace.EVENT_BURST_PICK, c.getLong(0), MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
                     if (sPickedId != null) {
                         ContentValues burstCover = new ContentValues();
                         burstCover.put(MediaFileAssist.Images.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
@@ -211,6 +771,359 @@ public class MediaProviderAssist {
         }
     }
 
+    /**
+     * Selection of the other members of a burst group, excluding the rows matched by userWhere.
+     */
+    static String buildBurstSelection(String userWhere) {
+        if (userWhere != null && !userWhere.isEmpty()) {
+            return "_id NOT IN (SELECT _id from files WHERE " + userWhere + ") AND " + BURST_GROUP_SELECTION;
+        }
+        return BURST_GROUP_SELECTION;
+    }
+
+    /**
+     * Arguments of {@link #buildBurstSelection}: the userWhere arguments come first.
+     */
+    static String[] buildBurstSelectionArgs(long datetaken, String[] args) {
+        if (args == null) {
+            return new String[]{String.valueOf(datetaken)};
+        }
+        String[] whereArgs = new String[args.length + 1];
+        System.arraycopy(args, 0, whereArgs, 0, args.length);
+        whereArgs[args.length] = String.valueOf(datetaken);
+        return whereArgs;
+    }
+
+    /**
+     * Batched variant of {@link #updateBurstImage} used when several rows are deleted at once.
+     * All affected burst groups are fixed with at most two updates in the caller's transaction,
+     * decided from the {@link BurstGroupRegistry} or, when it is out of date, from one query over the groups.
+     *
+     * @param db
+     * @param ids        _id of every deleted row
+     * @param datetakens datetaken of every deleted row, parallel to ids
+     * @param fileFlags  file_flag of every deleted row, parallel to ids
+     */
+    public void updateBurstImages(SQLiteDatabase db, long[] ids, long[] datetakens, int[] fileFlags) {
+        updateBurstImages(db, ids, datetakens, fileFlags, null);
+    }
+
+    /**
+     * Same as {@link #updateBurstImages(SQLiteDatabase, long[], long[], int[])}, giving up with an
+     * OperationCanceledException when the client cancels the delete or the queries run out of time.
+     * Nothing is written in that case, the caller is expected to abort its transaction.
+     *
+     * @param db
+     * @param ids        _id of every deleted row
+     * @param datetakens datetaken of every deleted row, parallel to ids
+     * @param fileFlags  file_flag of every deleted row, parallel to ids
+     * @param signal     cancellation signal of the client call, null for no cancellation and no time limit
+     */
+    public void updateBurstImages(SQLiteDatabase db, long[] ids, long[] datetakens, int[] fileFlags,
+                                  CancellationSignal signal) {
+        if (ids == null || ids.length == 0) {
+            return;
+        }
+        for (long id : ids) {
+            invalidateFileFlagCache(id);
+        }
+
+        try (OperationBudget budget = OperationBudget.start(signal, ASSIST_QUERY_BUDGET_MS)) {
+            synchronized (mBurstRegistry) {
+                boolean updated = false;
+                try {
+                    updated = loadBurstRegistry(db, budget)
+                            && updateBurstImagesFromRegistry(db, ids, datetakens, fileFlags, budget);
+                } finally {
+                    if (!updated) {
+                        //Out of date or stopped midway, the groups in memory no longer match the database.
+                        mBurstRegistry.invalidate();
+                    }
+                }
+                if (updated) {
+                    return;
+                }
+            }
+            updateBurstImagesFromDatabase(db, ids, datetakens, fileFlags, budget);
+        }
+    }
+
+    /**
+     * Decide the updates from the registry, and write them only when every picked row is still a burst row.
+     *
+     * @return false when the registry is out of date, nothing is written then
+     */
+    private boolean updateBurstImagesFromRegistry(SQLiteDatabase db, long[] ids, long[] datetakens, int[] fileFlags,
+                                                  OperationBudget budget) {
+        LongSparseArray<Boolean> affected = new LongSparseArray<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (fileFlags[i] == MediaFileAssist.IMG_TYPE_MODE_BURST_COVER
+                    || fileFlags[i] == MediaFileAssist.IMG_TYPE_MODE_BURST) {
+                mBurstRegistry.removeMember(datetakens[i], ids[i]);
+                affected.put(datetakens[i], Boolean.TRUE);
+            }
+        }
+
+        long[] toNormal = new long[affected.size()];
+        long[] toCover = new long[affected.size()];
+        int normalCount = 0;
+        int coverCount = 0;
+        int[] newFlag = new int[1];
+        for (int i = 0; i < affected.size(); i++) {
+            long pickedId = mBurstRegistry.resolve(affected.keyAt(i), newFlag);
+            if (pickedId == BurstGroupRegistry.NO_CHANGE) {
+                continue;
+            }
+            if (newFlag[0] == MediaFileAssist.IMG_TYPE_MODE_NORMAL) {
+                toNormal[normalCount++] = pickedId;
+            } else {
+                toCover[coverCount++] = pickedId;
+            }
+        }
+        long[] picked = new long[normalCount + coverCount];
+        System.arraycopy(toNormal, 0, picked, 0, normalCount);
+        System.arraycopy(toCover, 0, picked, normalCount, coverCount);
+        if (countBurstRows(db, picked, picked.length, budget) != picked.length) {
+            return false;
+        }
+        AssistTrace.record(AssistTrace.EVENT_BURST_BATCH, affected.size(), normalCount + coverCount);
+        budget.throwIfCanceled();
+        updateFileFlag(db, toNormal, normalCount, MediaFileAssist.IMG_TYPE_MODE_NORMAL);
+        updateFileFlag(db, toCover, coverCount, MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
+        return true;
+    }
+
+    private void updateBurstImagesFromDatabase(SQLiteDatabase db, long[] ids, long[] datetakens, int[] fileFlags,
+                                               OperationBudget budget) {
+
+        //Only the burst rows matter, collect their datetaken once per group.
+        long[] deletedIds = ids.clone();
+        Arrays.sort(deletedIds);
+        //The value tells whether the cover of the group is among the deleted rows.
+        LongSparseArray<Boolean> affected = new LongSparseArray<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (fileFlags[i] == MediaFileAssist.IMG_TYPE_MODE_BURST_COVER) {
+                affected.put(datetakens[i], Boolean.TRUE);
+            } else if (fileFlags[i] == MediaFileAssist.IMG_TYPE_MODE_BURST && affected.get(datetakens[i]) == null) {
+                affected.put(datetakens[i], Boolean.FALSE);
+            }
+        }
+        if (affected.size() == 0) {
+            return;
+        }
+
+        long[] groupKeys = new long[affected.size()];
+        for (int i = 0; i < groupKeys.length; i++) {
+            groupKeys[i] = affected.keyAt(i);
+        }
+        StringBuilder selection = new StringBuilder();
+        appendInClause(selection, MediaFileAssist.Images.DATE_TAKEN, groupKeys, 0, groupKeys.length);
+        selection.append(" AND ").append(BURST_FLAG_SELECTION);
+
+        //Per group: number of surviving members, first surviving member, and whether a cover survives.
+        int[] survivors = new int[groupKeys.length];
+        long[] firstSurvivor = new long[groupKeys.length];
+        boolean[] hasCover = new boolean[groupKeys.length];
+
+        //Runs in the caller's transaction, everything is read before the first write.
+        budget.throwIfCanceled();
+        Cursor c = db.query(false, "files", sBurstGroupProjection, selection.toString(), null,
+                null, null, MediaFileAssist.Files._ID, null, budget.getSignal());
+        try {
+            while (c != null && c.moveToNext()) {
+                long id = c.getLong(0);
+                if (Arrays.binarySearch(deletedIds, id) >= 0) {
+                    continue;
+                }
+                int group = affected.indexOfKey(c.getLong(1));
+                if (group < 0) {
+                    continue;
+                }
+                if (survivors[group]++ == 0) {
+                    firstSurvivor[group] = id;
+                }
+                if (c.getInt(2) == MediaFileAssist.IMG_TYPE_MODE_BURST_COVER) {
+                    hasCover[group] = true;
+                }
+            }
+        } finally {
+            IoUtils.closeQuietly(c);
+        }
+
+        //A group with a single survivor turns into a normal picture,
+        //a group whose cover was deleted gets its first surviving member elected as the new cover,
+        //like updateBurstImage does for a single row.
+        long[] toNormal = new long[groupKeys.length];
+        long[] toCover = new long[groupKeys.length];
+        int normalCount = 0;
+        int coverCount = 0;
+        for (int i = 0; i < groupKeys.length; i++) {
+            if (survivors[i] == 1) {
+                toNormal[normalCount++] = firstSurvivor[i];
+            } else if (survivors[i] > 1 && affected.valueAt(i) && !hasCover[i]) {
+                toCover[coverCount++] = firstSurvivor[i];
+            }
+        }
+        AssistTrace.record(AssistTrace.EVENT_BURST_BATCH, groupKeys.length, normalCount + coverCount);
+        budget.throwIfCanceled();
+        updateFileFlag(db, toNormal, normalCount, MediaFileAssist.IMG_TYPE_MODE_NORMAL);
+        updateFileFlag(db, toCover, coverCount, MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
+    }
+
+    private int updateFileFlag(SQLiteDatabase db, long[] ids, int count, int fileFlag) {
+        if (count == 0) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            invalidateFileFlagCache(ids[i]);
+        }
+        StringBuilder where = new StringBuilder();
+        appendInClause(where, MediaFileAssist.Files._ID, ids, 0, count);
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Files.FILE_FLAG, fileFlag);
+        return db.update("files", values, where.toString(), null);
+    }
+
+    /**
+     * Append "column IN (v1,v2,...)". The values are longs, so they are inlined
+     * instead of bound to stay clear of the sqlite bind argument limit.
+     */
+    private static void appendInClause(StringBuilder sb, String column, long[] values, int from, int to) {
+        sb.append(column).append(" IN (");
+        for (int i = from; i < to; i++) {
+            if (i > from) sb.append(',');
+            sb.append(values[i]);
+        }
+        sb.append(')');
+    }
+
+    /**
+     * Keep the burst group registry up to date after a new row is inserted,
+     * and tell the notification coalescer and the {@link ScanThrottle} about camera activity.
+     * Inserts made inside the provider process, such as those of the media scanner, are not taken for
+     * camera activity, they don't come through binder.
+     *
+     * @param rowId
+     * @param values
+     */
+    public void onImageInserted(long rowId, ContentValues values) {
+        onImageInserted(rowId, values, Binder.getCallingUid() == Process.myUid());
+    }
+
+    /**
+     * Same as {@link #onImageInserted(long, ContentValues)}, the caller tells whether the row comes from a scan.
+     *
+     * @param rowId
+     * @param values
+     * @param isScan true for rows inserted by the media scanner, they only update the burst group registry,
+     *               a scan of DCIM/Camera says nothing about the camera
+     */
+    public void onImageInserted(long rowId, ContentValues values, boolean isScan) {
+        if (rowId <= 0 || values == null) {
+            return;
+        }
+        String path = values.getAsString(MediaFileAssist.Files.DATA);
+        if (!isScan && path != null
+                && FolderClassifier.getDefault().classifyParent(path) == FolderClassifier.CATEGORY_CAMERA) {
+            //The camera is saving pictures, widen the notification window and slow down background scans.
+            getNotifyCoalescer().noteCameraActivity();
+            ScanThrottle.getInstance().noteCameraInsert();
+        }
+        Integer fileFlag = values.getAsInteger(MediaFileAssist.Images.FILE_FLAG);
+        Long datetaken = values.getAsLong(MediaFileAssist.Images.DATE_TAKEN);
+        if (fileFlag == null || datetaken == null) {
+            return;
+        }
+        if (fileFlag == MediaFileAssist.IMG_TYPE_MODE_BURST || fileFlag == MediaFileAssist.IMG_TYPE_MODE_BURST_COVER) {
+            mBurstRegistry.onInserted(datetaken, rowId, fileFlag);
+            if (isScan) {
+                return;
+            }
+            //A burst is being captured, hold back the flood of per frame notifications and pause background scans.
+            getNotifyCoalescer().noteCameraActivity();
+            ScanThrottle.getInstance().noteBurstFrame();
+        }
+    }
+
+    /**
+     * Send a change notification through the {@link NotifyCoalescer}, instead of notifying
+     * the observers directly after a fixed {@link #BACKGROUND_NOTIFY_DELAY}.
+     *
+     * @param uri
+     */
+    public void notifyChange(Uri uri) {
+        getNotifyCoalescer().notifyChange(uri);
+    }
+
+    private NotifyCoalescer getNotifyCoalescer() {
+        synchronized (this) {
+            if (mNotifyCoalescer == null) {
+                mNotifyCoalescer = new NotifyCoalescer(uri -> mPlugin.providerNotifyChange(uri),
+                        BackgroundThread.getHandler());
+            }
+            return mNotifyCoalescer;
+        }
+    }
+
+    /**
+     * Called when a volume is attached, rows of that volume may have changed while it was away.
+     * Its public folders are watched from now on, see {@link FolderWatcher}.
+     *
+     * @param volumeName
+     */
+    public void onVolumeAttached(String volumeName) {
+        mBurstRegistry.invalidate();
+        final File root = getVolumeRoot(volumeName);
+        if (root != null) {
+            getFolderWatcher().startWatching(root);
+        }
+    }
+
+    /**
+     * Called when a volume is detached.
+     *
+     * @param volumeName
+     */
+    public void onVolumeDetached(String volumeName) {
+        mBurstRegistry.invalidate();
+        final File root = getVolumeRoot(volumeName);
+        if (root != null) {
+            getFolderWatcher().stopWatching(root);
+        }
+    }
+
+    private static File getVolumeRoot(String volumeName) {
+        if (MediaStore.VOLUME_INTERNAL.equals(volumeName)) {
+            return null;
+        }
+        try {
+            return MediaStore.getVolumePath(volumeName);
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, "no path for volume " + volumeName);
+            return null;
+        }
+    }
+
+    private FolderWatcher getFolderWatcher() {
+        synchronized (this) {
+            if (mFolderWatcher == null) {
+                final Context context = getContext();
+                mFolderWatcher = new FolderWatcher(new FolderWatcher.Scanner() {
+                    @Override
+                    public void scanFile(File file) {
+                        MediaScanner.instance(context).scanFile(file);
+                    }
+
+                    @Override
+                    public void scanDirectory(File dir) {
+                        MediaScanner.instance(context).scanDirectory(dir);
+                    }
+                }, BackgroundThread.getHandler());
+            }
+            return mFolderWatcher;
+        }
+    }
+
     /**
      * In order to connect the download module to the processing of the drm file, we do a scan task for the dcf file.
      *
@@ -236,9 +1149,28 @@ public class MediaProviderAssist {
         if ((isPending != null && isPending.intValue() == 0) &&
                 (isDrm != null && isDrm.intValue() == 1) &&
                 (isDownload != null && isDownload.booleanValue())) {
-            if (LOCAL_LOG_ENABLE)
-                Log.d(TAG, "maybeTriggerScanDrmFile -> start scan drm file in new thread");
-            new Thread(() -> MediaScanner.instance(getContext()).scanFile(new File(filepath))).start();
+            AssistTrace.record(AssistTrace.EVENT_DRM_SCAN_QUEUED, 0, 0);
+            getDrmScanQueue().enqueue(filepath);
+        }
+    }
+
+    private DrmScanQueue getDrmScanQueue() {
+        synchronized (this) {
+            if (mDrmScanQueue == null) {
+                final Context context = getContext();
+                mDrmScanQueue = new DrmScanQueue(new DrmScanQueue.Scanner() {
+                    @Override
+                    public void scanFile(File file) {
+                        MediaScanner.instance(context).scanFile(file);
+                    }
+
+                    @Override
+                    public void scanDirectory(File dir) {
+                        MediaScanner.instance(context).scanDirectory(dir);
+                    }
+                });
+            }
+            return mDrmScanQueue;
         }
     }
 
@@ -255,32 +1187,141 @@ public class MediaProviderAssist {
         return true;
     }
 
+    /**
+     * Query uri on every attached external volume concurrently, used when external_primary is not available.
+     * The results are merged in the order of {@link ContentResolver#QUERY_ARG_SQL_SORT_ORDER} while they are read,
+     * see {@link MultiVolumeQuery}.
+     *
+     * @param uri
+     * @param volumeNames the attached external volumes
+     * @param projection
+     * @param queryArgs
+     * @param signal
+     * @return
+     */
+    public Cursor queryExternalVolumes(Uri uri, List<String> volumeNames, String[] projection, Bundle queryArgs,
+                                       CancellationSignal signal) {
+        return MultiVolumeQuery.query(mPlugin, uri, volumeNames, projection, queryArgs, signal);
+    }
+
     /**
      * sqlite handling track log
+     * Every call is recorded in {@link AssistTrace}, the full text log is only built when debug logging is on,
+     * which it is for verbose logging as well.
      *
      * @param funTag
      * @param uri
      * @param initialValues
+     * @return start time of the call, to be passed to {@link #sqliteTrackEnd}
      */
-    public void sqliteTrackLog(String funTag, Uri uri, ContentValues initialValues, String userWhere,
+    public long sqliteTrackLog(String funTag, Uri uri, ContentValues initialValues, String userWhere,
                                String[] userWhereArgs) {
-        StringBuilder tmp = new StringBuilder(funTag);
-        tmp.append(" -> ").append("\n");
+        final int callingPid = Binder.getCallingPid();
+        AssistTrace.record(AssistTrace.EVENT_PROVIDER_CALL, AssistTrace.getInstance().tagId(funTag), callingPid);
+        if (LOCAL_LOG_ENABLE) {
+            Log.d(TAG, buildTrackLog(funTag, uri, initialValues, userWhere, userWhereArgs, callingPid));
+        }
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Account a finished call to the calling app in the {@link ProviderCallProfiler}.
+     * Must be called on the binder thread of the call, before the calling identity is cleared.
+     *
+     * @param funTag same tag as passed to sqliteTrackLog
+     * @param match uri match code
+     * @param startNanos the value returned by sqliteTrackLog
+     * @param rowCount rows returned or affected, negative when unknown
+     */
+    public void sqliteTrackEnd(String funTag, int match, long startNanos, int rowCount) {
+        mCallProfiler.record(Binder.getCallingUid(), Binder.getCallingPid(),
+                AssistTrace.getInstance().tagId(funTag), match,
+                SystemClock.elapsedRealtimeNanos() - startNanos, rowCount);
+    }
+
+    static String buildTrackLog(String funTag, Uri uri, ContentValues initialValues, String userWhere,
+                                String[] userWhereArgs, int callingPid) {
+        StringBuilder tmp = new StringBuilder(128).append(funTag);
+        tmp.append(" -> ").append('\n');
         if (uri != null) {
-            tmp.append(" uri: " + uri).append("\n");
+            tmp.append(" uri: ").append(uri).append('\n');
         }
         if (initialValues != null && initialValues.size() != 0) {
-            tmp.append(" initialValues :" + initialValues).append("\n");
+            tmp.append(" initialValues :").append(initialValues).append('\n');
         }
         if (!TextUtils.isEmpty(userWhere)) {
-            tmp.append(" userWhere :" + userWhere).append("\n");
+            tmp.append(" userWhere :").append(userWhere).append('\n');
         }
         if (userWhereArgs != null && userWhereArgs.length != 0) {
             for (String arg : userWhereArgs) {
-                tmp.append(" -userWhereArg :" + arg).append("\n");
+                tmp.append(" -userWhereArg :").append(arg).append('\n');
             }
         }
-        tmp.append(" CallingPid: " + Binder.getCallingPid());
-        Log.d(TAG, tmp.toString());
+        tmp.append(" CallingPid: ").append(callingPid);
+        return tmp.toString();
+    }
+
+    /**
+     * Dump the state of the unisoc features.
+     *
+     * @param pw
+     */
+    public void dump(PrintWriter pw) {
+        dump(pw, null);
+    }
+
+    /**
+     * Dump the state of the unisoc features, called from MediaProvider#dump.
+     * With {@link #DUMP_ARG_SCAN_PROFILE} the raw buckets of the {@link ScanPhaseProfiler},
+     * with {@link #DUMP_ARG_ASSIST_TRACE} the events of the {@link AssistTrace},
+     * are written to the cache directory as well.
+     *
+     * @param pw
+     * @param args the dumpsys arguments, may be null
+     */
+    public void dump(PrintWriter pw, String[] args) {
+        DrmScanQueue drmScanQueue;
+        NotifyCoalescer notifyCoalescer;
+        FolderWatcher folderWatcher;
+        synchronized (this) {
+            drmScanQueue = mDrmScanQueue;
+            notifyCoalescer = mNotifyCoalescer;
+            folderWatcher = mFolderWatcher;
+        }
+        if (drmScanQueue != null) {
+            drmScanQueue.dump(pw);
+        }
+        if (notifyCoalescer != null) {
+            notifyCoalescer.dump(pw);
+        }
+        if (folderWatcher != null) {
+            folderWatcher.dump(pw);
+        }
+        DrmClientPool.getInstance().dump(pw);
+        ScanThrottle.getInstance().dump(pw);
+        PriorityScanQueue.dumpActive(pw);
+        ScanCheckpoint.getInstance(getContext()).dump(pw);
+        ScanJournal.getInstance(getContext()).dump(pw);
+        final ScanPhaseProfiler profiler = ScanPhaseProfiler.getInstance();
+        profiler.dump(pw);
+        if (hasDumpArg(args, DUMP_ARG_SCAN_PROFILE)) {
+            final File profile = new File(getContext().getCacheDir(), ScanPhaseProfiler.FILE_NAME);
+            if (profiler.dumpToFile(profile)) {
+                pw.println("  written to " + profile);
+            }
+        }
+        mCallProfiler.dump(pw, CALL_PROFILER_TOP_N, AssistTrace.getInstance());
+        final AssistTrace trace = AssistTrace.getInstance();
+        trace.dump(pw);
+        if (hasDumpArg(args, DUMP_ARG_ASSIST_TRACE)) {
+            final File file = new File(getContext().getCacheDir(), AssistTrace.FILE_NAME);
+            if (trace.dumpToFile(file)) {
+                pw.println("  written to " + file);
+            }
+        }
+    }
+
+    private static boolean hasDumpArg(String[] args, String arg) {
+        return args != null && Arrays.asList(args).contains(arg);
     }
 }
@@ -0,0 +1,227 @@
+package com.unisoc.providers.media;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+import libcore.io.IoUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one query against several external volumes at the same time, such as an SD card and a USB OTG stick
+ * while external_primary is missing, and returns the results as one cursor in the requested sort order
+ * through {@link SortedMergeCursor}.
+ * The first volume is queried on the calling thread, the others on a small shared pool, which is only used
+ * when the plugin can carry the caller's identity to it, see
+ * {@link MediaProviderAssist.ProviderPlugin#providerWithCallingIdentity}. Otherwise all volumes are queried
+ * one after another on the calling thread.
+ * Every concurrent query gets a signal of its own that follows the signal of the client, sqlite takes
+ * the single listener slot of the signal of each query it runs.
+ * Sort columns missing from the projection are queried as well and hidden from the result. An ORDER BY
+ * which can't be merged, see {@link SortedMergeCursor}, is left to sqlite: one query of the
+ * {@link MediaStore#VOLUME_EXTERNAL} uri, which covers every attached external volume.
+ */
+public class MultiVolumeQuery {
+    private static final String TAG = "MultiVolumeQuery";
+
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> new Thread(r, TAG + "-" + threadCount.incrementAndGet()));
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Query uri on every volume of volumeNames.
+     *
+     * @param plugin
+     * @param uri a uri of any volume, its volume segment is replaced by each volume name
+     * @param volumeNames
+     * @param projection
+     * @param queryArgs
+     * @param signal may be null
+     * @return
+     */
+    public static Cursor query(MediaProviderAssist.ProviderPlugin plugin, Uri uri, List<String> volumeNames,
+                               String[] projection, Bundle queryArgs, CancellationSignal signal) {
+        final String sortOrder = queryArgs != null
+                ? queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER) : null;
+        String[] volumeProjection = projection;
+        if (!TextUtils.isEmpty(sortOrder)) {
+            final String[] sortColumns = SortedMergeCursor.getSortColumns(sortOrder);
+            if (sortColumns == null) {
+                return queryAllVolumes(plugin, uri, projection, queryArgs, signal);
+            }
+            volumeProjection = appendMissingColumns(projection, sortColumns);
+        }
+        final Cursor[] cursors = queryVolumes(plugin, uri, volumeNames, volumeProjection, queryArgs, signal);
+        final Cursor merged = SortedMergeCursor.merge(cursors, sortOrder,
+                projection != null ? projection.length : -1);
+        if (merged == null) {
+            //A sort column isn't a column of the result after all.
+            for (Cursor c : cursors) {
+                IoUtils.closeQuietly(c);
+            }
+            return queryAllVolumes(plugin, uri, projection, queryArgs, signal);
+        }
+        return merged;
+    }
+
+    /**
+     * Query uri on all external volumes at once, sorted by sqlite.
+     */
+    private static Cursor queryAllVolumes(MediaProviderAssist.ProviderPlugin plugin, Uri uri, String[] projection,
+                                          Bundle queryArgs, CancellationSignal signal) {
+        return plugin.providerQuery(getVolumeUri(uri, MediaStore.VOLUME_EXTERNAL), projection, queryArgs, signal);
+    }
+
+    /**
+     * Return projection with the columns it lacks appended, null for all columns stays null.
+     */
+    static String[] appendMissingColumns(String[] projection, String[] columns) {
+        if (projection == null) {
+            return null;
+        }
+        final ArrayList<String> result = new ArrayList<>(Arrays.asList(projection));
+        for (String column : columns) {
+            boolean found = false;
+            for (String name : result) {
+                if (name.equalsIgnoreCase(column)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                result.add(column);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static Cursor[] queryVolumes(MediaProviderAssist.ProviderPlugin plugin, Uri uri, List<String> volumeNames,
+                                         String[] projection, Bundle queryArgs, CancellationSignal signal) {
+        final int count = volumeNames.size();
+        final Cursor[] cursors = new Cursor[count];
+        final List<Future<Cursor>> futures = new ArrayList<>(count);
+        final List<OperationBudget> signals = new ArrayList<>(count);
+        boolean success = false;
+        try {
+            for (int i = 1; i < count; i++) {
+                final Uri volumeUri = getVolumeUri(uri, volumeNames.get(i));
+                final OperationBudget child = OperationBudget.follow(signal);
+                signals.add(child);
+                final Callable<Cursor> task = plugin.providerWithCallingIdentity(
+                        () -> queryAndFill(plugin, volumeUri, projection, queryArgs, child.getSignal()));
+                if (task == null) {
+                    //The caller's identity can't be carried to the pool, stay on the calling thread.
+                    break;
+                }
+                futures.add(getExecutor().submit(task));
+            }
+            if (count > 0) {
+                final OperationBudget first = OperationBudget.follow(signal);
+                signals.add(first);
+                cursors[0] = queryAndFill(plugin, getVolumeUri(uri, volumeNames.get(0)),
+                        projection, queryArgs, first.getSignal());
+            }
+            for (int i = 1; i < count; i++) {
+                if (i <= futures.size()) {
+                    cursors[i] = getResult(futures.get(i - 1));
+                } else {
+                    cursors[i] = queryAndFill(plugin, getVolumeUri(uri, volumeNames.get(i)),
+                            projection, queryArgs, signal);
+                }
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                //Stop the queries still running, their results are of no use anymore.
+                for (OperationBudget child : signals) {
+                    child.getSignal().cancel();
+                }
+                for (Future<Cursor> future : futures) {
+                    if (!future.cancel(false)) {
+                        closeResult(future);
+                    }
+                }
+                for (Cursor c : cursors) {
+                    IoUtils.closeQuietly(c);
+                }
+            }
+            for (OperationBudget child : signals) {
+                child.close();
+            }
+        }
+        return cursors;
+    }
+
+    private static Cursor queryAndFill(MediaProviderAssist.ProviderPlugin plugin, Uri uri, String[] projection,
+                                       Bundle queryArgs, CancellationSignal signal) {
+        Cursor c = plugin.providerQuery(uri, projection, queryArgs, signal);
+        if (c != null) {
+            //sqlite runs the query when the first window is filled, do that here instead of during the merge.
+            c.getCount();
+        }
+        return c;
+    }
+
+    private static Cursor getResult(Future<Cursor> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void closeResult(Future<Cursor> future) {
+        try {
+            IoUtils.closeQuietly(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Nothing to close
+        }
+    }
+
+    /**
+     * Replace the volume segment of uri, content://media/external/images/media -> content://media/1234-5678/images/media
+     */
+    static Uri getVolumeUri(Uri uri, String volumeName) {
+        final List<String> segments = uri.getPathSegments();
+        Uri.Builder builder = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority())
+                .appendPath(volumeName);
+        for (int i = 1; i < segments.size(); i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.encodedQuery(uri.getEncodedQuery()).build();
+    }
+}
@@ -0,0 +1,287 @@
+package com.unisoc.providers.media;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Coalesces change notifications before they reach the registered ContentObservers.
+ * Identical uris pending in the same window are sent once, and once more than {@link #MERGE_THRESHOLD}
+ * uris are pending they are merged into their common ancestor, which reaches the same observers.
+ * The window is short while inserts are rare and grows with the insert rate and while the camera is active,
+ * but a notification is never held longer than {@link #MAX_LATENCY_MS}.
+ */
+public class NotifyCoalescer {
+
+    /**
+     * Delivers a coalesced notification, ContentResolver#notifyChange in production.
+     */
+    public interface Sink {
+        void notifyChange(Uri uri);
+    }
+
+    static final long MIN_WINDOW_MS = 50;
+    static final long MAX_WINDOW_MS = 1000;
+    static final long MAX_LATENCY_MS = 2000;
+    // While the camera is active the window is at least the AOSP background delay
+    static final long CAMERA_WINDOW_MS = MediaProviderAssist.BACKGROUND_NOTIFY_DELAY;
+    static final long CAMERA_HOLD_MS = 3000;
+    static final int MERGE_THRESHOLD = 16;
+
+    // Insert rates in notifications per second, the window grows linearly between them
+    private static final double LOW_RATE = 2;
+    private static final double HIGH_RATE = 20;
+    // The rate is a moving average of notifications per bucket, updated when a bucket ends,
+    // so that the few notifications of one insert don't widen their own window
+    private static final long RATE_BUCKET_MS = 250;
+    private static final double RATE_ALPHA = 0.5;
+
+    private final Sink mSink;
+    private final Handler mHandler;
+    private final Runnable mFlushRunnable = this::flushFromHandler;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final LinkedHashSet<Uri> mPending = new LinkedHashSet<>();
+    private long mFirstPendingTime;
+    private long mLastNotifyTime = -1;
+    private long mBucketStart;
+    private int mBucketCount;
+    private double mRate;
+    private long mCameraActiveUntil;
+    private long mScheduledTime = -1;
+    private long mReceived;
+    private long mDelivered;
+    private long mMerged;
+
+    public NotifyCoalescer(Sink sink, Handler handler) {
+        mSink = sink;
+        mHandler = handler;
+    }
+
+    /**
+     * Queue a change notification of uri.
+     *
+     * @param uri
+     */
+    public void notifyChange(Uri uri) {
+        final long now = SystemClock.uptimeMillis();
+        final long deadline = notifyChange(uri, now);
+        schedule(deadline, now);
+    }
+
+    /**
+     * Tell the coalescer the camera is capturing, the window is widened for {@link #CAMERA_HOLD_MS}.
+     */
+    public void noteCameraActivity() {
+        noteCameraActivity(SystemClock.uptimeMillis());
+    }
+
+    void noteCameraActivity(long now) {
+        synchronized (mLock) {
+            mCameraActiveUntil = now + CAMERA_HOLD_MS;
+        }
+    }
+
+    /**
+     * @return the time the pending notifications are due
+     */
+    long notifyChange(Uri uri, long now) {
+        synchronized (mLock) {
+            mReceived++;
+            updateRateLocked(now);
+            mBucketCount++;
+            mLastNotifyTime = now;
+            if (mPending.isEmpty()) {
+                mFirstPendingTime = now;
+            }
+            if (!coveredByPendingLocked(uri)) {
+                mPending.add(uri);
+                if (mPending.size() > MERGE_THRESHOLD) {
+                    mergeLocked();
+                }
+            }
+            return dueTimeLocked(now);
+        }
+    }
+
+    private void updateRateLocked(long now) {
+        if (mLastNotifyTime < 0) {
+            mBucketStart = now;
+            return;
+        }
+        final long buckets = (now - mBucketStart) / RATE_BUCKET_MS;
+        if (buckets <= 0) {
+            return;
+        }
+        mRate = RATE_ALPHA * (mBucketCount * 1000.0 / RATE_BUCKET_MS) + (1 - RATE_ALPHA) * mRate;
+        // Buckets without any notification
+        mRate *= Math.pow(1 - RATE_ALPHA, Math.min(buckets - 1, 64));
+        mBucketStart += buckets * RATE_BUCKET_MS;
+        mBucketCount = 0;
+    }
+
+    private long dueTimeLocked(long now) {
+        return Math.min(mFirstPendingTime + MAX_LATENCY_MS, now + windowLocked(now));
+    }
+
+    /**
+     * Current window: the gap of quiet time which flushes the pending notifications.
+     */
+    long windowLocked(long now) {
+        long window;
+        if (mRate <= LOW_RATE) {
+            window = MIN_WINDOW_MS;
+        } else if (mRate >= HIGH_RATE) {
+            window = MAX_WINDOW_MS;
+        } else {
+            window = MIN_WINDOW_MS
+                    + (long) ((MAX_WINDOW_MS - MIN_WINDOW_MS) * (mRate - LOW_RATE) / (HIGH_RATE - LOW_RATE));
+        }
+        if (now < mCameraActiveUntil) {
+            window = Math.max(window, CAMERA_WINDOW_MS);
+        }
+        return window;
+    }
+
+    private boolean coveredByPendingLocked(Uri uri) {
+        if (mPending.contains(uri)) {
+            return true;
+        }
+        // Only merged ancestors can cover other uris, and there are few of them after a merge
+        if (mPending.size() > MERGE_THRESHOLD / 2) {
+            return false;
+        }
+        for (Uri pending : mPending) {
+            if (isAncestorOrSelf(pending, uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void mergeLocked() {
+        Uri ancestor = null;
+        for (Uri uri : mPending) {
+            ancestor = ancestor == null ? uri : commonAncestor(ancestor, uri);
+            if (ancestor == null) {
+                // Different authorities or volumes, keep them apart
+                return;
+            }
+        }
+        mMerged += mPending.size() - 1;
+        mPending.clear();
+        mPending.add(ancestor);
+    }
+
+    /**
+     * Return the deepest uri which is an ancestor of or equal to both a and b,
+     * or null when they only share the authority.
+     */
+    static Uri commonAncestor(Uri a, Uri b) {
+        if (!equals(a.getScheme(), b.getScheme()) || !equals(a.getAuthority(), b.getAuthority())) {
+            return null;
+        }
+        final List<String> segmentsA = a.getPathSegments();
+        final List<String> segmentsB = b.getPathSegments();
+        int common = 0;
+        while (common < segmentsA.size() && common < segmentsB.size()
+                && segmentsA.get(common).equals(segmentsB.get(common))) {
+            common++;
+        }
+        if (common == 0) {
+            // The bare authority would wake every observer of every volume
+            return null;
+        }
+        if (common == segmentsA.size() && a.getQuery() == null) {
+            return a;
+        }
+        if (common == segmentsB.size() && b.getQuery() == null) {
+            return b;
+        }
+        Uri.Builder builder = new Uri.Builder().scheme(a.getScheme()).authority(a.getAuthority());
+        for (int i = 0; i < common; i++) {
+            builder.appendPath(segmentsA.get(i));
+        }
+        return builder.build();
+    }
+
+    static boolean isAncestorOrSelf(Uri ancestor, Uri uri) {
+        if (ancestor.getQuery() != null) {
+            return ancestor.equals(uri);
+        }
+        if (!equals(ancestor.getScheme(), uri.getScheme())
+                || !equals(ancestor.getAuthority(), uri.getAuthority())) {
+            return false;
+        }
+        final List<String> prefix = ancestor.getPathSegments();
+        final List<String> segments = uri.getPathSegments();
+        return prefix.size() <= segments.size() && prefix.equals(segments.subList(0, prefix.size()));
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void schedule(long deadline, long now) {
+        synchronized (mLock) {
+            // The flush runnable reschedules itself if the deadline moved later
+            if (mScheduledTime >= 0 && mScheduledTime <= deadline) {
+                return;
+            }
+            mScheduledTime = deadline;
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, Math.max(0, deadline - now));
+    }
+
+    private void flushFromHandler() {
+        final long now = SystemClock.uptimeMillis();
+        synchronized (mLock) {
+            mScheduledTime = -1;
+        }
+        final long next = flush(now);
+        if (next >= 0) {
+            schedule(next, now);
+        }
+    }
+
+    /**
+     * Deliver the pending notifications when they are due.
+     *
+     * @return the time the remaining notifications are due, or -1 when nothing is pending
+     */
+    long flush(long now) {
+        final ArrayList<Uri> due;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return -1;
+            }
+            final long dueTime = Math.min(mFirstPendingTime + MAX_LATENCY_MS,
+                    mLastNotifyTime + windowLocked(mLastNotifyTime));
+            if (now < dueTime) {
+                return dueTime;
+            }
+            due = new ArrayList<>(mPending);
+            mPending.clear();
+            mDelivered += due.size();
+        }
+        for (Uri uri : due) {
+            mSink.notifyChange(uri);
+        }
+        return -1;
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("NotifyCoalescer: received=" + mReceived + " delivered=" + mDelivered
+                    + " merged=" + mMerged + " pending=" + mPending.size()
+                    + " rate=" + (int) mRate + "/s window=" + windowLocked(SystemClock.uptimeMillis()) + "ms");
+        }
+    }
+}
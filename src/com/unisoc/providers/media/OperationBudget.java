@@ -0,0 +1,119 @@
+package com.unisoc.providers.media;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+
+import com.android.internal.os.BackgroundThread;
+
+/**
+ * Cancellation and time budget of one assist operation.
+ * {@link #getSignal()} is passed to every query of the operation, it is canceled when the client cancels
+ * its own signal or when the budget runs out, so that a running sqlite query stops as well.
+ * Between queries the operation calls {@link #throwIfCanceled()}.
+ * The client signal is polled rather than listened to, its single listener slot belongs to the client
+ * and to sqlite. An operation without a client signal has no deadline and never throws, like the
+ * assist calls it stands for did before they could be canceled.
+ * Must be closed once the operation is done, which stops the polling.
+ */
+public class OperationBudget implements AutoCloseable {
+
+    // How often a running query looks at the client signal
+    static final long POLL_INTERVAL_MS = 50;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final CancellationSignal mClientSignal;
+    private final CancellationSignal mSignal = new CancellationSignal();
+    private final Handler mHandler;
+    private final long mDeadline;
+    private final Runnable mPollRunnable = this::poll;
+
+    /**
+     * Start the budget of an operation.
+     *
+     * @param clientSignal the signal of the client call, null for an operation which must not be canceled
+     * @param budgetMs time the operation may take, ignored without clientSignal
+     * @return
+     */
+    public static OperationBudget start(CancellationSignal clientSignal, long budgetMs) {
+        return new OperationBudget(clientSignal, clientSignal != null ? budgetMs : -1,
+                BackgroundThread.getHandler());
+    }
+
+    /**
+     * Follow clientSignal without a deadline. Gives a query running next to others a signal of its own,
+     * since sqlite takes the listener slot of the signal of every query it runs.
+     *
+     * @param clientSignal may be null
+     * @return
+     */
+    public static OperationBudget follow(CancellationSignal clientSignal) {
+        return new OperationBudget(clientSignal, -1, BackgroundThread.getHandler());
+    }
+
+    /**
+     * @param clientSignal may be null
+     * @param budgetMs negative for no deadline
+     * @param handler
+     */
+    OperationBudget(CancellationSignal clientSignal, long budgetMs, Handler handler) {
+        mClientSignal = clientSignal;
+        mHandler = handler;
+        mDeadline = budgetMs < 0 ? NO_DEADLINE : SystemClock.uptimeMillis() + budgetMs;
+        poll();
+    }
+
+    /**
+     * Start a part of this operation with a smaller budget of its own. It is canceled with this one,
+     * but running out of its own time leaves this one running, so the caller can take another way.
+     *
+     * @param budgetMs
+     * @return
+     */
+    public OperationBudget startPart(long budgetMs) {
+        final long remaining = mDeadline == NO_DEADLINE ? budgetMs : mDeadline - SystemClock.uptimeMillis();
+        return new OperationBudget(mSignal, Math.max(0, Math.min(budgetMs, remaining)), mHandler);
+    }
+
+    /**
+     * @return the signal to pass to the queries of the operation
+     */
+    public CancellationSignal getSignal() {
+        return mSignal;
+    }
+
+    private boolean checkCanceled() {
+        if (!mSignal.isCanceled() && ((mClientSignal != null && mClientSignal.isCanceled())
+                || SystemClock.uptimeMillis() >= mDeadline)) {
+            mSignal.cancel();
+        }
+        return mSignal.isCanceled();
+    }
+
+    private void poll() {
+        if (checkCanceled()) {
+            return;
+        }
+        long delay = mDeadline == NO_DEADLINE ? -1 : mDeadline - SystemClock.uptimeMillis();
+        if (mClientSignal != null) {
+            delay = delay < 0 ? POLL_INTERVAL_MS : Math.min(delay, POLL_INTERVAL_MS);
+        }
+        if (delay >= 0) {
+            mHandler.postDelayed(mPollRunnable, delay);
+        }
+    }
+
+    /**
+     * @throws OperationCanceledException when the client canceled or the budget ran out
+     */
+    public void throwIfCanceled() {
+        checkCanceled();
+        mSignal.throwIfCanceled();
+    }
+
+    @Override
+    public void close() {
+        mHandler.removeCallbacks(mPollRunnable);
+    }
+}
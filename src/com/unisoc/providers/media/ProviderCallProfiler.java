@@ -0,0 +1,203 @@
+package com.unisoc.providers.media;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates provider calls per (calling uid, calling pid, call tag, uri match code),
+ * to find the app which hammers the provider without going through logcat.
+ * Every key owns a {@link Recorder} with call and row counters and a log2 latency histogram.
+ * Keys live in a fixed size open addressing table claimed by CAS, so recording takes no lock
+ * and allocates nothing once the key has been seen; keys past the table size go to one overflow recorder.
+ */
+public class ProviderCallProfiler {
+
+    static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_PROBES = 16;
+    private static final long EMPTY = 0;
+
+    // Latency buckets, bucket i holds calls taking [2^(i-1), 2^i) microseconds, the last one is open ended
+    static final int BUCKETS = 22;
+
+    // Packed key: uid (24 bits) | pid (22 bits) | tag (6 bits) | match code (12 bits)
+    private static final int PID_BITS = 22;
+    private static final int TAG_BITS = 6;
+    private static final int MATCH_BITS = 12;
+
+    /**
+     * Counters of one key.
+     */
+    public static final class Recorder {
+        final long key;
+        final LongAdder calls = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        Recorder(long key) {
+            this.key = key;
+        }
+
+        void record(long nanos, int rowCount) {
+            calls.increment();
+            if (rowCount > 0) {
+                rows.add(rowCount);
+            }
+            totalNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            histogram.incrementAndGet(bucketOf(nanos));
+        }
+
+        /**
+         * Return the upper bound of the bucket holding the given percentile, in microseconds.
+         */
+        long percentileMicros(double percentile) {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += histogram.get(i);
+            }
+            final long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+
+    private final AtomicLongArray mKeys = new AtomicLongArray(CAPACITY);
+    private final AtomicReferenceArray<Recorder> mRecorders = new AtomicReferenceArray<>(CAPACITY);
+    private final Recorder mOverflow = new Recorder(EMPTY);
+
+    static int bucketOf(long nanos) {
+        final long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    static long packKey(int uid, int pid, int tag, int match) {
+        long key = uid & ((1L << 24) - 1);
+        key = (key << PID_BITS) | (pid & ((1L << PID_BITS) - 1));
+        key = (key << TAG_BITS) | (tag & ((1L << TAG_BITS) - 1));
+        key = (key << MATCH_BITS) | (match & ((1L << MATCH_BITS) - 1));
+        // 0 marks an empty slot
+        return key == EMPTY ? Long.MIN_VALUE : key;
+    }
+
+    static int uidOf(long key) {
+        return (int) (key >>> (PID_BITS + TAG_BITS + MATCH_BITS)) & ((1 << 24) - 1);
+    }
+
+    static int pidOf(long key) {
+        return (int) (key >>> (TAG_BITS + MATCH_BITS)) & ((1 << PID_BITS) - 1);
+    }
+
+    static int tagOf(long key) {
+        return (int) (key >>> MATCH_BITS) & ((1 << TAG_BITS) - 1);
+    }
+
+    static int matchOf(long key) {
+        return (int) key & ((1 << MATCH_BITS) - 1);
+    }
+
+    /**
+     * Record one finished provider call.
+     *
+     * @param uid calling uid
+     * @param pid calling pid
+     * @param tag call site tag id, see {@link AssistTrace#tagId(String)}
+     * @param match uri match code
+     * @param nanos call duration
+     * @param rowCount rows returned or affected, negative when unknown
+     */
+    public void record(int uid, int pid, int tag, int match, long nanos, int rowCount) {
+        recorderFor(packKey(uid, pid, tag, match)).record(nanos, rowCount);
+    }
+
+    private Recorder recorderFor(long key) {
+        int slot = (int) (mix(key) & MASK);
+        for (int probe = 0; probe < MAX_PROBES; probe++, slot = (slot + 1) & MASK) {
+            long current = mKeys.get(slot);
+            if (current == EMPTY && mKeys.compareAndSet(slot, EMPTY, key)) {
+                Recorder recorder = new Recorder(key);
+                mRecorders.set(slot, recorder);
+                return recorder;
+            }
+            current = mKeys.get(slot);
+            if (current == key) {
+                Recorder recorder = mRecorders.get(slot);
+                //The claiming thread is still publishing its recorder
+                return recorder != null ? recorder : mOverflow;
+            }
+        }
+        return mOverflow;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * @return the recorders seen so far, in no particular order, the overflow recorder excluded
+     */
+    ArrayList<Recorder> recorders() {
+        ArrayList<Recorder> result = new ArrayList<>();
+        for (int i = 0; i < CAPACITY; i++) {
+            Recorder recorder = mRecorders.get(i);
+            if (recorder != null) {
+                result.add(recorder);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Print the top callers by total time spent in the provider and by call count.
+     *
+     * @param pw
+     * @param topN
+     * @param trace resolves the tag ids
+     */
+    public void dump(PrintWriter pw, int topN, AssistTrace trace) {
+        ArrayList<Recorder> recorders = recorders();
+        pw.println("ProviderCallProfiler: " + recorders.size() + " keys, overflow calls="
+                + mOverflow.calls.sum());
+        Collections.sort(recorders, Comparator.comparingLong((Recorder r) -> r.totalNanos.sum()).reversed());
+        pw.println(" top by time:");
+        dumpRecorders(pw, recorders, topN, trace);
+        Collections.sort(recorders, Comparator.comparingLong((Recorder r) -> r.calls.sum()).reversed());
+        pw.println(" top by calls:");
+        dumpRecorders(pw, recorders, topN, trace);
+    }
+
+    private static void dumpRecorders(PrintWriter pw, ArrayList<Recorder> recorders, int topN,
+                                      AssistTrace trace) {
+        for (int i = 0; i < Math.min(topN, recorders.size()); i++) {
+            Recorder r = recorders.get(i);
+            final long calls = r.calls.sum();
+            pw.println("  uid=" + uidOf(r.key) + " pid=" + pidOf(r.key)
+                    + " " + trace.tagName(tagOf(r.key)) + " match=" + matchOf(r.key)
+                    + " calls=" + calls + " rows=" + r.rows.sum()
+                    + " totalMs=" + r.totalNanos.sum() / 1000000
+                    + " avgUs=" + (calls == 0 ? 0 : r.totalNanos.sum() / calls / 1000)
+                    + " p50Us<=" + r.percentileMicros(0.5) + " p99Us<=" + r.percentileMicros(0.99)
+                    + " maxUs=" + r.maxNanos.get() / 1000);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.unisoc.providers.media;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * Holds back background scan work while the camera is capturing, so that the camera wins the I/O and CPU,
+ * the same way change notifications are delayed by {@link NotifyCoalescer}.
+ * Camera activity is detected from the inserts into DCIM/Camera and from burst frames, see
+ * {@link MediaProviderAssist#onImageInserted}.
+ * <ul>
+ * <li>idle: scan work runs at full speed.</li>
+ * <li>camera active, at least {@link #CAMERA_INSERT_THRESHOLD} inserts within {@link #CAMERA_RATE_WINDOW_MS}:
+ * work takes tokens from a bucket refilled at {@link #CAMERA_TOKENS_PER_SECOND}, and batches shrink.</li>
+ * <li>burst capture: work is paused until the burst has been quiet for {@link #BURST_QUIET_MS},
+ * but one caller never waits longer than {@link #MAX_PAUSE_MS}.</li>
+ * </ul>
+ * Full speed resumes once the camera has been quiet for {@link #CAMERA_QUIET_MS}.
+ */
+public class ScanThrottle {
+
+    // Cost of the work of one file in tokens
+    public static final int COST_FILE = 1;
+    // Decrypting a DRM file through the drm service
+    public static final int COST_DRM = 8;
+
+    static final int CAMERA_INSERT_THRESHOLD = 2;
+    static final long CAMERA_RATE_WINDOW_MS = 5000;
+    static final long CAMERA_QUIET_MS = 5000;
+    static final long BURST_QUIET_MS = 2000;
+    static final long MAX_PAUSE_MS = 10000;
+    static final double CAMERA_TOKENS_PER_SECOND = 20;
+    static final int BUCKET_SIZE = 8;
+    // Batches are divided by this while the camera is active
+    static final int CAMERA_BATCH_DIVISOR = 4;
+
+    static final int STATE_IDLE = 0;
+    static final int STATE_CAMERA = 1;
+    static final int STATE_BURST = 2;
+
+    private static final ScanThrottle sInstance = new ScanThrottle();
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final long[] mInsertTimes = new long[CAMERA_INSERT_THRESHOLD];
+    private int mInsertCount;
+    private long mCameraUntil = Long.MIN_VALUE;
+    private long mBurstUntil = Long.MIN_VALUE;
+    private double mTokens = BUCKET_SIZE;
+    private long mLastRefill;
+    private long mThrottledMs;
+    private long mPausedMs;
+    private long mThrottledCalls;
+
+    public static ScanThrottle getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * A picture was saved into DCIM/Camera.
+     */
+    public void noteCameraInsert() {
+        noteCameraInsert(SystemClock.uptimeMillis());
+    }
+
+    void noteCameraInsert(long now) {
+        synchronized (mLock) {
+            mInsertTimes[mInsertCount % CAMERA_INSERT_THRESHOLD] = now;
+            mInsertCount++;
+            // The oldest of the last CAMERA_INSERT_THRESHOLD inserts decides whether the rate is reached
+            if (mInsertCount >= CAMERA_INSERT_THRESHOLD
+                    && now - mInsertTimes[mInsertCount % CAMERA_INSERT_THRESHOLD] <= CAMERA_RATE_WINDOW_MS) {
+                mCameraUntil = now + CAMERA_QUIET_MS;
+            }
+        }
+    }
+
+    /**
+     * A burst frame was saved, scan work pauses for the rest of the burst.
+     */
+    public void noteBurstFrame() {
+        noteBurstFrame(SystemClock.uptimeMillis());
+    }
+
+    void noteBurstFrame(long now) {
+        synchronized (mLock) {
+            mBurstUntil = now + BURST_QUIET_MS;
+            mCameraUntil = Math.max(mCameraUntil, now + CAMERA_QUIET_MS);
+        }
+    }
+
+    int getState(long now) {
+        synchronized (mLock) {
+            return stateLocked(now);
+        }
+    }
+
+    private int stateLocked(long now) {
+        if (now < mBurstUntil) {
+            return STATE_BURST;
+        }
+        return now < mCameraUntil ? STATE_CAMERA : STATE_IDLE;
+    }
+
+    /**
+     * Wait until scan work of the given cost may run. Returns immediately while the camera is idle.
+     * An interrupted wait returns early with the interrupt flag set.
+     *
+     * @param cost one of the COST_* values
+     */
+    public void acquire(int cost) {
+        final long start = SystemClock.uptimeMillis();
+        long now = start;
+        long pause;
+        while ((pause = pauseTime(now)) > 0 && now - start < MAX_PAUSE_MS) {
+            if (!sleep(Math.min(pause, start + MAX_PAUSE_MS - now))) {
+                return;
+            }
+            now = SystemClock.uptimeMillis();
+        }
+        final long wait = reserve(cost, now);
+        if (wait > 0) {
+            sleep(wait);
+        }
+        if (now > start || wait > 0) {
+            synchronized (mLock) {
+                mPausedMs += now - start;
+                mThrottledMs += wait;
+                mThrottledCalls++;
+            }
+        }
+    }
+
+    private static boolean sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return how long work has to pause for a burst capture, 0 when it may go on
+     */
+    long pauseTime(long now) {
+        synchronized (mLock) {
+            return stateLocked(now) == STATE_BURST ? mBurstUntil - now : 0;
+        }
+    }
+
+    /**
+     * Take cost tokens from the bucket, the bucket may go into debt.
+     *
+     * @return how long the caller has to wait for the debt to be paid back, 0 when it may go on
+     */
+    long reserve(int cost, long now) {
+        synchronized (mLock) {
+            if (stateLocked(now) == STATE_IDLE) {
+                mTokens = BUCKET_SIZE;
+                mLastRefill = now;
+                return 0;
+            }
+            mTokens = Math.min(BUCKET_SIZE, mTokens + (now - mLastRefill) * CAMERA_TOKENS_PER_SECOND / 1000);
+            mLastRefill = now;
+            mTokens -= cost;
+            return mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens * 1000 / CAMERA_TOKENS_PER_SECOND);
+        }
+    }
+
+    /**
+     * Size of the next batch of scan work.
+     *
+     * @param maxSize the batch size at full speed
+     * @return
+     */
+    public int getBatchSize(int maxSize) {
+        return getBatchSize(maxSize, SystemClock.uptimeMillis());
+    }
+
+    int getBatchSize(int maxSize, long now) {
+        switch (getState(now)) {
+            case STATE_BURST:
+                return 1;
+            case STATE_CAMERA:
+                return Math.max(1, maxSize / CAMERA_BATCH_DIVISOR);
+            default:
+                return maxSize;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        final long now = SystemClock.uptimeMillis();
+        synchronized (mLock) {
+            final int state = stateLocked(now);
+            pw.println("ScanThrottle: state=" + (state == STATE_BURST ? "burst" : state == STATE_CAMERA ? "camera" : "idle")
+                    + " throttledCalls=" + mThrottledCalls + " throttledMs=" + mThrottledMs
+                    + " pausedMs=" + mPausedMs);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.unisoc.providers.media;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of cursors which are each sorted by the same ORDER BY, such as the same query run
+ * against several volumes. Rows are streamed from the source cursors in the merged order,
+ * nothing is copied: the cursor only keeps which source holds the next row of every source.
+ * Moving forward costs O(log k) per row, moving backward restarts the merge.
+ * Only ORDER BY terms naming a column of the result, with an optional COLLATE NOCASE/BINARY and ASC/DESC,
+ * can be merged, see {@link #merge}. Sort columns the caller didn't ask for can be queried at the end
+ * of the projection and hidden from the merged cursor.
+ */
+public class SortedMergeCursor extends AbstractCursor {
+
+    private final Cursor[] mCursors;
+    // [cursor][term] column index of every ORDER BY term in every cursor
+    private final int[][] mKeyColumns;
+    private final boolean[] mDescending;
+    private final boolean[] mNoCase;
+    private final String[] mColumnNames;
+    private final int mCount;
+
+    private final PriorityQueue<Integer> mHeap;
+    private int mMergedPosition = -1;
+    private Cursor mCurrent;
+    private int mCurrentIndex = -1;
+
+    /**
+     * Merge cursors sorted by sortOrder. Without sortOrder the cursors are concatenated.
+     *
+     * @param cursors null entries are skipped
+     * @param sortOrder the ORDER BY the cursors were queried with, may be null
+     * @return null when sortOrder can't be merged, the caller has to let sqlite sort then
+     */
+    public static Cursor merge(Cursor[] cursors, String sortOrder) {
+        return merge(cursors, sortOrder, -1);
+    }
+
+    /**
+     * Same as {@link #merge(Cursor[], String)}, showing only the first columnCount columns of the cursors.
+     *
+     * @param cursors null entries are skipped
+     * @param sortOrder the ORDER BY the cursors were queried with, may be null
+     * @param columnCount number of visible columns, the sort columns queried for the merge only follow them;
+     *                    negative to show all columns
+     * @return null when sortOrder can't be merged, the caller has to let sqlite sort then
+     */
+    public static Cursor merge(Cursor[] cursors, String sortOrder, int columnCount) {
+        if (TextUtils.isEmpty(sortOrder) && columnCount < 0) {
+            return new MergeCursor(cursors);
+        }
+        String[] terms = TextUtils.isEmpty(sortOrder) ? new String[0] : sortOrder.split(",");
+        String[] columns = new String[terms.length];
+        boolean[] descending = new boolean[terms.length];
+        boolean[] noCase = new boolean[terms.length];
+        if (!parseSortOrder(terms, columns, descending, noCase)) {
+            return null;
+        }
+        int[][] keyColumns = new int[cursors.length][];
+        for (int i = 0; i < cursors.length; i++) {
+            if (cursors[i] == null) continue;
+            keyColumns[i] = new int[columns.length];
+            for (int t = 0; t < columns.length; t++) {
+                keyColumns[i][t] = cursors[i].getColumnIndex(columns[t]);
+                if (keyColumns[i][t] < 0) {
+                    return null;
+                }
+            }
+        }
+        return new SortedMergeCursor(cursors, keyColumns, descending, noCase, columnCount);
+    }
+
+    /**
+     * Return the columns of the ORDER BY terms of sortOrder.
+     *
+     * @param sortOrder
+     * @return null when sortOrder can't be merged
+     */
+    static String[] getSortColumns(String sortOrder) {
+        String[] terms = sortOrder.split(",");
+        String[] columns = new String[terms.length];
+        if (!parseSortOrder(terms, columns, new boolean[terms.length], new boolean[terms.length])) {
+            return null;
+        }
+        return columns;
+    }
+
+    /**
+     * Parse ORDER BY terms of the form "[table.]column [COLLATE NOCASE|BINARY] [ASC|DESC]".
+     *
+     * @return false when a term has any other form
+     */
+    static boolean parseSortOrder(String[] terms, String[] outColumns, boolean[] outDescending, boolean[] outNoCase) {
+        for (int t = 0; t < terms.length; t++) {
+            String[] tokens = terms[t].trim().split("\\s+");
+            if (tokens.length == 0 || tokens[0].isEmpty()) return false;
+            String column = tokens[0];
+            column = column.substring(column.lastIndexOf('.') + 1);
+            if (column.length() > 1 && (column.charAt(0) == '"' || column.charAt(0) == '`')
+                    && column.charAt(column.length() - 1) == column.charAt(0)) {
+                column = column.substring(1, column.length() - 1);
+            }
+            for (int i = 0; i < column.length(); i++) {
+                char ch = column.charAt(i);
+                if (!Character.isLetterOrDigit(ch) && ch != '_') return false;
+            }
+            int pos = 1;
+            if (pos + 1 < tokens.length && tokens[pos].equalsIgnoreCase("COLLATE")) {
+                if (tokens[pos + 1].equalsIgnoreCase("NOCASE")) {
+                    outNoCase[t] = true;
+                } else if (!tokens[pos + 1].equalsIgnoreCase("BINARY")) {
+                    return false;
+                }
+                pos += 2;
+            }
+            if (pos < tokens.length) {
+                if (tokens[pos].equalsIgnoreCase("DESC")) {
+                    outDescending[t] = true;
+                } else if (!tokens[pos].equalsIgnoreCase("ASC")) {
+                    return false;
+                }
+                pos++;
+            }
+            if (pos != tokens.length) return false;
+            outColumns[t] = column;
+        }
+        return true;
+    }
+
+    SortedMergeCursor(Cursor[] cursors, int[][] keyColumns, boolean[] descending, boolean[] noCase,
+                      int columnCount) {
+        mCursors = cursors;
+        mKeyColumns = keyColumns;
+        mDescending = descending;
+        mNoCase = noCase;
+        int count = 0;
+        String[] columnNames = null;
+        for (Cursor c : cursors) {
+            if (c == null) continue;
+            count += c.getCount();
+            if (columnNames == null) columnNames = c.getColumnNames();
+        }
+        mCount = count;
+        if (columnNames == null) {
+            columnNames = new String[0];
+        } else if (columnCount >= 0 && columnCount < columnNames.length) {
+            columnNames = Arrays.copyOf(columnNames, columnCount);
+        }
+        mColumnNames = columnNames;
+        mHeap = new PriorityQueue<>(Math.max(1, cursors.length), this::compareHeads);
+    }
+
+    private int compareHeads(Integer a, Integer b) {
+        final Cursor ca = mCursors[a];
+        final Cursor cb = mCursors[b];
+        for (int t = 0; t < mDescending.length; t++) {
+            int result = compareValues(ca, mKeyColumns[a][t], cb, mKeyColumns[b][t], mNoCase[t]);
+            if (result != 0) {
+                return mDescending[t] ? -result : result;
+            }
+        }
+        // Equal keys keep the order of the sources
+        return Integer.compare(a, b);
+    }
+
+    /**
+     * Compare two values the way sqlite orders them: NULL, then numbers, then text, then blobs.
+     */
+    static int compareValues(Cursor a, int columnA, Cursor b, int columnB, boolean noCase) {
+        final int typeA = a.getType(columnA);
+        final int typeB = b.getType(columnB);
+        final int rankA = typeRank(typeA);
+        final int rankB = typeRank(typeB);
+        if (rankA != rankB) {
+            return Integer.compare(rankA, rankB);
+        }
+        switch (typeA) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                if (typeA == Cursor.FIELD_TYPE_INTEGER && typeB == Cursor.FIELD_TYPE_INTEGER) {
+                    return Long.compare(a.getLong(columnA), b.getLong(columnB));
+                }
+                return Double.compare(a.getDouble(columnA), b.getDouble(columnB));
+            case Cursor.FIELD_TYPE_STRING:
+                return noCase ? a.getString(columnA).compareToIgnoreCase(b.getString(columnB))
+                        : a.getString(columnA).compareTo(b.getString(columnB));
+            default:
+                byte[] blobA = a.getBlob(columnA);
+                byte[] blobB = b.getBlob(columnB);
+                for (int i = 0; i < Math.min(blobA.length, blobB.length); i++) {
+                    int result = Integer.compare(blobA[i] & 0xFF, blobB[i] & 0xFF);
+                    if (result != 0) return result;
+                }
+                return Integer.compare(blobA.length, blobB.length);
+        }
+    }
+
+    private static int typeRank(int type) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                return 1;
+            case Cursor.FIELD_TYPE_STRING:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (newPosition < mMergedPosition || mMergedPosition < 0) {
+            restart();
+        }
+        while (mMergedPosition < newPosition) {
+            if (!step()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void restart() {
+        mHeap.clear();
+        for (int i = 0; i < mCursors.length; i++) {
+            if (mCursors[i] != null && mCursors[i].moveToFirst()) {
+                mHeap.add(i);
+            }
+        }
+        mCurrent = null;
+        mCurrentIndex = -1;
+        mMergedPosition = -1;
+    }
+
+    private boolean step() {
+        if (mCurrent != null && mCurrent.moveToNext()) {
+            mHeap.add(mCurrentIndex);
+        }
+        Integer next = mHeap.poll();
+        if (next == null) {
+            mCurrent = null;
+            return false;
+        }
+        mCurrentIndex = next;
+        mCurrent = mCursors[next];
+        mMergedPosition++;
+        return true;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCurrent.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCurrent.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCurrent.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCurrent.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCurrent.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCurrent.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCurrent.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCurrent.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCurrent.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        for (Cursor c : mCursors) {
+            if (c != null) c.close();
+        }
+        super.close();
+    }
+}
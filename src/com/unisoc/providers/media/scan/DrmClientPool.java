@@ -0,0 +1,202 @@
+package com.unisoc.providers.media.scan;
+
+import android.content.Context;
+import android.drm.DrmManagerClientEx;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.os.BackgroundThread;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide pool of {@link DrmManagerClientEx}, shared by every {@link ModernMediaScannerAssist}.
+ * A client is handed out to one scan at a time; released clients stay alive for {@link #IDLE_TIMEOUT_MS}
+ * so that back-to-back single file scans don't pay for a new binder connection each time.
+ */
+public class DrmClientPool {
+    private static final String TAG = "DrmClientPool";
+
+    private static final long IDLE_TIMEOUT_MS = 30 * 1000;
+    private static final int MAX_IDLE_CLIENTS = 2;
+
+    private static DrmClientPool sInstance;
+
+    private static final class IdleClient {
+        final DrmManagerClientEx client;
+        final long releaseTime;
+
+        IdleClient(DrmManagerClientEx client, long releaseTime) {
+            this.client = client;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+    private final Handler mHandler;
+    private final Runnable mEvictRunnable = this::evictIdleClients;
+
+    // Most recently released first
+    private final ArrayDeque<IdleClient> mIdle = new ArrayDeque<>();
+
+    private final AtomicLong mCreateCount = new AtomicLong();
+    private final AtomicLong mCreateNanos = new AtomicLong();
+    private final AtomicLong mCloseCount = new AtomicLong();
+    private final AtomicLong mReuseCount = new AtomicLong();
+    private final AtomicLong mDiscardCount = new AtomicLong();
+    private final AtomicLong mCanHandleCount = new AtomicLong();
+    private final AtomicLong mCanHandleNanos = new AtomicLong();
+    private final AtomicLong mMimeTypeCount = new AtomicLong();
+    private final AtomicLong mMimeTypeNanos = new AtomicLong();
+
+    public static synchronized DrmClientPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new DrmClientPool(BackgroundThread.getHandler());
+        }
+        return sInstance;
+    }
+
+    DrmClientPool(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Take a client for exclusive use until {@link #release}.
+     *
+     * @param context
+     * @return
+     */
+    public DrmManagerClientEx acquire(Context context) {
+        synchronized (mIdle) {
+            IdleClient idle = mIdle.pollFirst();
+            if (idle != null) {
+                mReuseCount.incrementAndGet();
+                return idle.client;
+            }
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        DrmManagerClientEx client = new DrmManagerClientEx(context);
+        mCreateNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+        mCreateCount.incrementAndGet();
+        if (ModernMediaScannerAssist.LOCAL_LOG_ENABLE)
+            Log.d(TAG, "acquire -> create drm mgr client: " + client);
+        return client;
+    }
+
+    /**
+     * Give a client back, it is closed once it stayed idle for {@link #IDLE_TIMEOUT_MS}.
+     *
+     * @param client
+     */
+    public void release(DrmManagerClientEx client) {
+        release(client, false);
+    }
+
+    /**
+     * Give a client back. A client whose service calls failed is closed at once instead of being handed
+     * to the next scan; a client released twice is pooled once.
+     *
+     * @param client
+     * @param failed whether a service call of the client threw
+     */
+    public void release(DrmManagerClientEx client, boolean failed) {
+        if (client == null) {
+            return;
+        }
+        if (failed) {
+            mDiscardCount.incrementAndGet();
+            close(client);
+            return;
+        }
+        DrmManagerClientEx overflow = null;
+        synchronized (mIdle) {
+            for (IdleClient idle : mIdle) {
+                if (idle.client == client) {
+                    return;
+                }
+            }
+            mIdle.addFirst(new IdleClient(client, SystemClock.elapsedRealtime()));
+            if (mIdle.size() > MAX_IDLE_CLIENTS) {
+                overflow = mIdle.pollLast().client;
+            }
+        }
+        if (overflow != null) {
+            close(overflow);
+        }
+        mHandler.removeCallbacks(mEvictRunnable);
+        mHandler.postDelayed(mEvictRunnable, IDLE_TIMEOUT_MS);
+    }
+
+    private void evictIdleClients() {
+        final long now = SystemClock.elapsedRealtime();
+        ArrayDeque<DrmManagerClientEx> expired = new ArrayDeque<>();
+        boolean remaining;
+        synchronized (mIdle) {
+            Iterator<IdleClient> it = mIdle.iterator();
+            while (it.hasNext()) {
+                IdleClient idle = it.next();
+                if (now - idle.releaseTime >= IDLE_TIMEOUT_MS) {
+                    expired.add(idle.client);
+                    it.remove();
+                }
+            }
+            remaining = !mIdle.isEmpty();
+        }
+        for (DrmManagerClientEx client : expired) {
+            close(client);
+        }
+        if (remaining) {
+            mHandler.postDelayed(mEvictRunnable, IDLE_TIMEOUT_MS);
+        }
+    }
+
+    private void close(DrmManagerClientEx client) {
+        if (ModernMediaScannerAssist.LOCAL_LOG_ENABLE)
+            Log.d(TAG, "close drm mgr client: " + client);
+        mCloseCount.incrementAndGet();
+        client.close();
+    }
+
+    /**
+     * {@link DrmManagerClientEx#canHandle(String, String)} with timing.
+     */
+    public boolean canHandle(DrmManagerClientEx client, String path) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return client.canHandle(path, null);
+        } finally {
+            mCanHandleNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+            mCanHandleCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@link DrmManagerClientEx#getOriginalMimeType(String)} with timing.
+     */
+    public String getOriginalMimeType(DrmManagerClientEx client, String path) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return client.getOriginalMimeType(path);
+        } finally {
+            mMimeTypeNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+            mMimeTypeCount.incrementAndGet();
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        int idle;
+        synchronized (mIdle) {
+            idle = mIdle.size();
+        }
+        pw.println("DrmClientPool:");
+        pw.println("  idle=" + idle + " created=" + mCreateCount.get() + " reused=" + mReuseCount.get()
+                + " closed=" + mCloseCount.get() + " discarded=" + mDiscardCount.get()
+                + " createMs=" + mCreateNanos.get() / 1000000);
+        pw.println("  canHandle count=" + mCanHandleCount.get() + " totalMs=" + mCanHandleNanos.get() / 1000000);
+        pw.println("  getOriginalMimeType count=" + mMimeTypeCount.get()
+                + " totalMs=" + mMimeTypeNanos.get() / 1000000);
+    }
+}
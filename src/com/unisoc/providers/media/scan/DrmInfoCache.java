@@ -0,0 +1,278 @@
+package com.unisoc.providers.media.scan;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent cache of {@link ModernMediaScannerAssist#processDrmFile} results keyed by (path, size, mtime),
+ * so that unchanged DRM files don't go through the DRM service again on every rescan.
+ * Negative results (files the DRM service can't handle) are kept for {@link #NEGATIVE_TTL_MS} only,
+ * the service reports a file it can't reach the same way, and calls which failed are not cached at all.
+ * Entries of deleted files are swept at the end of a full volume scan, see {@link #sweepAndFlush(String)}.
+ */
+public class DrmInfoCache {
+    private static final String TAG = "DrmInfoCache";
+
+    private static final String FILE_NAME = "drm_info_cache";
+    private static final int MAGIC = 0x44524d43; // "DRMC"
+    private static final int VERSION = 2;
+
+    static final long NEGATIVE_TTL_MS = 60 * 60 * 1000;
+
+    private static DrmInfoCache sInstance;
+
+    /**
+     * Cached DRM information of one file.
+     */
+    public static final class Entry {
+        final long size;
+        final long mtime;
+        // null when the drm service can't handle the file
+        final String mimeType;
+        final int width;
+        final int height;
+        // wall clock of the service call
+        final long time;
+
+        Entry(long size, long mtime, String mimeType, int width, int height, long time) {
+            this.size = size;
+            this.mtime = mtime;
+            this.mimeType = mimeType;
+            this.width = width;
+            this.height = height;
+            this.time = time;
+        }
+
+        boolean isExpired(long now) {
+            return mimeType == null && (now - time > NEGATIVE_TTL_MS || now < time);
+        }
+
+        /**
+         * @return the same SparseArray processDrmFile returned when the entry was created, or null
+         */
+        public SparseArray toDrmInfo() {
+            if (mimeType == null) {
+                return null;
+            }
+            SparseArray drminfo = new SparseArray();
+            drminfo.append(ModernMediaScannerAssist.KEY_DRMINFO_MIMETYPE, mimeType);
+            if (width > 0 && height > 0) {
+                drminfo.append(ModernMediaScannerAssist.KEY_DRMINFO_WIDTH, String.valueOf(width));
+                drminfo.append(ModernMediaScannerAssist.KEY_DRMINFO_HEIGTH, String.valueOf(height));
+            }
+            return drminfo;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    // paths looked up or stored since the last sweep, no need to stat them again
+    private final HashSet<String> mTouched = new HashSet<>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    public static synchronized DrmInfoCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DrmInfoCache(new File(context.getCacheDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    DrmInfoCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Return the cached entry of file, or null when the file is unknown or changed since it was cached.
+     *
+     * @param file
+     * @return
+     */
+    public synchronized Entry lookup(File file) {
+        ensureLoaded();
+        final String path = file.getPath();
+        Entry entry = mEntries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.size != file.length() || entry.mtime != file.lastModified()
+                || entry.isExpired(System.currentTimeMillis())) {
+            mEntries.remove(path);
+            mDirty = true;
+            return null;
+        }
+        mTouched.add(path);
+        return entry;
+    }
+
+    /**
+     * Remember the processDrmFile result of file. Don't call it for a failed service call.
+     *
+     * @param file
+     * @param drminfo the result, null when the drm service can't handle the file
+     */
+    public synchronized void put(File file, SparseArray drminfo) {
+        ensureLoaded();
+        final String path = file.getPath();
+        mEntries.put(path, fromDrmInfo(file.length(), file.lastModified(), drminfo));
+        mTouched.add(path);
+        mDirty = true;
+    }
+
+    /**
+     * Build an entry from a processDrmFile result.
+     *
+     * @param size
+     * @param mtime
+     * @param drminfo null when the drm service can't handle the file
+     * @return
+     */
+    static Entry fromDrmInfo(long size, long mtime, SparseArray drminfo) {
+        String mimeType = null;
+        int width = 0;
+        int height = 0;
+        if (drminfo != null) {
+            mimeType = (String) drminfo.get(ModernMediaScannerAssist.KEY_DRMINFO_MIMETYPE);
+            width = parseInt((String) drminfo.get(ModernMediaScannerAssist.KEY_DRMINFO_WIDTH));
+            height = parseInt((String) drminfo.get(ModernMediaScannerAssist.KEY_DRMINFO_HEIGTH));
+        }
+        return new Entry(size, mtime, mimeType, width, height, System.currentTimeMillis());
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Drop the entries of files which disappeared, then write the cache back if anything changed.
+     * Every entry not looked up by the scan is checked, so only call it at the end of a full volume scan.
+     */
+    public void sweepAndFlush() {
+        sweepAndFlush(null);
+    }
+
+    /**
+     * Like {@link #sweepAndFlush()}, but only the entries below volumeRoot are swept,
+     * so that the end of a scan of one volume doesn't touch the entries of a volume still being scanned.
+     *
+     * @param volumeRoot such as /storage/1234-5678, null or "" sweeps every entry
+     */
+    public synchronized void sweepAndFlush(String volumeRoot) {
+        if (!mLoaded) {
+            return;
+        }
+        final boolean all = volumeRoot == null || volumeRoot.isEmpty();
+        Iterator<String> it = mEntries.keySet().iterator();
+        while (it.hasNext()) {
+            String path = it.next();
+            if (!all && !isBelow(path, volumeRoot)) {
+                continue;
+            }
+            if (!mTouched.contains(path) && !new File(path).exists()) {
+                it.remove();
+                mDirty = true;
+            }
+        }
+        if (all) {
+            mTouched.clear();
+        } else {
+            mTouched.removeIf(path -> isBelow(path, volumeRoot));
+        }
+        if (mDirty) {
+            write();
+        }
+    }
+
+    /**
+     * Write the cache back if anything changed, without sweeping.
+     * Called at scan checkpoints and at the end of scans of single files or directories.
+     */
+    public synchronized void flush() {
+        if (mLoaded && mDirty) {
+            write();
+        }
+    }
+
+    private static boolean isBelow(String path, String root) {
+        return path.startsWith(root) && path.length() > root.length() && path.charAt(root.length()) == '/';
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "ignore cache with unknown format");
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String mimeType = in.readBoolean() ? in.readUTF() : null;
+                int width = in.readInt();
+                int height = in.readInt();
+                long time = in.readLong();
+                mEntries.put(path, new Entry(size, mtime, mimeType, width, height, time));
+            }
+        } catch (FileNotFoundException e) {
+            // First run, nothing cached yet
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read cache, start empty", e);
+            mEntries.clear();
+        }
+    }
+
+    private void write() {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeBoolean(entry.mimeType != null);
+                if (entry.mimeType != null) {
+                    out.writeUTF(entry.mimeType);
+                }
+                out.writeInt(entry.width);
+                out.writeInt(entry.height);
+                out.writeLong(entry.time);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mDirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write cache", e);
+            mFile.failWrite(fos);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.unisoc.providers.media.scan;
+
+/**
+ * Reads image dimensions from the leading bytes of JPEG, PNG, GIF, WebP and BMP files,
+ * without decoding any pixel data.
+ * Bytes are pulled on demand through a {@link Reader} into one reused window of {@link #WINDOW_SIZE} bytes,
+ * and no more than {@link #MAX_PROBE_BYTES} bytes of a file are ever looked at.
+ * An instance keeps its window buffer between calls and is not thread safe.
+ */
+public class ImageHeaderProbe {
+
+    /**
+     * Positional read, such as a read from a DRM decrypt session.
+     */
+    public interface Reader {
+        /**
+         * @return the number of bytes read into buffer, 0 or less at end of data
+         */
+        int pread(byte[] buffer, int length, long offset);
+    }
+
+    static final int WINDOW_SIZE = 4096;
+    // JPEG APPn segments (EXIF, XMP, ICC) come before the SOF marker and are up to 64KB each
+    static final int MAX_PROBE_BYTES = 256 * 1024;
+    private static final int MAX_JPEG_SEGMENTS = 64;
+
+    private final byte[] mWindow = new byte[WINDOW_SIZE];
+    private Reader mReader;
+    private long mWindowOffset;
+    private int mWindowLength;
+
+    /**
+     * Probe the dimensions of the image read by reader.
+     *
+     * @param reader
+     * @param outSize receives width and height
+     * @return true when outSize was filled with a valid size
+     */
+    public boolean probe(Reader reader, int[] outSize) {
+        mReader = reader;
+        mWindowOffset = 0;
+        mWindowLength = 0;
+        try {
+            if (!fill(0, 12)) {
+                return false;
+            }
+            int width;
+            int height;
+            if (u8(0) == 0xFF && u8(1) == 0xD8) {
+                return probeJpeg(outSize);
+            } else if (u8(0) == 0x89 && u8(1) == 'P' && u8(2) == 'N' && u8(3) == 'G') {
+                if (!fill(0, 24) || !match(12, "IHDR")) return false;
+                width = be32(16);
+                height = be32(20);
+            } else if (match(0, "GIF8")) {
+                width = le16(6);
+                height = le16(8);
+            } else if (match(0, "RIFF") && match(8, "WEBP")) {
+                if (!fill(0, 30)) {
+                    return false;
+                } else if (match(12, "VP8 ")) {
+                    width = le16(26) & 0x3FFF;
+                    height = le16(28) & 0x3FFF;
+                } else if (match(12, "VP8L")) {
+                    if (u8(20) != 0x2F) return false;
+                    int bits = le16(21) | (le16(23) << 16);
+                    width = (bits & 0x3FFF) + 1;
+                    height = ((bits >>> 14) & 0x3FFF) + 1;
+                } else if (match(12, "VP8X")) {
+                    width = le24(24) + 1;
+                    height = le24(27) + 1;
+                } else {
+                    return false;
+                }
+            } else if (u8(0) == 'B' && u8(1) == 'M') {
+                if (!fill(0, 26)) return false;
+                width = le32(18);
+                height = Math.abs(le32(22));
+            } else {
+                return false;
+            }
+            return setSize(outSize, width, height);
+        } finally {
+            mReader = null;
+        }
+    }
+
+    private boolean probeJpeg(int[] outSize) {
+        long pos = 2;
+        for (int segment = 0; segment < MAX_JPEG_SEGMENTS; segment++) {
+            if (!fill(pos, 4)) return false;
+            if (u8At(pos) != 0xFF) return false;
+            int marker = u8At(pos + 1);
+            if (marker == 0xFF) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // standalone marker without length
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // end of image or start of scan before any frame header
+                return false;
+            }
+            int length = be16At(pos + 2);
+            if (length < 2) return false;
+            if (isStartOfFrame(marker)) {
+                if (!fill(pos + 4, 5)) return false;
+                return setSize(outSize, be16At(pos + 7), be16At(pos + 5));
+            }
+            pos += 2 + length;
+        }
+        return false;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static boolean setSize(int[] outSize, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        outSize[0] = width;
+        outSize[1] = height;
+        return true;
+    }
+
+    /**
+     * Make sure [offset, offset + length) is in the window.
+     */
+    private boolean fill(long offset, int length) {
+        if (offset + length > MAX_PROBE_BYTES) {
+            return false;
+        }
+        if (offset >= mWindowOffset && offset + length <= mWindowOffset + mWindowLength) {
+            return true;
+        }
+        mWindowOffset = offset;
+        mWindowLength = Math.max(0, mReader.pread(mWindow, WINDOW_SIZE, offset));
+        return mWindowLength >= length;
+    }
+
+    private int u8(int offset) {
+        return u8At(offset);
+    }
+
+    private int u8At(long offset) {
+        return mWindow[(int) (offset - mWindowOffset)] & 0xFF;
+    }
+
+    private int be16At(long offset) {
+        return (u8At(offset) << 8) | u8At(offset + 1);
+    }
+
+    private int be32(int offset) {
+        return (be16At(offset) << 16) | be16At(offset + 2);
+    }
+
+    private int le16(int offset) {
+        return u8(offset) | (u8(offset + 1) << 8);
+    }
+
+    private int le24(int offset) {
+        return le16(offset) | (u8(offset + 2) << 16);
+    }
+
+    private int le32(int offset) {
+        return le16(offset) | (le16(offset + 2) << 16);
+    }
+
+    private boolean match(int offset, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            if (u8(offset + i) != tag.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package com.unisoc.providers.media.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tells whether an ISO base media file (3gpp, mp4) has a video track, by walking only the
+ * ftyp/moov/trak/mdia/hdlr box headers with positional reads.
+ * No sample data is read, and the number of boxes visited is bounded.
+ */
+public class IsoBmffSniffer {
+
+    public static final int RESULT_UNKNOWN = 0;
+    public static final int RESULT_AUDIO_ONLY = 1;
+    public static final int RESULT_HAS_VIDEO = 2;
+
+    private static final int MAX_BOXES = 256;
+
+    private static final int TYPE_FTYP = fourCc("ftyp");
+    private static final int TYPE_MOOV = fourCc("moov");
+    private static final int TYPE_TRAK = fourCc("trak");
+    private static final int TYPE_MDIA = fourCc("mdia");
+    private static final int TYPE_HDLR = fourCc("hdlr");
+    private static final int HANDLER_VIDE = fourCc("vide");
+    private static final int HANDLER_SOUN = fourCc("soun");
+
+    private final ByteBuffer mHeader = ByteBuffer.allocate(16);
+    private FileChannel mChannel;
+    private int mBoxesLeft;
+    // Filled by readBoxHeader()
+    private int mBoxType;
+    private long mBoxSize;
+    private int mHeaderSize;
+
+    private static int fourCc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    /**
+     * @param file
+     * @return one of the RESULT_* values
+     */
+    public static int sniff(File file) {
+        return new IsoBmffSniffer().sniffFile(file);
+    }
+
+    int sniffFile(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mChannel = channel;
+            mBoxesLeft = MAX_BOXES;
+            final long fileSize = channel.size();
+            if (!readBoxHeader(0, fileSize) || mBoxType != TYPE_FTYP) {
+                return RESULT_UNKNOWN;
+            }
+            long pos = 0;
+            while (pos < fileSize && readBoxHeader(pos, fileSize)) {
+                if (mBoxType == TYPE_MOOV) {
+                    return sniffMovie(pos + mHeaderSize, pos + mBoxSize);
+                }
+                pos += mBoxSize;
+            }
+            return RESULT_UNKNOWN;
+        } catch (IOException | SecurityException e) {
+            return RESULT_UNKNOWN;
+        } finally {
+            mChannel = null;
+        }
+    }
+
+    private int sniffMovie(long start, long end) throws IOException {
+        boolean hasAudio = false;
+        long pos = start;
+        while (pos < end && readBoxHeader(pos, end)) {
+            final long boxEnd = pos + mBoxSize;
+            if (mBoxType == TYPE_TRAK) {
+                int handler = findHandler(pos + mHeaderSize, boxEnd);
+                if (handler == HANDLER_VIDE) {
+                    return RESULT_HAS_VIDEO;
+                } else if (handler == HANDLER_SOUN) {
+                    hasAudio = true;
+                }
+            }
+            pos = boxEnd;
+        }
+        return hasAudio ? RESULT_AUDIO_ONLY : RESULT_UNKNOWN;
+    }
+
+    /**
+     * Return the handler type of the track box spanning [start, end), or 0.
+     */
+    private int findHandler(long start, long end) throws IOException {
+        long pos = start;
+        while (pos < end && readBoxHeader(pos, end)) {
+            if (mBoxType == TYPE_MDIA) {
+                long mdiaEnd = pos + mBoxSize;
+                long child = pos + mHeaderSize;
+                while (child < mdiaEnd && readBoxHeader(child, mdiaEnd)) {
+                    if (mBoxType == TYPE_HDLR) {
+                        // version/flags(4), pre_defined(4), handler_type(4)
+                        if (mBoxSize < mHeaderSize + 12 || !read(child + mHeaderSize + 8, 4)) {
+                            return 0;
+                        }
+                        return mHeader.getInt(0);
+                    }
+                    child += mBoxSize;
+                }
+                return 0;
+            }
+            pos += mBoxSize;
+        }
+        return 0;
+    }
+
+    /**
+     * Read the box header at pos into mBoxType/mBoxSize/mHeaderSize.
+     * Returns false when the box is malformed, runs past end, or the box budget is used up.
+     */
+    private boolean readBoxHeader(long pos, long end) throws IOException {
+        if (--mBoxesLeft < 0 || end - pos < 8 || !read(pos, 8)) {
+            return false;
+        }
+        long size = mHeader.getInt(0) & 0xFFFFFFFFL;
+        mBoxType = mHeader.getInt(4);
+        mHeaderSize = 8;
+        if (size == 1) {
+            if (end - pos < 16 || !read(pos + 8, 8)) return false;
+            size = mHeader.getLong(0);
+            mHeaderSize = 16;
+        } else if (size == 0) {
+            size = end - pos;
+        }
+        if (size < mHeaderSize || size > end - pos) {
+            return false;
+        }
+        mBoxSize = size;
+        return true;
+    }
+
+    private boolean read(long pos, int length) throws IOException {
+        mHeader.clear();
+        mHeader.limit(length);
+        while (mHeader.hasRemaining()) {
+            if (mChannel.read(mHeader, pos + mHeader.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
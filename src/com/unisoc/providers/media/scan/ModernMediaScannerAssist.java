@@ -2,7 +2,10 @@ package com.unisoc.providers.media.scan;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.providers.media.scan.ModernMediaScanner;
+import com.unisoc.providers.media.AssistTrace;
+import com.unisoc.providers.media.FolderClassifier;
 import com.unisoc.providers.media.MediaFileAssist;
+import com.unisoc.providers.media.ScanThrottle;
 import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.drm.DecryptHandle;
@@ -11,21 +14,29 @@ import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactoryEx;
 import android.media.MediaFile;
 import android.os.SystemProperties;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.system.StructTimespec;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.File;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import android.util.SparseArray;
 import android.annotation.NonNull;
 
 /**
  * Assist Class of ModernMediaScanner {@link com.android.providers.media.scan.ModernMediaScanner}
  * Used to carry the functions developed by unisoc company.
+ * Scans of different volumes may run at the same time, see {@link VolumeScanScheduler},
+ * so the DRM state is kept per volume.
  */
 public class ModernMediaScannerAssist {
     private static final String TAG = "ModernMediaScanner";
-    public static final boolean LOCAL_LOG_ENABLE = true; //Log.isLoggable(TAG, Log.DEBUG)
+    public static final boolean LOCAL_LOG_ENABLE = Log.isLoggable(TAG, Log.DEBUG);
     public static final String DCF_UNKNOWN_CONTENT_TYPE = "application/unknown";
     private boolean mDrmEnabled;
 
@@ -34,8 +45,29 @@ public class ModernMediaScannerAssist {
         return prop != null && prop.equals("true");
     }
 
-    @VisibleForTesting
-    DrmManagerClientEx mDrmManagerClient = null;
+    /**
+     * DRM state of the scans of one volume. Scans of the same volume take turns on it,
+     * scans of other volumes use their own.
+     */
+    private static final class VolumeState {
+        final String root;
+        final ReentrantLock lock = new ReentrantLock();
+        // Guarded by lock
+        DrmManagerClientEx drmClient;
+        ImageHeaderProbe headerProbe;
+        final int[] probeSize = new int[2];
+        // The last service call threw, its result must not be cached
+        boolean serviceFailed;
+
+        VolumeState(String root) {
+            this.root = root;
+        }
+    }
+
+    // Keyed by volume root, "" for paths outside of any known volume
+    private final ConcurrentHashMap<String, VolumeState> mVolumeStates = new ConcurrentHashMap<>();
+    private volatile DrmInfoCache mDrmInfoCache;
+    private volatile ScanJournal mScanJournal;
 
 
     public static final int KEY_DRMINFO_MIMETYPE = 0;
@@ -53,43 +85,170 @@ public class ModernMediaScannerAssist {
      */
     public static void withOptionalValueForSpecialPictures(ContentProviderOperation.Builder op,
                                                            Optional<?> value) {
-        if (value.isPresent()) {
-            String cameraType = (String) value.get();
-            int cameraTypeValue = Integer.parseInt(cameraType);
-            switch (cameraTypeValue) {
-                case MediaFileAssist.IMG_TYPE_MODE_NORMAL:
-                case MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH:
-                case MediaFileAssist.IMG_TYPE_MODE_REAL_BOKEH_HAS_BOKEH:
-                case MediaFileAssist.IMG_TYPE_MODE_HDR_BOKEH_HAS_BOKEH:
-                case MediaFileAssist.IMG_TYPE_MODE_BLUR_NO_BOKEH:
-                case MediaFileAssist.IMG_TYPE_MODE_REAL_BOKEH_NO_BOKEH:
-                case MediaFileAssist.IMG_TYPE_MODE_HDR_BOKEH_NO_BOKEH:
-                case MediaFileAssist.IMG_TYPE_MODE_HDR:
-                case MediaFileAssist.IMG_TYPE_MODE_THUMBNAIL:
-                case MediaFileAssist.IMG_TYPE_MODE_AUDIO_CAPTURE:
-                case MediaFileAssist.IMG_TYPE_MODE_HDR_AUDIO_CAPTURE:
-                case MediaFileAssist.IMG_TYPE_MODE_AI_SCENE:
-                //Bug 1422617: add the file_flag for some special pictures, such as AI+HDR, and so on.
-                case MediaFileAssist.IMG_TYPE_MODE_AI_SCENE_HDR:
-                case MediaFileAssist.IMG_TYPE_MODE_AI_SCENE_FDR:
-                case MediaFileAssist.IMG_TYPE_MODE_FDR:
-                case MediaFileAssist.IMG_TYPE_MODE_MOTION_HDR_PHOTO:
-                case MediaFileAssist.IMG_TYPE_MODE_MOTION_FDR_PHOTO:
-                case MediaFileAssist.IMG_TYPE_MODE_MOTION_AI_PHOTO:
-                case MediaFileAssist.IMG_TYPE_MODE_MOTION_HDR_AI_PHOTO:
-                case MediaFileAssist.IMG_TYPE_MODE_MOTION_FDR_AI_PHOTO:
-                    if (LOCAL_LOG_ENABLE)
-                        Log.d(TAG, "withOptionalValueForSpecialPictures -> FILE_FLAG : " + cameraType);
-                    op.withValue(MediaFileAssist.Images.FILE_FLAG, cameraTypeValue);
-                    break;
-                case MediaFileAssist.IMG_TYPE_MODE_BURST:
-                case MediaFileAssist.IMG_TYPE_MODE_BURST_COVER:
-                    if (LOCAL_LOG_ENABLE)
-                        Log.d(TAG, "withOptionalValueForSpecialPictures -> FILE_FLAG : " + cameraType);
-                    op.withValue(MediaFileAssist.Images.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_NORMAL);
-                    break;
-            }
+        final int fileFlag = resolveFileFlag(value);
+        if (fileFlag != ScanJournal.NO_FILE_FLAG) {
+            op.withValue(MediaFileAssist.Images.FILE_FLAG, fileFlag);
+        }
+    }
+
+    /**
+     * Return the file_flag written for the camera type value of a special picture,
+     * to be recorded by {@link #recordJournal}.
+     *
+     * @param value
+     * @return {@link ScanJournal#NO_FILE_FLAG} when nothing is written
+     */
+    public static int resolveFileFlag(Optional<?> value) {
+        if (!value.isPresent()) {
+            return ScanJournal.NO_FILE_FLAG;
+        }
+        final long start = ScanPhaseProfiler.startTimer();
+        final int fileFlag = resolveCameraType(value.get());
+        ScanPhaseProfiler.getInstance().record(ScanPhaseProfiler.PHASE_CAMERA_TYPE, null, "image/*", start);
+        return fileFlag;
+    }
+
+    private static int resolveCameraType(Object cameraType) {
+        final int cameraTypeValue;
+        if (cameraType instanceof CharSequence) {
+            cameraTypeValue = MediaFileAssist.parseCameraType((CharSequence) cameraType);
+        } else if (cameraType instanceof byte[]) {
+            byte[] raw = (byte[]) cameraType;
+            cameraTypeValue = MediaFileAssist.parseCameraType(raw, 0, raw.length);
+        } else if (cameraType instanceof Integer) {
+            cameraTypeValue = (Integer) cameraType;
+        } else {
+            return ScanJournal.NO_FILE_FLAG;
+        }
+        final int policy = MediaFileAssist.getFlagPolicy(cameraTypeValue);
+        if ((policy & MediaFileAssist.FLAG_POLICY_KEEP) != 0) {
+            AssistTrace.record(AssistTrace.EVENT_SPECIAL_PICTURE_FLAG, cameraTypeValue, cameraTypeValue);
+            return cameraTypeValue;
+        } else if ((policy & MediaFileAssist.FLAG_POLICY_NORMALIZE) != 0) {
+            AssistTrace.record(AssistTrace.EVENT_SPECIAL_PICTURE_FLAG, cameraTypeValue,
+                    MediaFileAssist.IMG_TYPE_MODE_NORMAL);
+            //The update of an existing burst row goes through MediaProviderAssist#updateContentValuesForSpecialPictures,
+            //which tells the burst registry when the row is really demoted.
+            return MediaFileAssist.IMG_TYPE_MODE_NORMAL;
+        }
+        return ScanJournal.NO_FILE_FLAG;
+    }
+
+    /**
+     * Look up the journal at the start of the scan of a file, see {@link ScanJournal}.
+     * When an entry is returned the file didn't change since its last scan, the scanner takes the mime type
+     * and file_flag from the entry through {@link #maybeOverrideMimeType(String, File, ScanJournal.Entry)}
+     * and {@link #withJournalValueForSpecialPictures}, and skips the parsing it would do for them.
+     * The DRM information of an unchanged file comes from the {@link DrmInfoCache} in {@link #processDrmFile}.
+     * A new or changed file has to be read, it waits for {@link ScanThrottle} while the camera is capturing.
+     *
+     * @param context
+     * @param file
+     * @return null when the file is new or changed
+     */
+    public ScanJournal.Entry lookupJournal(Context context, File file) {
+        final long start = ScanPhaseProfiler.startTimer();
+        final StructStat stat = stat(file);
+        if (stat == null) {
+            return null;
+        }
+        ScanJournal.Entry entry = getScanJournal(context).lookup(file.getPath(), stat.st_size,
+                toNanos(stat.st_mtim), toNanos(stat.st_ctim), stat.st_ino);
+        ScanPhaseProfiler.getInstance().record(ScanPhaseProfiler.PHASE_STAT, file.getPath(), null, start);
+        if (entry != null) {
+            AssistTrace.record(AssistTrace.EVENT_JOURNAL_HIT, entry.fileFlag, entry.mimeType != null ? 1 : 0);
+        } else {
+            //The file is read from now on, leave the I/O to the camera while it is capturing.
+            acquireThrottle(ScanThrottle.COST_FILE, file.getPath());
+        }
+        return entry;
+    }
+
+    /**
+     * Wait for {@link ScanThrottle}, the wait is accounted apart from the work it delays.
+     */
+    private static void acquireThrottle(int cost, String path) {
+        final long start = ScanPhaseProfiler.startTimer();
+        ScanThrottle.getInstance().acquire(cost);
+        ScanPhaseProfiler.getInstance().record(ScanPhaseProfiler.PHASE_THROTTLE, path, null, start);
+    }
+
+    /**
+     * Size of the next batch of scanned files applied to the database, smaller while the camera is capturing,
+     * see {@link ScanThrottle}.
+     *
+     * @param maxSize the batch size of the scanner at full speed
+     * @return
+     */
+    public static int getScanBatchSize(int maxSize) {
+        return ScanThrottle.getInstance().getBatchSize(maxSize);
+    }
+
+    /**
+     * Account a batch of scanned files applied to the database in the {@link ScanPhaseProfiler}.
+     * Called by the scanner after every applyBatch.
+     *
+     * @param file any file of the batch, it stands for the volume
+     * @param startNanos {@link ScanPhaseProfiler#startTimer()} taken before applyBatch
+     */
+    public static void onBatchApplied(File file, long startNanos) {
+        ScanPhaseProfiler.getInstance().record(ScanPhaseProfiler.PHASE_APPLY,
+                file != null ? file.getPath() : null, null, startNanos);
+    }
+
+    /**
+     * Record the assist results of a file which went through the full scan.
+     *
+     * @param context
+     * @param file
+     * @param mimeType the result of maybeOverrideMimeType
+     * @param fileFlag the result of {@link #resolveFileFlag}
+     */
+    public void recordJournal(Context context, File file, String mimeType, int fileFlag) {
+        final StructStat stat = stat(file);
+        if (stat == null) {
+            return;
         }
+        getScanJournal(context).put(file.getPath(), new ScanJournal.Entry(stat.st_size, toNanos(stat.st_mtim),
+                toNanos(stat.st_ctim), stat.st_ino, fileFlag, mimeType));
+    }
+
+    private static long toNanos(StructTimespec time) {
+        return time.tv_sec * 1000000000L + time.tv_nsec;
+    }
+
+    /**
+     * Apply the file_flag recorded in the journal entry of an unchanged file.
+     *
+     * @param op
+     * @param entry
+     */
+    public static void withJournalValueForSpecialPictures(ContentProviderOperation.Builder op,
+                                                          ScanJournal.Entry entry) {
+        if (entry.fileFlag != ScanJournal.NO_FILE_FLAG) {
+            op.withValue(MediaFileAssist.Images.FILE_FLAG, entry.fileFlag);
+        }
+    }
+
+    private ScanJournal getScanJournal(Context context) {
+        ScanJournal journal = mScanJournal;
+        if (journal == null) {
+            journal = mScanJournal = ScanJournal.getInstance(context);
+        }
+        return journal;
+    }
+
+    private static StructStat stat(File file) {
+        try {
+            return Os.lstat(file.getPath());
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    private static boolean isDcfFile(String path) {
+        String extension = MediaFile.getFileExtension(path);
+        return !TextUtils.isEmpty(extension) && extension.toLowerCase().equals("dcf");
     }
 
     /**
@@ -101,60 +260,139 @@ public class ModernMediaScannerAssist {
     public SparseArray processDrmFile(Context context, File file) {
         //1.check drm trigger
         if (!mDrmEnabled) {
-            if (LOCAL_LOG_ENABLE) Log.d(TAG, "processDrmFile -> drm not enable");
+            AssistTrace.record(AssistTrace.EVENT_DRM_SKIP, AssistTrace.DRM_SKIP_DISABLED, 0);
             return null;
         }
 
         //2.check file path
         String path = file.getPath();
         if (TextUtils.isEmpty(path)) {
-            if (LOCAL_LOG_ENABLE) Log.d(TAG, "processDrmFile -> file path is not valid");
+            AssistTrace.record(AssistTrace.EVENT_DRM_SKIP, AssistTrace.DRM_SKIP_NO_PATH, 0);
             return null;
         }
 
         //3.check file mimetype
-        String extension = MediaFile.getFileExtension(path);
-        if (TextUtils.isEmpty(extension) || !extension.toLowerCase().equals("dcf")) {
+        if (!isDcfFile(path)) {
 //        String mimetype = MediaFile.getMimeTypeForFile(path);
 //        if (!MediaFile.isDrmMimeType(mimetype)) {
-            if (LOCAL_LOG_ENABLE) Log.d(TAG, "processDrmFile -> file is not drm type");
+            AssistTrace.record(AssistTrace.EVENT_DRM_SKIP, AssistTrace.DRM_SKIP_NOT_DRM, 0);
             return null;
         }
 
-        //4.ensure drm manager client has created.
+        //4.unchanged files reuse the result of the previous scan.
+        DrmInfoCache cache = mDrmInfoCache;
+        if (cache == null) {
+            cache = mDrmInfoCache = DrmInfoCache.getInstance(context);
+        }
+        DrmInfoCache.Entry cached = cache.lookup(file);
+        if (cached != null) {
+            AssistTrace.record(AssistTrace.EVENT_DRM_CACHE_HIT, cached.width, cached.height);
+            return cached.toDrmInfo();
+        }
+        //DRM decode is the most expensive work of a scan, it waits while the camera is capturing.
+        acquireThrottle(ScanThrottle.COST_DRM, path);
+        final long start = ScanPhaseProfiler.startTimer();
+        VolumeState state = getVolumeState(path);
+        SparseArray drminfo;
+        boolean failed;
+        state.lock.lock();
+        try {
+            state.serviceFailed = false;
+            try {
+                drminfo = processDrmFileFromService(context, state, path);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "processDrmFile failed: " + path, e);
+                drminfo = null;
+                state.serviceFailed = true;
+            }
+            failed = state.serviceFailed;
+            if (failed) {
+                //The client may have lost its service, the next file gets a new one.
+                releaseLocked(state, true);
+            }
+        } finally {
+            state.lock.unlock();
+            ScanPhaseProfiler.getInstance().record(ScanPhaseProfiler.PHASE_DRM, path, null, start);
+        }
+        if (!failed) {
+            cache.put(file, drminfo);
+        }
+        return drminfo;
+    }
+
+    private VolumeState getVolumeState(String path) {
+        final String root = getVolumeRoot(path);
+        VolumeState state = mVolumeStates.get(root);
+        if (state == null) {
+            state = mVolumeStates.computeIfAbsent(root, VolumeState::new);
+        }
+        return state;
+    }
+
+    /**
+     * Return the volume root of path, such as /storage/emulated/0 or /storage/1234-5678,
+     * or "" when path is not on a known volume.
+     */
+    static String getVolumeRoot(String path) {
+        final int end = FolderClassifier.getDefault().findVolumeRootEnd(path, path.length());
+        return end < 0 ? "" : path.substring(0, end);
+    }
+
+    /**
+     * @return the drm client currently held by the scans of the volume of file, may be null
+     */
+    @VisibleForTesting
+    DrmManagerClientEx getDrmManagerClient(File file) {
+        VolumeState state = mVolumeStates.get(getVolumeRoot(file.getPath()));
+        return state != null ? state.drmClient : null;
+    }
+
+    private SparseArray processDrmFileFromService(Context context, VolumeState state, String path) {
+        //5.ensure drm manager client has been taken from the pool.
         SparseArray drminfo = new SparseArray();
-        if (mDrmManagerClient == null) {
-            mDrmManagerClient = new DrmManagerClientEx(context);
-            if (LOCAL_LOG_ENABLE)
-                Log.d(TAG, "processDrmFile -> create drm mgr client: " + mDrmManagerClient);
+        DrmClientPool pool = DrmClientPool.getInstance();
+        if (state.drmClient == null) {
+            state.drmClient = pool.acquire(context);
+            AssistTrace.record(AssistTrace.EVENT_DRM_CLIENT_ACQUIRE, System.identityHashCode(state.drmClient), 0);
         }
+        final DrmManagerClientEx client = state.drmClient;
 
-        //5.fetch original mimetype from drm file.
+        //6.fetch original mimetype from drm file.
         String originalMimeType = null;
-        if (mDrmManagerClient.canHandle(path, null)) {
-            originalMimeType = mDrmManagerClient.getOriginalMimeType(path);
+        if (pool.canHandle(client, path)) {
+            originalMimeType = pool.getOriginalMimeType(client, path);
             if (LOCAL_LOG_ENABLE)
                 Log.d(TAG, "processDrmFile -> getOriginalMimeType:" + originalMimeType + " from:" + path);
         }
 
-        //6.collect original mimetype
+        //7.collect original mimetype
         if (originalMimeType != null) {
             drminfo.append(KEY_DRMINFO_MIMETYPE, originalMimeType);
         } else {
+            AssistTrace.record(AssistTrace.EVENT_DRM_SERVICE_RESULT, -1, -1);
             return null;
         }
 
-        //7.fetch width/height from drm image file and collect them.
+        //8.fetch width/height from drm image file and collect them.
         if (MediaFile.isImageMimeType(originalMimeType)) {
+            DecryptHandle handle = null;
             try {
-                DecryptHandle handle = mDrmManagerClient.openDecryptSession(path);
+                handle = client.openDecryptSession(path);
                 if (handle != null) {
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    BitmapFactoryEx.decodeDrmStream(mDrmManagerClient, handle, options);
-                    int width = options.outWidth;
-                    int heigth = options.outHeight;
-                    if (LOCAL_LOG_ENABLE)
-                        Log.d(TAG, "processDrmFile -> get Original width & height: " + width + " x " + heigth);
+                    int width;
+                    int heigth;
+                    //Only decrypt the image header when we can, fall back to a bounds-only decode otherwise.
+                    if (probeDrmImageSize(state, client, handle)) {
+                        width = state.probeSize[0];
+                        heigth = state.probeSize[1];
+                    } else {
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inJustDecodeBounds = true;
+                        BitmapFactoryEx.decodeDrmStream(client, handle, options);
+                        width = options.outWidth;
+                        heigth = options.outHeight;
+                    }
+                    AssistTrace.record(AssistTrace.EVENT_DRM_SERVICE_RESULT, width, heigth);
                     if (width > 0 && heigth > 0) {
                         drminfo.append(KEY_DRMINFO_WIDTH, String.valueOf(width));
                         drminfo.append(KEY_DRMINFO_HEIGTH, String.valueOf(heigth));
@@ -162,29 +400,138 @@ public class ModernMediaScannerAssist {
                 }
             } catch (Exception e) {
                 Log.e(TAG, "processDrmFile", e);
+                state.serviceFailed = true;
+            } finally {
+                if (handle != null) {
+                    client.closeDecryptSession(handle);
+                }
             }
         }
 
         return drminfo;
     }
 
+    private static boolean probeDrmImageSize(VolumeState state, DrmManagerClientEx client, DecryptHandle handle) {
+        if (state.headerProbe == null) {
+            state.headerProbe = new ImageHeaderProbe();
+        }
+        return state.headerProbe.probe((buffer, length, offset) -> {
+            byte[] data = client.pread(handle, length, (int) offset);
+            if (data == null) {
+                return -1;
+            }
+            int read = Math.min(data.length, length);
+            System.arraycopy(data, 0, buffer, 0, read);
+            return read;
+        }, state.probeSize);
+    }
+
     /**
      *  Release drm manager client resource.
      *  We need to consider the reuse of DrmManagerClient objects, so only at the end of the big task to do this:
      *  {@link com.android.providers.media.scan.ModernMediaScanner#scanDirectory(java.io.File)}
      *  {@link ModernMediaScanner#scanFile(java.io.File)}
+     *  The client goes back to {@link DrmClientPool}, which closes it once it stays idle.
+     *  Clients of volumes which are being scanned by another thread right now are left to that scan.
      */
     public void releaseDrmMgrClient(){
-        if(mDrmManagerClient != null){
-            if (LOCAL_LOG_ENABLE)
-                Log.d(TAG, "processDrmFile -> releaseDrmMgrClient: " + mDrmManagerClient);
-            mDrmManagerClient.close();
-            mDrmManagerClient = null;
+        for (VolumeState state : mVolumeStates.values()) {
+            if (state.lock.tryLock()) {
+                try {
+                    releaseLocked(state);
+                } finally {
+                    state.lock.unlock();
+                }
+            }
+        }
+        DrmInfoCache cache = mDrmInfoCache;
+        if (cache != null) {
+            cache.flush();
+        }
+    }
+
+    /**
+     * Release the drm manager client of the volume of root only, at the end of a scan of that volume
+     * while other volumes may still be scanned. The DrmInfoCache is only swept and the ScanJournal only flushed
+     * when root is the volume root, see {@link #onVolumeScanned}.
+     *
+     * @param root the directory or file the scan started from
+     */
+    public void releaseDrmMgrClient(File root) {
+        VolumeState state = mVolumeStates.get(getVolumeRoot(root.getPath()));
+        if (state != null) {
+            state.lock.lock();
+            try {
+                releaseLocked(state);
+            } finally {
+                state.lock.unlock();
+            }
+        }
+        final String volumeRoot = state != null ? state.root : getVolumeRoot(root.getPath());
+        final boolean volumeScan = !volumeRoot.isEmpty() && volumeRoot.equals(root.getPath());
+        DrmInfoCache cache = mDrmInfoCache;
+        if (cache != null) {
+            if (volumeScan) {
+                cache.sweepAndFlush(volumeRoot);
+            } else {
+                cache.flush();
+            }
+        }
+        ScanJournal journal = mScanJournal;
+        if (journal != null && volumeScan) {
+            journal.flush();
+        }
+    }
+
+    /**
+     * A full scan of the volume mounted at root finished, drop the DRM results of its deleted files
+     * and write the scan journal.
+     * Called by {@link VolumeScanScheduler}, whose scans go through the stages of a {@link PriorityScanQueue}
+     * and never scan the volume root as a whole.
+     *
+     * @param context
+     * @param root
+     */
+    public static void onVolumeScanned(Context context, File root) {
+        DrmInfoCache.getInstance(context).sweepAndFlush(root.getPath());
+        ScanJournal.getInstance(context).flush();
+    }
+
+    private static void releaseLocked(VolumeState state) {
+        releaseLocked(state, false);
+    }
+
+    private static void releaseLocked(VolumeState state, boolean failed) {
+        if (state.drmClient != null) {
+            AssistTrace.record(AssistTrace.EVENT_DRM_CLIENT_RELEASE, System.identityHashCode(state.drmClient), 0);
+            DrmClientPool.getInstance().release(state.drmClient, failed);
+            state.drmClient = null;
         }
     }
 
     /**
-     * If a 3gpp file is placed in a public audio folder such as Ringtones, we recognize it as audio by default.
+     * {@link #maybeOverrideMimeType(String, File)}, an unchanged file takes the mime type from its journal entry
+     * instead of sniffing the container again.
+     *
+     * @param mimeType
+     * @param file
+     * @param entry the result of {@link #lookupJournal}, may be null
+     * @return
+     */
+    public static @NonNull
+    String maybeOverrideMimeType(@NonNull String mimeType, @NonNull File file, ScanJournal.Entry entry) {
+        if (entry != null) {
+            return entry.mimeType != null ? entry.mimeType : mimeType;
+        }
+        return maybeOverrideMimeType(mimeType, file);
+    }
+
+    /**
+     * Audio-only 3gpp/mp4 files are recognized as audio by looking at their track handlers,
+     * see {@link IsoBmffSniffer}.
+     * If the container can't be parsed and a 3gpp file is placed in a public audio folder such as Ringtones,
+     * we recognize it as audio by default.
+     * The folder is resolved by {@link FolderClassifier}, so subfolders of Ringtones/Alarms/Notifications count too.
      *
      * @param mimeType
      * @param file
@@ -192,16 +539,47 @@ public class ModernMediaScannerAssist {
      */
     public static @NonNull
     String maybeOverrideMimeType(@NonNull String mimeType, @NonNull File file) {
-        //Non-3gpp files are not processed
-        if (!mimeType.equals("video/3gpp")) {
+        final long start = ScanPhaseProfiler.startTimer();
+        try {
+            return overrideMimeType(mimeType, file);
+        } finally {
+            ScanPhaseProfiler.getInstance().record(ScanPhaseProfiler.PHASE_MIME, file.getPath(), mimeType, start);
+        }
+    }
+
+    private static String overrideMimeType(String mimeType, File file) {
+        //Only video types which may carry audio alone are processed
+        final String audioMimeType = getAudioMimeTypeOfContainer(mimeType);
+        if (audioMimeType == null) {
             return mimeType;
         }
-        String filePath = file.getParent();
-        Log.d(TAG, "maybeOverrideMimeType -> file.getParent :" + filePath);
-        if (filePath.endsWith("Alarms") || filePath.endsWith("Notifications") || filePath.endsWith("Ringtones")) {
+        final int tracks = IsoBmffSniffer.sniff(file);
+        if (tracks == IsoBmffSniffer.RESULT_AUDIO_ONLY) {
+            AssistTrace.record(AssistTrace.EVENT_MIME_SNIFF, tracks, FolderClassifier.CATEGORY_NONE);
+            return audioMimeType;
+        } else if (tracks == IsoBmffSniffer.RESULT_HAS_VIDEO || !mimeType.equals("video/3gpp")) {
+            AssistTrace.record(AssistTrace.EVENT_MIME_SNIFF, tracks, FolderClassifier.CATEGORY_NONE);
+            return mimeType;
+        }
+        final int category = FolderClassifier.getDefault().classifyParent(file.getPath());
+        AssistTrace.record(AssistTrace.EVENT_MIME_SNIFF, tracks, category);
+        if (FolderClassifier.isSoundFolder(category)) {
             // TODO: 7/9/19  How do we judge that this scan task is from a specific scene, such as triggered after a ringtone copy?
             return "audio/3gpp";
         }
         return mimeType;
     }
+
+    private static String getAudioMimeTypeOfContainer(String mimeType) {
+        switch (mimeType) {
+            case "video/3gpp":
+                return "audio/3gpp";
+            case "video/3gpp2":
+                return "audio/3gpp2";
+            case "video/mp4":
+                return "audio/mp4";
+            default:
+                return null;
+        }
+    }
 }
\ No newline at end of file
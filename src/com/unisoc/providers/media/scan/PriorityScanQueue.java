@@ -0,0 +1,320 @@
+package com.unisoc.providers.media.scan;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.unisoc.providers.media.FolderClassifier;
+import com.unisoc.providers.media.MediaProviderAssist;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scans a volume in priority order instead of filesystem order, so that the gallery fills up
+ * with the pictures the user cares about while the rest of the volume is still being scanned.
+ * <ul>
+ * <li>{@link #TIER_CAMERA}: DCIM/Camera, Pictures and Download.</li>
+ * <li>{@link #TIER_DEFAULT_FOLDERS}: the other folders of {@link MediaProviderAssist#DEFAULT_FOLDER_NAME}.</li>
+ * <li>{@link #TIER_OTHER}: everything else.</li>
+ * </ul>
+ * Every stage is one scanner call on a directory, or on the loose files of a directory, which is committed
+ * when the call returns, with the assist hooks running inline as for any scan.
+ * A directory containing a folder of a higher tier is scanned child by child around it,
+ * so that nothing is scanned twice. Since no stage covers such a split directory as a whole, the rows of files
+ * deleted from it are left to one cleanup stage per split directory after the tiered stages.
+ * Progress of every tier is available while the scan runs, see {@link #getProgress(String)}.
+ * The plan is deterministic, with a {@link ScanCheckpoint} an interrupted scan resumes after its last
+ * checkpointed stage.
+ */
+public class PriorityScanQueue {
+    private static final String TAG = "PriorityScanQueue";
+
+    public static final int TIER_CAMERA = 0;
+    public static final int TIER_DEFAULT_FOLDERS = 1;
+    public static final int TIER_OTHER = 2;
+    static final int TIER_COUNT = 3;
+
+    private static final String NOMEDIA = ".nomedia";
+
+    /**
+     * Scans directories and files, {@link com.android.providers.media.scan.MediaScanner} in production.
+     */
+    public interface Scanner {
+        void scanFile(File file);
+
+        void scanDirectory(File dir);
+
+        /**
+         * Remove the rows of the files and folders directly in dir which no longer exist,
+         * without scanning dir.
+         */
+        void cleanDirectory(File dir);
+    }
+
+    /**
+     * Progress of one tier.
+     */
+    public static final class TierProgress {
+        public final int tier;
+        public final int stages;
+        public final int finishedStages;
+        public final long elapsedMs;
+
+        TierProgress(int tier, int stages, int finishedStages, long elapsedMs) {
+            this.tier = tier;
+            this.stages = stages;
+            this.finishedStages = finishedStages;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public boolean isFinished() {
+            return finishedStages == stages;
+        }
+    }
+
+    static final class Stage {
+        final int tier;
+        final File target;
+        // Scan the files directly in target instead of the whole tree
+        final List<File> files;
+        // Only remove the stale rows directly in target
+        final boolean clean;
+
+        Stage(int tier, File target, List<File> files) {
+            this(tier, target, files, false);
+        }
+
+        Stage(int tier, File target, List<File> files, boolean clean) {
+            this.tier = tier;
+            this.target = target;
+            this.files = files;
+            this.clean = clean;
+        }
+    }
+
+    // Volumes being scanned by root path
+    private static final ConcurrentHashMap<String, PriorityScanQueue> sActive = new ConcurrentHashMap<>();
+
+    private final File mRoot;
+    private final Scanner mScanner;
+    // may be null
+    private final ScanCheckpoint mCheckpoint;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final int[] mStages = new int[TIER_COUNT];
+    private final int[] mFinished = new int[TIER_COUNT];
+    private final long[] mTierFinishTime = new long[TIER_COUNT];
+    private long mStartTime;
+
+    public PriorityScanQueue(File root, Scanner scanner) {
+        this(root, scanner, null);
+    }
+
+    public PriorityScanQueue(File root, Scanner scanner, ScanCheckpoint checkpoint) {
+        mRoot = root;
+        mScanner = scanner;
+        mCheckpoint = checkpoint;
+    }
+
+    /**
+     * Return the tier of a public folder.
+     */
+    static int tierOf(int category) {
+        switch (category) {
+            case FolderClassifier.CATEGORY_CAMERA:
+            case FolderClassifier.CATEGORY_PICTURES:
+            case FolderClassifier.CATEGORY_DOWNLOADS:
+                return TIER_CAMERA;
+            default:
+                return TIER_DEFAULT_FOLDERS;
+        }
+    }
+
+    /**
+     * Plan the stages of the scan, highest tier first, then the cleanup of the split directories.
+     */
+    List<Stage> plan() {
+        final ArrayList<File> folders = new ArrayList<>();
+        final ArrayList<Integer> tiers = new ArrayList<>();
+        for (int tier = TIER_CAMERA; tier < TIER_OTHER; tier++) {
+            for (String name : MediaProviderAssist.DEFAULT_FOLDER_NAME) {
+                final File dir = new File(mRoot, name);
+                final int category = FolderClassifier.categoryOf(name);
+                // Thumbnails are hidden from the scanner, they go with the rest of DCIM
+                if (category == FolderClassifier.CATEGORY_DCIM_THUMBNAILS || tierOf(category) != tier
+                        || !dir.isDirectory() || isHiddenBelow(dir)) {
+                    continue;
+                }
+                folders.add(dir);
+                tiers.add(tier);
+            }
+        }
+        final ArrayList<Stage> stages = new ArrayList<>();
+        final ArrayList<File> split = new ArrayList<>();
+        for (int i = 0; i < folders.size(); i++) {
+            addStages(stages, tiers.get(i), folders.get(i), folders, split);
+        }
+        addStages(stages, TIER_OTHER, mRoot, folders, split);
+        for (File dir : split) {
+            stages.add(new Stage(TIER_OTHER, dir, null, true));
+        }
+        return stages;
+    }
+
+    /**
+     * A folder below a directory with .nomedia is left to the scan of that directory.
+     */
+    private boolean isHiddenBelow(File dir) {
+        for (File parent = dir.getParentFile(); parent != null && !parent.equals(mRoot);
+                parent = parent.getParentFile()) {
+            if (new File(parent, NOMEDIA).exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the stages which scan dir without the planned folders below it.
+     *
+     * @param split collects the directories which are scanned child by child
+     */
+    private static void addStages(List<Stage> stages, int tier, File dir, List<File> planned,
+                                  List<File> split) {
+        if (!containsPlanned(dir, planned) || new File(dir, NOMEDIA).exists()) {
+            stages.add(new Stage(tier, dir, null));
+            return;
+        }
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        split.add(dir);
+        // Same plan for the same tree, see ScanCheckpoint
+        Arrays.sort(children);
+        final ArrayList<File> files = new ArrayList<>();
+        for (File child : children) {
+            if (!child.isDirectory()) {
+                files.add(child);
+            } else if (!planned.contains(child)) {
+                addStages(stages, tier, child, planned, split);
+            }
+        }
+        if (!files.isEmpty()) {
+            stages.add(new Stage(tier, dir, files));
+        }
+    }
+
+    private static boolean containsPlanned(File dir, List<File> planned) {
+        final String prefix = dir.getPath() + "/";
+        for (File folder : planned) {
+            if (folder.getPath().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scan the volume, returns when every stage is done.
+     */
+    public void run() {
+        final String root = mRoot.getPath();
+        final long planStart = ScanPhaseProfiler.startTimer();
+        final List<Stage> stages = plan();
+        ScanPhaseProfiler.getInstance().record(ScanPhaseProfiler.PHASE_PLAN, root, null, planStart);
+        final int resumed = mCheckpoint != null ? mCheckpoint.resume(root, stages) : 0;
+        synchronized (mLock) {
+            mStartTime = SystemClock.elapsedRealtime();
+            for (int i = 0; i < stages.size(); i++) {
+                mStages[stages.get(i).tier]++;
+                if (i < resumed) {
+                    mFinished[stages.get(i).tier]++;
+                }
+            }
+        }
+        sActive.put(root, this);
+        try {
+            if (mCheckpoint != null) {
+                mCheckpoint.onScanStarted(root);
+            }
+            for (int i = resumed; i < stages.size(); i++) {
+                runStage(stages.get(i));
+                if (mCheckpoint != null) {
+                    mCheckpoint.onStageFinished(root, stages, i + 1);
+                }
+            }
+            if (mCheckpoint != null) {
+                mCheckpoint.onScanFinished(root);
+            }
+        } finally {
+            sActive.remove(root, this);
+        }
+    }
+
+    private void runStage(Stage stage) {
+        try {
+            if (stage.clean) {
+                mScanner.cleanDirectory(stage.target);
+            } else if (stage.files == null) {
+                mScanner.scanDirectory(stage.target);
+            } else {
+                for (File file : stage.files) {
+                    mScanner.scanFile(file);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "failed to scan " + stage.target, e);
+        }
+        synchronized (mLock) {
+            mFinished[stage.tier]++;
+            if (mFinished[stage.tier] == mStages[stage.tier]) {
+                mTierFinishTime[stage.tier] = SystemClock.elapsedRealtime();
+                if (ModernMediaScannerAssist.LOCAL_LOG_ENABLE)
+                    Log.d(TAG, "tier " + stage.tier + " of " + mRoot + " done in "
+                            + (mTierFinishTime[stage.tier] - mStartTime) + "ms");
+            }
+        }
+    }
+
+    /**
+     * @return progress of every tier of this scan
+     */
+    public TierProgress[] getProgress() {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            TierProgress[] progress = new TierProgress[TIER_COUNT];
+            for (int tier = 0; tier < TIER_COUNT; tier++) {
+                final boolean finished = mFinished[tier] == mStages[tier] && mTierFinishTime[tier] != 0;
+                progress[tier] = new TierProgress(tier, mStages[tier], mFinished[tier],
+                        (finished ? mTierFinishTime[tier] : now) - mStartTime);
+            }
+            return progress;
+        }
+    }
+
+    /**
+     * @param volumeRoot
+     * @return progress of the running scan of the volume, or null when the volume isn't being scanned
+     */
+    public static TierProgress[] getProgress(String volumeRoot) {
+        PriorityScanQueue queue = sActive.get(volumeRoot);
+        return queue != null ? queue.getProgress() : null;
+    }
+
+    public static void dumpActive(PrintWriter pw) {
+        for (PriorityScanQueue queue : sActive.values()) {
+            StringBuilder sb = new StringBuilder("PriorityScanQueue: ").append(queue.mRoot);
+            for (TierProgress progress : queue.getProgress()) {
+                sb.append(" tier").append(progress.tier).append('=').append(progress.finishedStages)
+                        .append('/').append(progress.stages).append(' ').append(progress.elapsedMs).append("ms");
+            }
+            pw.println(sb);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.unisoc.providers.media.scan;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cursor of the running volume scans, so that a scan killed midway (low memory, reboot)
+ * resumes after the last committed stage of its {@link PriorityScanQueue} instead of starting over.
+ * Before a cursor is written the {@link DrmInfoCache} is flushed, so the files of the stages before the cursor
+ * need no DRM work after a restart; it is loaded lazily on its first lookup. The {@link ScanJournal} is not,
+ * rewriting it is too expensive for every checkpoint and the skipped stages don't look it up anyway.
+ * The DRM client itself is a binder connection and is simply acquired again.
+ *
+ * A cursor is the number of finished stages with a hash of their targets, it is only used when the new plan
+ * starts with the same stages and the cursor is younger than {@link #MAX_AGE_MS}.
+ * Files changed in the skipped stages meanwhile are left to {@link com.unisoc.providers.media.FolderWatcher}
+ * and the next scan.
+ */
+public class ScanCheckpoint {
+    private static final String TAG = "ScanCheckpoint";
+
+    private static final String FILE_NAME = "scan_checkpoint";
+    private static final int MAGIC = 0x5343504b; // "SCPK"
+    private static final int VERSION = 1;
+
+    static final long CHECKPOINT_INTERVAL_MS = 10 * 1000;
+    static final long MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static ScanCheckpoint sInstance;
+
+    static final class Cursor {
+        final int finishedStages;
+        final long stagesHash;
+        // wall clock, the cursor has to survive a reboot
+        final long time;
+
+        Cursor(int finishedStages, long stagesHash, long time) {
+            this.finishedStages = finishedStages;
+            this.stagesHash = stagesHash;
+            this.time = time;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final long mInterval;
+    // Flushes the assist state the cursor relies on, may be null
+    private final Runnable mFlushState;
+
+    // Guarded by this
+    private final HashMap<String, Cursor> mCursors = new HashMap<>();
+    private final HashMap<String, Long> mLastWrite = new HashMap<>();
+    private boolean mLoaded;
+    private long mWrites;
+    private long mResumes;
+    private long mSkippedStages;
+
+    public static synchronized ScanCheckpoint getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ScanCheckpoint(new File(context.getCacheDir(), FILE_NAME), CHECKPOINT_INTERVAL_MS,
+                    () -> DrmInfoCache.getInstance(context).flush());
+        }
+        return sInstance;
+    }
+
+    ScanCheckpoint(File file, long interval, Runnable flushState) {
+        mFile = new AtomicFile(file);
+        mInterval = interval;
+        mFlushState = flushState;
+    }
+
+    /**
+     * Hash of the targets of the first count stages.
+     */
+    static long hashStages(List<PriorityScanQueue.Stage> stages, int count) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < count; i++) {
+            final PriorityScanQueue.Stage stage = stages.get(i);
+            hash = (hash ^ ScanJournal.hash(stage.target.getPath())) * 0x100000001b3L;
+            hash = (hash ^ (stage.clean ? 2 : stage.files == null ? 0 : 1)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Return the number of stages of the planned scan of root which were finished by an interrupted scan.
+     *
+     * @param root
+     * @param stages the new plan
+     * @return 0 when the scan has to start from the beginning
+     */
+    public synchronized int resume(String root, List<PriorityScanQueue.Stage> stages) {
+        ensureLoaded();
+        final Cursor cursor = mCursors.get(root);
+        if (cursor == null) {
+            return 0;
+        }
+        final long age = System.currentTimeMillis() - cursor.time;
+        if (cursor.finishedStages > stages.size() || age < 0 || age > MAX_AGE_MS
+                || hashStages(stages, cursor.finishedStages) != cursor.stagesHash) {
+            if (ModernMediaScannerAssist.LOCAL_LOG_ENABLE)
+                Log.d(TAG, "discard checkpoint of " + root);
+            return 0;
+        }
+        mResumes++;
+        mSkippedStages += cursor.finishedStages;
+        Log.i(TAG, "resume scan of " + root + " after " + cursor.finishedStages + "/" + stages.size() + " stages");
+        return cursor.finishedStages;
+    }
+
+    /**
+     * A stage of the scan of root was committed, write a checkpoint when the last one is older than the interval.
+     *
+     * @param root
+     * @param stages the plan of the scan
+     * @param finishedStages number of stages done, in plan order
+     */
+    public void onStageFinished(String root, List<PriorityScanQueue.Stage> stages, int finishedStages) {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            final Long last = mLastWrite.get(root);
+            if (last != null && now - last < mInterval) {
+                return;
+            }
+            mLastWrite.put(root, now);
+        }
+        //1.persist the state the checkpoint relies on first, a cursor must never run ahead of it
+        if (mFlushState != null) {
+            try {
+                mFlushState.run();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "failed to flush scan state", e);
+                return;
+            }
+        }
+        //2.then the cursor
+        final Cursor cursor = new Cursor(finishedStages, hashStages(stages, finishedStages), System.currentTimeMillis());
+        synchronized (this) {
+            ensureLoaded();
+            mCursors.put(root, cursor);
+            write();
+        }
+    }
+
+    /**
+     * The scan of root started, the first checkpoint is written after one interval.
+     *
+     * @param root
+     */
+    public synchronized void onScanStarted(String root) {
+        mLastWrite.put(root, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * The scan of root ran to the end, the next scan starts from the beginning.
+     *
+     * @param root
+     */
+    public synchronized void onScanFinished(String root) {
+        ensureLoaded();
+        mLastWrite.remove(root);
+        if (mCursors.remove(root) != null) {
+            write();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "ignore checkpoint with unknown format");
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String root = in.readUTF();
+                mCursors.put(root, new Cursor(in.readInt(), in.readLong(), in.readLong()));
+            }
+        } catch (FileNotFoundException e) {
+            // No scan was interrupted
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read checkpoint, start over", e);
+            mCursors.clear();
+        }
+    }
+
+    private void write() {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mCursors.size());
+            for (Map.Entry<String, Cursor> e : mCursors.entrySet()) {
+                Cursor cursor = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeInt(cursor.finishedStages);
+                out.writeLong(cursor.stagesHash);
+                out.writeLong(cursor.time);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mWrites++;
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write checkpoint", e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        StringBuilder sb = new StringBuilder("ScanCheckpoint: writes=").append(mWrites).append(" resumes=")
+                .append(mResumes).append(" skippedStages=").append(mSkippedStages);
+        for (Map.Entry<String, Cursor> e : mCursors.entrySet()) {
+            sb.append(' ').append(e.getKey()).append('@').append(e.getValue().finishedStages);
+        }
+        pw.println(sb);
+    }
+}
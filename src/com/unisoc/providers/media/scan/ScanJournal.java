@@ -0,0 +1,412 @@
+package com.unisoc.providers.media.scan;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent journal of the assist results of every scanned file: the mime type after
+ * {@link ModernMediaScannerAssist#maybeOverrideMimeType} and the file_flag.
+ * It is consulted at the start of the scan of each file, an unchanged file (same size, inode, and mtime and ctime
+ * in nanoseconds, so that a rewrite in place within the same second is seen as well) takes its results from the journal and skips the assist work, so a rescan of an unchanged library
+ * reads no file content for the assist. DRM results are kept by the {@link DrmInfoCache} only.
+ *
+ * The journal is a file of fixed size records sorted by a 64 bit hash of the path, followed by the table
+ * of the mime type strings. It is memory mapped and binary searched, only the pages of the looked up records
+ * are read. Records of the current scans are kept in memory and merged into a new file by {@link #flush()},
+ * at the end of a volume scan or once enough of them piled up, see {@link #put}. A merge rewrites the whole file,
+ * at most {@link #MAX_RECORDS} records of {@link #RECORD_SIZE} bytes (14 MB); a merge during a scan needs at least
+ * a quarter of the file in new records, so a scan writes at most five records of journal per scanned file.
+ * Every record carries the generation of the last flush which saw it used, past {@link #MAX_RECORDS}
+ * the least recently used records are dropped, the records of the current scans never.
+ */
+public class ScanJournal {
+    private static final String TAG = "ScanJournal";
+
+    private static final String FILE_NAME = "scan_journal";
+    private static final int MAGIC = 0x534a524e; // "SJRN"
+    private static final int VERSION = 3;
+
+    // magic, version, record count, generation
+    static final int HEADER_SIZE = 16;
+    // hash, size, mtime, ctime, inode, file flag, mime type, last used generation, reserved
+    static final int RECORD_SIZE = 56;
+    // Past this size the least recently used records are dropped
+    static final int MAX_RECORDS = 256 * 1024;
+    // put() flushes once this many records, and a quarter of the mapped records, are pending
+    // and the last flush is old enough, so that a long scan doesn't hold all its records in memory
+    static final int FLUSH_PENDING_RECORDS = 8 * 1024;
+    static final int FLUSH_MAPPED_RATIO = 4;
+    static final long MIN_FLUSH_INTERVAL_MS = 60 * 1000;
+
+    public static final int NO_FILE_FLAG = -1;
+
+    private static final int NO_STRING = -1;
+
+    private static ScanJournal sInstance;
+
+    /**
+     * Assist results of one file.
+     */
+    public static final class Entry {
+        final long size;
+        // nanoseconds
+        final long mtime;
+        final long ctime;
+        final long inode;
+        // NO_FILE_FLAG when nothing is written to file_flag
+        public final int fileFlag;
+        // the result of maybeOverrideMimeType, which the scanner uses in place of its own;
+        // null when the scanner didn't pass one to recordJournal
+        public final String mimeType;
+
+        public Entry(long size, long mtime, long ctime, long inode, int fileFlag, String mimeType) {
+            this.size = size;
+            this.mtime = mtime;
+            this.ctime = ctime;
+            this.inode = inode;
+            this.fileFlag = fileFlag;
+            this.mimeType = mimeType;
+        }
+
+        boolean matches(long size, long mtime, long ctime, long inode) {
+            return this.size == size && this.mtime == mtime && this.ctime == ctime && this.inode == inode;
+        }
+    }
+
+    private final AtomicFile mFile;
+    private final int mMaxRecords;
+    private boolean mLoaded;
+    private ByteBuffer mMap;
+    private int mMapCount;
+    private String[] mStrings = new String[0];
+    // Generation of the mapped file, the next flush writes generation + 1
+    private int mGeneration;
+    // Mapped records looked up since the file was mapped, they are marked used by the next flush
+    private BitSet mTouched = new BitSet();
+    // Records of the current scans by path hash, they replace mapped records with the same hash
+    private final TreeMap<Long, Entry> mPending = new TreeMap<>();
+    private long mLastFlush;
+    private long mHits;
+    private long mMisses;
+    private long mFlushes;
+    private long mPruned;
+
+    public static synchronized ScanJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ScanJournal(new File(context.getCacheDir(), FILE_NAME), MAX_RECORDS);
+        }
+        return sInstance;
+    }
+
+    ScanJournal(File file, int maxRecords) {
+        mFile = new AtomicFile(file);
+        mMaxRecords = maxRecords;
+    }
+
+    /**
+     * 64 bit FNV-1a of path. A collision only matters when size, times and inode match as well.
+     */
+    static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Return the entry of path, or null when the file is unknown or changed since the entry was recorded.
+     *
+     * @param path
+     * @param size
+     * @param mtime in nanoseconds
+     * @param ctime in nanoseconds
+     * @param inode
+     * @return
+     */
+    public synchronized Entry lookup(String path, long size, long mtime, long ctime, long inode) {
+        ensureLoaded();
+        final long hash = hash(path);
+        Entry entry = mPending.get(hash);
+        if (entry == null) {
+            final int index = findMapped(hash);
+            if (index >= 0) {
+                mTouched.set(index);
+                entry = readMapped(index);
+            }
+        }
+        if (entry == null || !entry.matches(size, mtime, ctime, inode)) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry;
+    }
+
+    /**
+     * Record the assist results of path after a full scan of the file.
+     * Flushes when {@link #FLUSH_PENDING_RECORDS} records and a quarter of the mapped records are pending,
+     * and the last flush is older than {@link #MIN_FLUSH_INTERVAL_MS}.
+     *
+     * @param path
+     * @param entry
+     */
+    public synchronized void put(String path, Entry entry) {
+        ensureLoaded();
+        mPending.put(hash(path), entry);
+        if (mPending.size() >= Math.max(FLUSH_PENDING_RECORDS, mMapCount / FLUSH_MAPPED_RATIO)
+                && SystemClock.elapsedRealtime() - mLastFlush >= MIN_FLUSH_INTERVAL_MS) {
+            flush();
+        }
+    }
+
+    private int findMapped(long hash) {
+        int low = 0;
+        int high = mMapCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midHash = mMap.getLong(HEADER_SIZE + mid * RECORD_SIZE);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Entry readMapped(int index) {
+        final int pos = HEADER_SIZE + index * RECORD_SIZE;
+        final long size = mMap.getLong(pos + 8);
+        final long mtime = mMap.getLong(pos + 16);
+        final long ctime = mMap.getLong(pos + 24);
+        final long inode = mMap.getLong(pos + 32);
+        final int fileFlag = mMap.getInt(pos + 40);
+        final String mimeType = string(mMap.getInt(pos + 44));
+        return new Entry(size, mtime, ctime, inode, fileFlag, mimeType);
+    }
+
+    private int lastUsed(int index) {
+        return mTouched.get(index) ? mGeneration + 1 : mMap.getInt(HEADER_SIZE + index * RECORD_SIZE + 48);
+    }
+
+    /**
+     * Mark the mapped records to drop so that the journal keeps at most mMaxRecords records,
+     * the least recently used first. Pending records are kept in any case.
+     *
+     * @return the records to drop, null when nothing is dropped
+     */
+    private BitSet selectPruned() {
+        //Mapped records replaced by pending ones go away in any case.
+        final BitSet replaced = new BitSet(mMapCount);
+        for (long hash : mPending.keySet()) {
+            final int index = findMapped(hash);
+            if (index >= 0) {
+                replaced.set(index);
+            }
+        }
+        final int kept = mMapCount - replaced.cardinality();
+        final int toDrop = Math.min(kept + mPending.size() - mMaxRecords, kept);
+        if (toDrop <= 0) {
+            return null;
+        }
+        final int[] used = new int[kept];
+        int n = 0;
+        for (int i = 0; i < mMapCount; i++) {
+            if (!replaced.get(i)) {
+                used[n++] = lastUsed(i);
+            }
+        }
+        Arrays.sort(used);
+        final int cutoff = used[toDrop - 1];
+        //Everything used before the cutoff generation goes, then as many of the cutoff generation as needed.
+        int atCutoff = toDrop;
+        for (int i = 0; i < toDrop && used[i] < cutoff; i++) {
+            atCutoff--;
+        }
+        final BitSet pruned = new BitSet(mMapCount);
+        for (int i = 0; i < mMapCount; i++) {
+            if (replaced.get(i)) {
+                continue;
+            }
+            final int lastUsed = lastUsed(i);
+            if (lastUsed < cutoff || (lastUsed == cutoff && atCutoff-- > 0)) {
+                pruned.set(i);
+            }
+        }
+        return pruned;
+    }
+
+    private String string(int index) {
+        return index >= 0 && index < mStrings.length ? mStrings[index] : null;
+    }
+
+    /**
+     * Merge the records of the current scans into the journal file, which is rewritten as a whole,
+     * see the class doc for its cost. Called at the end of a volume scan, not after single files or directories.
+     */
+    public synchronized void flush() {
+        if (!mLoaded || mPending.isEmpty()) {
+            return;
+        }
+        final BitSet pruned = selectPruned();
+        final int generation = mGeneration + 1;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        final HashMap<String, Integer> stringIds = new HashMap<>();
+        final ArrayList<String> strings = new ArrayList<>();
+        FileOutputStream fos = null;
+        try {
+            //AtomicFile writes a new file and renames it over the journal, the current mapping stays readable.
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.write(new byte[HEADER_SIZE]);
+            int count = 0;
+            int mapped = 0;
+            Iterator<Map.Entry<Long, Entry>> pending = mPending.entrySet().iterator();
+            Map.Entry<Long, Entry> next = pending.hasNext() ? pending.next() : null;
+            while (mapped < mMapCount || next != null) {
+                final long mappedHash = mapped < mMapCount
+                        ? mMap.getLong(HEADER_SIZE + mapped * RECORD_SIZE) : Long.MAX_VALUE;
+                if (next != null && (mapped >= mMapCount || next.getKey() <= mappedHash)) {
+                    if (mapped < mMapCount && next.getKey() == mappedHash) {
+                        // Replaced by the record of this scan
+                        mapped++;
+                    }
+                    writeRecord(out, next.getKey(), next.getValue(), generation, stringIds, strings);
+                    count++;
+                    next = pending.hasNext() ? pending.next() : null;
+                } else {
+                    if (pruned == null || !pruned.get(mapped)) {
+                        writeRecord(out, mappedHash, readMapped(mapped), lastUsed(mapped), stringIds, strings);
+                        count++;
+                    }
+                    mapped++;
+                }
+            }
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(generation).flip();
+            fos.getChannel().write(header, 0);
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write journal", e);
+            mFile.failWrite(fos);
+            return;
+        }
+        if (pruned != null) {
+            mPruned += pruned.cardinality();
+        }
+        mFlushes++;
+        mLastFlush = SystemClock.elapsedRealtime();
+        mPending.clear();
+        map();
+    }
+
+    private static void writeRecord(DataOutputStream out, long hash, Entry entry, int lastUsed,
+                                    HashMap<String, Integer> stringIds, ArrayList<String> strings)
+            throws IOException {
+        out.writeLong(hash);
+        out.writeLong(entry.size);
+        out.writeLong(entry.mtime);
+        out.writeLong(entry.ctime);
+        out.writeLong(entry.inode);
+        out.writeInt(entry.fileFlag);
+        out.writeInt(stringId(entry.mimeType, stringIds, strings));
+        out.writeInt(lastUsed);
+        out.writeInt(0);
+    }
+
+    private static int stringId(String s, HashMap<String, Integer> stringIds, ArrayList<String> strings) {
+        if (s == null) {
+            return NO_STRING;
+        }
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+        }
+        return id;
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        map();
+    }
+
+    private void map() {
+        mMap = null;
+        mMapCount = 0;
+        mGeneration = 0;
+        mStrings = new String[0];
+        mTouched = new BitSet();
+        try (FileInputStream in = mFile.openRead(); FileChannel channel = in.getChannel()) {
+            final long length = channel.size();
+            if (length < HEADER_SIZE) {
+                return;
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.BIG_ENDIAN);
+            final int count = map.getInt(8);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || count < 0
+                    || HEADER_SIZE + (long) count * RECORD_SIZE + 4 > length) {
+                Log.w(TAG, "ignore journal with unknown format");
+                return;
+            }
+            map.position(HEADER_SIZE + count * RECORD_SIZE);
+            String[] strings = new String[map.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[map.getShort() & 0xFFFF];
+                map.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            mMap = map;
+            mMapCount = count;
+            mGeneration = map.getInt(12);
+            mStrings = strings;
+        } catch (FileNotFoundException e) {
+            // First run, nothing recorded yet
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "failed to map journal, start empty", e);
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("ScanJournal: records=" + mMapCount + " pending=" + mPending.size()
+                + " generation=" + mGeneration + " hits=" + mHits + " misses=" + mMisses
+                + " flushes=" + mFlushes + " pruned=" + mPruned);
+    }
+}
@@ -0,0 +1,353 @@
+package com.unisoc.providers.media.scan;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Always-on timing of the scan phases the assist takes part in, to tell which one makes a slow scan slow
+ * before tuning any of them. Every phase is timed with {@link SystemClock#elapsedRealtimeNanos()} into
+ * log-linear histograms, one per (phase, volume) and one per (phase, mime family).
+ * A histogram splits every power of two microseconds into {@link #SUB_BUCKETS} linear buckets,
+ * so percentiles are within 25% from 1us up to about a minute.
+ * Histograms are created on first use and updated with atomics only, recording takes no lock and,
+ * once the volume has been seen, allocates nothing.
+ * Text goes to dumpsys through {@link #dump(PrintWriter)}, the raw buckets to a file through {@link #dumpToFile(File)}.
+ */
+public class ScanPhaseProfiler {
+    private static final String TAG = "ScanPhaseProfiler";
+
+    public static final String FILE_NAME = "scan_phase_profile.txt";
+
+    // Planning the stages of a volume scan, see PriorityScanQueue#plan
+    public static final int PHASE_PLAN = 0;
+    // lstat and journal lookup of a file
+    public static final int PHASE_STAT = 1;
+    // Parsing the camera type of a special picture
+    public static final int PHASE_CAMERA_TYPE = 2;
+    // Decoding a DRM file through the drm service in processDrmFile, the ScanThrottle wait before is not included
+    public static final int PHASE_DRM = 3;
+    public static final int PHASE_MIME = 4;
+    // Applying a batch of ContentProviderOperations, reported by the scanner
+    public static final int PHASE_APPLY = 5;
+    // Waiting for ScanThrottle while the camera is capturing
+    public static final int PHASE_THROTTLE = 6;
+    static final int PHASE_COUNT = 7;
+
+    private static final String[] PHASE_NAMES = {
+            "plan", "stat", "camera_type", "drm", "mime", "apply", "throttle",
+    };
+
+    static final int FAMILY_NONE = 0;
+    static final int FAMILY_IMAGE = 1;
+    static final int FAMILY_VIDEO = 2;
+    static final int FAMILY_AUDIO = 3;
+    static final int FAMILY_DRM = 4;
+    static final int FAMILY_OTHER = 5;
+    static final int FAMILY_COUNT = 6;
+
+    private static final String[] FAMILY_NAMES = {
+            "none", "image", "video", "audio", "drm", "other",
+    };
+
+    static final int MAX_VOLUMES = 8;
+    // Files without a known volume, and volumes past MAX_VOLUMES
+    private static final String OTHER_VOLUME = "other";
+
+    static final int SUB_BITS = 2;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // 2^MAX_EXPONENT microseconds, about 67s, the last bucket is open ended
+    private static final int MAX_EXPONENT = 26;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private static final ScanPhaseProfiler sInstance = new ScanPhaseProfiler();
+
+    /**
+     * One log-linear histogram with its count, sum and max.
+     */
+    static final class Histogram {
+        // count, total nanos, max nanos, then the buckets
+        private static final int COUNT = 0;
+        private static final int TOTAL = 1;
+        private static final int MAX = 2;
+        private static final int FIRST_BUCKET = 3;
+
+        final AtomicLongArray values = new AtomicLongArray(FIRST_BUCKET + BUCKETS);
+
+        void record(long nanos) {
+            values.incrementAndGet(COUNT);
+            values.addAndGet(TOTAL, nanos);
+            long max = values.get(MAX);
+            while (nanos > max && !values.compareAndSet(MAX, max, nanos)) {
+                max = values.get(MAX);
+            }
+            values.incrementAndGet(FIRST_BUCKET + bucketOf(nanos));
+        }
+
+        long count() {
+            return values.get(COUNT);
+        }
+
+        long totalNanos() {
+            return values.get(TOTAL);
+        }
+
+        long maxNanos() {
+            return values.get(MAX);
+        }
+
+        long bucket(int bucket) {
+            return values.get(FIRST_BUCKET + bucket);
+        }
+
+        /**
+         * Return the upper bound of the bucket holding the given percentile, in microseconds.
+         */
+        long percentileMicros(double percentile) {
+            final long target = (long) Math.ceil(count() * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += bucket(i);
+                if (seen >= target && seen > 0) {
+                    return bucketLowerMicros(i + 1);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private final AtomicReferenceArray<String> mVolumes = new AtomicReferenceArray<>(MAX_VOLUMES);
+    // [phase][volume slot], slot MAX_VOLUMES is OTHER_VOLUME
+    private final AtomicReferenceArray<Histogram> mByVolume =
+            new AtomicReferenceArray<>(PHASE_COUNT * (MAX_VOLUMES + 1));
+    // [phase][family]
+    private final AtomicReferenceArray<Histogram> mByFamily = new AtomicReferenceArray<>(PHASE_COUNT * FAMILY_COUNT);
+
+    public static ScanPhaseProfiler getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the start time of a phase, to be passed to {@link #record}
+     */
+    public static long startTimer() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Record a finished phase.
+     *
+     * @param phase one of the PHASE_* values
+     * @param path the file or directory the phase worked on, null when unknown
+     * @param mimeType mime type of the file, null when unknown yet
+     * @param startNanos the value returned by {@link #startTimer()}
+     */
+    public void record(int phase, String path, String mimeType, long startNanos) {
+        record(phase, path, familyOf(mimeType, path), SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    void record(int phase, String path, int family, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        histogram(mByVolume, phase * (MAX_VOLUMES + 1) + volumeSlot(path)).record(nanos);
+        histogram(mByFamily, phase * FAMILY_COUNT + family).record(nanos);
+    }
+
+    private static Histogram histogram(AtomicReferenceArray<Histogram> cells, int index) {
+        Histogram histogram = cells.get(index);
+        if (histogram == null) {
+            cells.compareAndSet(index, null, new Histogram());
+            histogram = cells.get(index);
+        }
+        return histogram;
+    }
+
+    static int bucketOf(long nanos) {
+        final long micros = nanos / 1000;
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Return the lowest value of a bucket in microseconds, bucket {@link #BUCKETS} is the end of the last one.
+     */
+    static long bucketLowerMicros(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        final int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    static int familyOf(String mimeType, String path) {
+        if (mimeType == null) {
+            // DRM files are known by their extension before their mime type
+            return path != null && path.endsWith(".dcf") ? FAMILY_DRM : FAMILY_NONE;
+        } else if (mimeType.startsWith("image/")) {
+            return FAMILY_IMAGE;
+        } else if (mimeType.startsWith("video/")) {
+            return FAMILY_VIDEO;
+        } else if (mimeType.startsWith("audio/")) {
+            return FAMILY_AUDIO;
+        } else if (mimeType.startsWith("application/vnd.oma.drm")) {
+            return FAMILY_DRM;
+        }
+        return FAMILY_OTHER;
+    }
+
+    private int volumeSlot(String path) {
+        if (path == null) {
+            return MAX_VOLUMES;
+        }
+        for (int i = 0; i < MAX_VOLUMES; i++) {
+            final String root = mVolumes.get(i);
+            if (root == null) {
+                break;
+            }
+            if (path.startsWith(root) && (path.length() == root.length() || path.charAt(root.length()) == '/')) {
+                return i;
+            }
+        }
+        //First file of a new volume
+        final String root = ModernMediaScannerAssist.getVolumeRoot(path);
+        if (root.isEmpty()) {
+            return MAX_VOLUMES;
+        }
+        for (int i = 0; i < MAX_VOLUMES; i++) {
+            if (mVolumes.compareAndSet(i, null, root) || root.equals(mVolumes.get(i))) {
+                return i;
+            }
+        }
+        return MAX_VOLUMES;
+    }
+
+    private String volumeName(int slot) {
+        return slot < MAX_VOLUMES ? mVolumes.get(slot) : OTHER_VOLUME;
+    }
+
+    /**
+     * Sum of the histograms of a phase.
+     */
+    Histogram total(int phase) {
+        final Histogram total = new Histogram();
+        for (int family = 0; family < FAMILY_COUNT; family++) {
+            final Histogram histogram = mByFamily.get(phase * FAMILY_COUNT + family);
+            if (histogram == null) {
+                continue;
+            }
+            for (int i = 0; i < total.values.length(); i++) {
+                if (i != Histogram.MAX) {
+                    total.values.addAndGet(i, histogram.values.get(i));
+                }
+            }
+            total.values.set(Histogram.MAX, Math.max(total.maxNanos(), histogram.maxNanos()));
+        }
+        return total;
+    }
+
+    Histogram get(int phase, String volume, int family) {
+        if (volume != null) {
+            for (int slot = 0; slot <= MAX_VOLUMES; slot++) {
+                if (volume.equals(volumeName(slot))) {
+                    return mByVolume.get(phase * (MAX_VOLUMES + 1) + slot);
+                }
+            }
+            return null;
+        }
+        return mByFamily.get(phase * FAMILY_COUNT + family);
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("ScanPhaseProfiler:");
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            final Histogram total = total(phase);
+            if (total.count() == 0) {
+                continue;
+            }
+            pw.println("  " + PHASE_NAMES[phase] + ": " + format(total));
+            for (int slot = 0; slot <= MAX_VOLUMES; slot++) {
+                final Histogram histogram = mByVolume.get(phase * (MAX_VOLUMES + 1) + slot);
+                if (histogram != null) {
+                    pw.println("    volume " + volumeName(slot) + ": " + format(histogram));
+                }
+            }
+            for (int family = 0; family < FAMILY_COUNT; family++) {
+                final Histogram histogram = mByFamily.get(phase * FAMILY_COUNT + family);
+                if (histogram != null) {
+                    pw.println("    mime " + FAMILY_NAMES[family] + ": " + format(histogram));
+                }
+            }
+        }
+    }
+
+    private static String format(Histogram histogram) {
+        final long count = histogram.count();
+        return "count=" + count + " totalMs=" + histogram.totalNanos() / 1000000
+                + " avgUs=" + (count == 0 ? 0 : histogram.totalNanos() / count / 1000)
+                + " p50Us<=" + histogram.percentileMicros(0.5) + " p90Us<=" + histogram.percentileMicros(0.9)
+                + " p99Us<=" + histogram.percentileMicros(0.99) + " maxUs=" + histogram.maxNanos() / 1000;
+    }
+
+    /**
+     * Write the raw histograms to file, one tab separated line per histogram:
+     * phase, "volume" or "mime", volume root or mime family, count, total ns, max ns,
+     * then the non empty buckets as lowest microseconds:count separated by commas.
+     *
+     * @param file
+     * @return true on success
+     */
+    public boolean dumpToFile(File file) {
+        try (PrintWriter pw = new PrintWriter(new FileOutputStream(file))) {
+            pw.println("# scan_phase_profile v1 sub_buckets=" + SUB_BUCKETS);
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                for (int slot = 0; slot <= MAX_VOLUMES; slot++) {
+                    writeLine(pw, phase, "volume", volumeName(slot), mByVolume.get(phase * (MAX_VOLUMES + 1) + slot));
+                }
+                for (int family = 0; family < FAMILY_COUNT; family++) {
+                    writeLine(pw, phase, "mime", FAMILY_NAMES[family], mByFamily.get(phase * FAMILY_COUNT + family));
+                }
+            }
+            return !pw.checkError();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + file, e);
+            return false;
+        }
+    }
+
+    private static void writeLine(PrintWriter pw, int phase, String by, String key, Histogram histogram) {
+        if (histogram == null) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(PHASE_NAMES[phase]).append('\t').append(by).append('\t').append(key)
+                .append('\t').append(histogram.count()).append('\t').append(histogram.totalNanos())
+                .append('\t').append(histogram.maxNanos()).append('\t');
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            final long count = histogram.bucket(i);
+            if (count == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(bucketLowerMicros(i)).append(':').append(count);
+            first = false;
+        }
+        pw.println(sb);
+    }
+}
@@ -0,0 +1,326 @@
+package com.unisoc.providers.media.scan;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.android.providers.media.scan.MediaScanner;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs volume scans in parallel, one queue per storage device.
+ * Volumes on the internal flash (external_primary, secondary users, internal) share one device,
+ * every SD card and USB OTG stick is a device of its own, so mounting an SD card with many photos
+ * no longer holds back a rescan of the internal storage.
+ * Each device runs at most its concurrency limit of scans at a time, removable devices one,
+ * since parallel scans of the same card only make its random reads slower.
+ * A volume already waiting is not queued twice; a volume scheduled while it is being scanned
+ * is scanned once more afterwards, so that changes made during the scan aren't missed.
+ */
+public class VolumeScanScheduler {
+    private static final String TAG = "VolumeScanScheduler";
+
+    /**
+     * Scans one volume, a {@link PriorityScanQueue} over {@link MediaScanner} in production.
+     */
+    public interface VolumeScanner {
+        void scanVolume(File root);
+    }
+
+    static final String DEVICE_INTERNAL = "internal";
+    static final int INTERNAL_CONCURRENCY = 2;
+    static final int REMOVABLE_CONCURRENCY = 1;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static VolumeScanScheduler sInstance;
+
+    private static final class Request {
+        final File root;
+        final Runnable onFinished;
+
+        Request(File root, Runnable onFinished) {
+            this.root = root;
+            this.onFinished = onFinished;
+        }
+    }
+
+    private static final class Device {
+        final String name;
+        final int limit;
+        final ArrayDeque<Request> queue = new ArrayDeque<>();
+        int running;
+        long scans;
+        long scanMillis;
+
+        Device(String name, int limit) {
+            this.name = name;
+            this.limit = limit;
+        }
+    }
+
+    private final Executor mExecutor;
+    private final VolumeScanner mScanner;
+    private final int mInternalConcurrency;
+    private final int mRemovableConcurrency;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final HashMap<String, Device> mDevices = new HashMap<>();
+    private final HashSet<String> mQueued = new HashSet<>();
+    private final HashSet<String> mRunning = new HashSet<>();
+    // Roots scheduled again while being scanned, with the callbacks to run after the rescan
+    private final HashMap<String, Request> mRescan = new HashMap<>();
+
+    public static synchronized VolumeScanScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            final MediaScanner scanner = MediaScanner.instance(context);
+            final AtomicInteger threadCount = new AtomicInteger();
+            // Threads are bounded by the device limits, not by the pool
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    r -> new Thread(r, TAG + "-" + threadCount.incrementAndGet()));
+            final PriorityScanQueue.Scanner target = new PriorityScanQueue.Scanner() {
+                @Override
+                public void scanFile(File file) {
+                    scanner.scanFile(file);
+                }
+
+                @Override
+                public void scanDirectory(File dir) {
+                    scanner.scanDirectory(dir);
+                }
+
+                @Override
+                public void cleanDirectory(File dir) {
+                    VolumeScanScheduler.cleanDirectory(context, scanner, dir);
+                }
+            };
+            final ScanCheckpoint checkpoint = ScanCheckpoint.getInstance(context);
+            sInstance = new VolumeScanScheduler(executor, root -> {
+                new PriorityScanQueue(root, target, checkpoint).run();
+                ModernMediaScannerAssist.onVolumeScanned(context, root);
+            }, INTERNAL_CONCURRENCY, REMOVABLE_CONCURRENCY);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Remove the rows of the files and folders directly in dir which no longer exist. A single file scan
+     * of a deleted path removes its row, and the rows below it for a folder.
+     * Only the rows of the volume of dir are queried.
+     */
+    private static void cleanDirectory(Context context, MediaScanner scanner, File dir) {
+        final String prefix = escapeForLike(dir.getPath() + "/");
+        final ArrayList<File> stale = new ArrayList<>();
+        try (Cursor cursor = context.getContentResolver().query(
+                MediaStore.Files.getContentUri(getVolumeName(dir.getPath())),
+                new String[] { MediaStore.Files.FileColumns.DATA },
+                MediaStore.Files.FileColumns.DATA + " LIKE ? ESCAPE '\\' AND "
+                        + MediaStore.Files.FileColumns.DATA + " NOT LIKE ? ESCAPE '\\'",
+                new String[] { prefix + "%", prefix + "%/%" }, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                final String path = cursor.getString(0);
+                if (path != null && !new File(path).exists()) {
+                    stale.add(new File(path));
+                }
+            }
+        }
+        for (File file : stale) {
+            scanner.scanFile(file);
+        }
+        if (ModernMediaScannerAssist.LOCAL_LOG_ENABLE && !stale.isEmpty())
+            Log.d(TAG, "removed " + stale.size() + " stale rows in " + dir);
+    }
+
+    /**
+     * Return the MediaStore volume holding path: {@link MediaStore#VOLUME_EXTERNAL_PRIMARY} for the internal
+     * flash, the lower case volume id for SD cards and USB sticks, and {@link MediaStore#VOLUME_EXTERNAL}
+     * for every external volume when path is not on a known one.
+     */
+    static String getVolumeName(String path) {
+        final String volumeRoot = ModernMediaScannerAssist.getVolumeRoot(path);
+        if (volumeRoot.isEmpty()) {
+            return MediaStore.VOLUME_EXTERNAL;
+        }
+        final String device = getDeviceName(volumeRoot);
+        if (DEVICE_INTERNAL.equals(device)) {
+            return MediaStore.VOLUME_EXTERNAL_PRIMARY;
+        }
+        return device.substring(device.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static String escapeForLike(String arg) {
+        final StringBuilder sb = new StringBuilder(arg.length());
+        for (int i = 0; i < arg.length(); i++) {
+            final char c = arg.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    VolumeScanScheduler(Executor executor, VolumeScanner scanner, int internalConcurrency,
+                        int removableConcurrency) {
+        mExecutor = executor;
+        mScanner = scanner;
+        mInternalConcurrency = internalConcurrency;
+        mRemovableConcurrency = removableConcurrency;
+    }
+
+    /**
+     * Schedule a scan of the volume mounted at root.
+     *
+     * @param root
+     * @param onFinished run on the scan thread once root was scanned, may be null
+     * @return false when root was already waiting to be scanned and the request was merged into it
+     */
+    public boolean schedule(File root, Runnable onFinished) {
+        final String path = root.getPath();
+        final Request request = new Request(root, onFinished);
+        Device device;
+        synchronized (mLock) {
+            if (mRunning.contains(path)) {
+                Request pending = mRescan.get(path);
+                mRescan.put(path, pending == null ? request : merge(pending, request));
+                return pending == null;
+            }
+            device = getDeviceLocked(path);
+            if (!mQueued.add(path)) {
+                for (Request queued : device.queue) {
+                    if (queued.root.getPath().equals(path)) {
+                        device.queue.remove(queued);
+                        device.queue.add(merge(queued, request));
+                        break;
+                    }
+                }
+                return false;
+            }
+            device.queue.add(request);
+        }
+        dispatch(device);
+        return true;
+    }
+
+    private static Request merge(Request a, Request b) {
+        if (a.onFinished == null) return b;
+        if (b.onFinished == null) return a;
+        return new Request(a.root, () -> {
+            a.onFinished.run();
+            b.onFinished.run();
+        });
+    }
+
+    private Device getDeviceLocked(String root) {
+        final String name = getDeviceName(root);
+        Device device = mDevices.get(name);
+        if (device == null) {
+            device = new Device(name, DEVICE_INTERNAL.equals(name) ? mInternalConcurrency : mRemovableConcurrency);
+            mDevices.put(name, device);
+        }
+        return device;
+    }
+
+    /**
+     * Return the storage device a volume root lives on: {@link #DEVICE_INTERNAL} for the volumes backed by
+     * the internal flash, the volume root itself for SD cards and USB sticks.
+     */
+    static String getDeviceName(String root) {
+        final String volumeRoot = ModernMediaScannerAssist.getVolumeRoot(root);
+        if (volumeRoot.isEmpty() || volumeRoot.startsWith("/storage/emulated/")
+                || volumeRoot.startsWith("/data/media/") || volumeRoot.equals("/storage/self/primary")
+                || volumeRoot.equals("/sdcard")) {
+            return DEVICE_INTERNAL;
+        }
+        if (volumeRoot.startsWith("/mnt/media_rw/")) {
+            // Same card as /storage/<uuid>
+            return "/storage/" + volumeRoot.substring("/mnt/media_rw/".length());
+        }
+        return volumeRoot;
+    }
+
+    private void dispatch(Device device) {
+        while (true) {
+            final Request request;
+            synchronized (mLock) {
+                if (device.running >= device.limit || device.queue.isEmpty()) {
+                    return;
+                }
+                request = device.queue.poll();
+                final String path = request.root.getPath();
+                mQueued.remove(path);
+                mRunning.add(path);
+                device.running++;
+            }
+            mExecutor.execute(() -> run(device, request));
+        }
+    }
+
+    private void run(Device device, Request request) {
+        final String path = request.root.getPath();
+        final long start = SystemClock.elapsedRealtime();
+        try {
+            if (ModernMediaScannerAssist.LOCAL_LOG_ENABLE)
+                Log.d(TAG, "scan " + path + " on " + device.name);
+            mScanner.scanVolume(request.root);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "failed to scan " + path, e);
+        } finally {
+            Request rescan;
+            synchronized (mLock) {
+                device.running--;
+                device.scans++;
+                device.scanMillis += SystemClock.elapsedRealtime() - start;
+                mRunning.remove(path);
+                rescan = mRescan.remove(path);
+                if (rescan != null) {
+                    mQueued.add(path);
+                    device.queue.add(rescan);
+                }
+            }
+            if (request.onFinished != null) {
+                request.onFinished.run();
+            }
+            dispatch(device);
+        }
+    }
+
+    /**
+     * @return true when no scan is running or waiting
+     */
+    public boolean isIdle() {
+        synchronized (mLock) {
+            return mRunning.isEmpty() && mQueued.isEmpty();
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("VolumeScanScheduler: running=" + mRunning + " queued=" + mQueued
+                    + " rescan=" + mRescan.keySet());
+            for (Map.Entry<String, Device> e : mDevices.entrySet()) {
+                Device device = e.getValue();
+                pw.println("  " + device.name + ": limit=" + device.limit + " running=" + device.running
+                        + " waiting=" + device.queue.size() + " scans=" + device.scans
+                        + " totalMs=" + device.scanMillis);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.AssistTrace}
+ */
+@RunWith(AndroidJUnit4.class)
+public class AssistTraceTest {
+
+    private static final int EVENT_LONGS = 4;
+
+    @Test
+    public void testRecordAndWrap() throws Exception {
+        AssistTrace trace = new AssistTrace();
+        long[] events = new long[AssistTrace.CAPACITY * EVENT_LONGS];
+        assertEquals(0, trace.snapshot(events));
+
+        trace.write(AssistTrace.EVENT_BURST_PICK, 42, MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
+        assertEquals(1, trace.snapshot(events));
+        assertEquals(AssistTrace.EVENT_BURST_PICK, (int) (events[1] >>> 32));
+        assertEquals(42, events[2]);
+        assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST_COVER, events[3]);
+
+        // Overwrite the ring, only the newest CAPACITY events stay, oldest first
+        for (int i = 0; i < AssistTrace.CAPACITY + 10; i++) {
+            trace.write(AssistTrace.EVENT_DRM_CACHE_HIT, i, 0);
+        }
+        assertEquals(AssistTrace.CAPACITY, trace.snapshot(events));
+        assertEquals(10, events[2]);
+        assertEquals(AssistTrace.CAPACITY + 9, events[(AssistTrace.CAPACITY - 1) * EVENT_LONGS + 2]);
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final AssistTrace trace = new AssistTrace();
+        final int perThread = AssistTrace.CAPACITY;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    trace.write(AssistTrace.EVENT_MIME_SNIFF, id, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] events = new long[AssistTrace.CAPACITY * EVENT_LONGS];
+        assertEquals(AssistTrace.CAPACITY, trace.snapshot(events));
+        for (int i = 0; i < AssistTrace.CAPACITY; i++) {
+            int pos = i * EVENT_LONGS;
+            assertEquals(AssistTrace.EVENT_MIME_SNIFF, (int) (events[pos + 1] >>> 32));
+            assertTrue(events[pos + 2] >= 0 && events[pos + 2] < threads.length);
+            assertTrue(events[pos + 3] >= 0 && events[pos + 3] < perThread);
+        }
+    }
+
+    @Test
+    public void testDump() throws Exception {
+        AssistTrace trace = new AssistTrace();
+        trace.write(AssistTrace.EVENT_PROVIDER_CALL, trace.tagId("update"), 1234);
+        trace.write(AssistTrace.EVENT_DRM_SKIP, AssistTrace.DRM_SKIP_NOT_DRM, 0);
+        assertEquals(trace.tagId("update"), trace.tagId("update"));
+
+        StringWriter out = new StringWriter();
+        trace.dump(new PrintWriter(out));
+        String text = out.toString();
+        assertTrue(text, text.contains("provider_call update 1234"));
+        assertTrue(text, text.contains("drm_skip " + AssistTrace.DRM_SKIP_NOT_DRM + " 0"));
+
+        File file = File.createTempFile("assist_trace", ".txt");
+        try {
+            assertTrue(trace.dumpToFile(file));
+            String written = new String(Files.readAllBytes(file.toPath()));
+            assertTrue(written, written.contains("provider_call update 1234"));
+        } finally {
+            file.delete();
+        }
+    }
+}
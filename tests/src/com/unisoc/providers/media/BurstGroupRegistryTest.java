@@ -0,0 +1,178 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.BurstGroupRegistry}
+ */
+@RunWith(AndroidJUnit4.class)
+public class BurstGroupRegistryTest {
+    private static final long DATETAKEN = 1562227200000L;
+
+    private SQLiteDatabase mDb;
+    private BurstGroupRegistry mRegistry;
+    private final int[] mFlag = new int[1];
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE files (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT,"
+                + " datetaken INTEGER, file_flag INTEGER DEFAULT 0)");
+        mRegistry = new BurstGroupRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    /**
+     * Insert a burst group of count rows, the first one is the cover.
+     */
+    private void insertGroup(int count) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < count; i++) {
+            values.put(MediaFileAssist.Images.DATE_TAKEN, DATETAKEN);
+            values.put(MediaFileAssist.Files.FILE_FLAG, i == 0
+                    ? MediaFileAssist.IMG_TYPE_MODE_BURST_COVER : MediaFileAssist.IMG_TYPE_MODE_BURST);
+            mDb.insert("files", null, values);
+        }
+    }
+
+    private int getFileFlag(long id) {
+        try (Cursor c = mDb.rawQuery("SELECT file_flag FROM files WHERE _id = " + id, null)) {
+            assertTrue(c.moveToFirst());
+            return c.getInt(0);
+        }
+    }
+
+    @Test
+    public void testOnInserted() throws Exception {
+        // Not loaded yet, the load picks the rows up from the database
+        mRegistry.onInserted(DATETAKEN, 1, MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
+        mRegistry.ensureLoaded(mDb);
+        assertFalse(mRegistry.hasGroup(DATETAKEN));
+
+        mRegistry.onInserted(DATETAKEN, 1, MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
+        mRegistry.onInserted(DATETAKEN, 2, MediaFileAssist.IMG_TYPE_MODE_BURST);
+        mRegistry.onInserted(DATETAKEN, 3, MediaFileAssist.IMG_TYPE_MODE_BURST);
+        assertTrue(mRegistry.hasGroup(DATETAKEN));
+        assertEquals(BurstGroupRegistry.NO_CHANGE, mRegistry.resolve(DATETAKEN, mFlag));
+    }
+
+    @Test
+    public void testCoverSurvives() throws Exception {
+        insertGroup(3);
+        mRegistry.ensureLoaded(mDb);
+        mRegistry.removeMember(DATETAKEN, 2);
+        assertEquals(BurstGroupRegistry.NO_CHANGE, mRegistry.resolve(DATETAKEN, mFlag));
+    }
+
+    @Test
+    public void testCoverDeleted() throws Exception {
+        insertGroup(3);
+        mRegistry.ensureLoaded(mDb);
+        mRegistry.removeMember(DATETAKEN, 1);
+        assertEquals(2, mRegistry.resolve(DATETAKEN, mFlag));
+        assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST_COVER, mFlag[0]);
+        // Decided once
+        assertEquals(BurstGroupRegistry.NO_CHANGE, mRegistry.resolve(DATETAKEN, mFlag));
+    }
+
+    @Test
+    public void testNoCoverNotElected() throws Exception {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < 3; i++) {
+            values.put(MediaFileAssist.Images.DATE_TAKEN, DATETAKEN);
+            values.put(MediaFileAssist.Files.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_BURST);
+            mDb.insert("files", null, values);
+        }
+        mRegistry.ensureLoaded(mDb);
+        // Only the removal of the cover elects a new one
+        mRegistry.removeMember(DATETAKEN, 1);
+        assertEquals(BurstGroupRegistry.NO_CHANGE, mRegistry.resolve(DATETAKEN, mFlag));
+    }
+
+    @Test
+    public void testGroupEmptied() throws Exception {
+        insertGroup(3);
+        mRegistry.ensureLoaded(mDb);
+        mRegistry.removeMember(DATETAKEN, 1);
+        mRegistry.removeMember(DATETAKEN, 2);
+        // The last one becomes a normal picture and leaves the registry
+        assertEquals(3, mRegistry.resolve(DATETAKEN, mFlag));
+        assertEquals(MediaFileAssist.IMG_TYPE_MODE_NORMAL, mFlag[0]);
+        assertFalse(mRegistry.hasGroup(DATETAKEN));
+
+        insertGroup(2);
+        mRegistry.invalidate();
+        mRegistry.ensureLoaded(mDb);
+        mRegistry.removeMember(DATETAKEN, 4);
+        mRegistry.removeMember(DATETAKEN, 5);
+        assertFalse(mRegistry.hasGroup(DATETAKEN));
+        assertEquals(BurstGroupRegistry.NO_CHANGE, mRegistry.resolve(DATETAKEN, mFlag));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        insertGroup(3);
+        mRegistry.ensureLoaded(mDb);
+        mRegistry.removeMember(DATETAKEN, 1);
+        mRegistry.removeMember(DATETAKEN, 2);
+        mRegistry.invalidate();
+        // Ignored while invalidated
+        mRegistry.onInserted(DATETAKEN + 1, 10, MediaFileAssist.IMG_TYPE_MODE_BURST_COVER);
+        mRegistry.ensureLoaded(mDb);
+        assertFalse(mRegistry.hasGroup(DATETAKEN + 1));
+        // Reloaded from the database, the removed members are back
+        mRegistry.removeMember(DATETAKEN, 3);
+        assertEquals(BurstGroupRegistry.NO_CHANGE, mRegistry.resolve(DATETAKEN, mFlag));
+    }
+
+    /**
+     * A whole group deleted with one where clause writes nothing: no frame is elected on its way out.
+     */
+    @Test
+    public void testWholeGroupDeletedWithWhere() throws Exception {
+        insertGroup(4);
+        MediaProviderAssist assist = new MediaProviderAssist(null);
+        final String where = "datetaken = ?";
+        final String[] args = new String[]{String.valueOf(DATETAKEN)};
+        for (long id = 1; id <= 4; id++) {
+            assist.updateBurstImage(getFileFlag(id), mDb, id, DATETAKEN, where, args);
+        }
+        assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST_COVER, getFileFlag(1));
+        for (long id = 2; id <= 4; id++) {
+            assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST, getFileFlag(id));
+        }
+    }
+
+    /**
+     * The new cover is never one of the rows deleted by the same where clause.
+     */
+    @Test
+    public void testCoverDeletedWithWhere() throws Exception {
+        insertGroup(4);
+        MediaProviderAssist assist = new MediaProviderAssist(null);
+        final String where = "_id IN (1, 2)";
+        for (long id = 1; id <= 2; id++) {
+            assist.updateBurstImage(getFileFlag(id), mDb, id, DATETAKEN, where, null);
+        }
+        assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST, getFileFlag(2));
+        assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST_COVER, getFileFlag(3));
+        assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST, getFileFlag(4));
+    }
+}
@@ -0,0 +1,117 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Benchmark for the burst partial index {@link MediaProviderAssist#BURST_INDEX_NAME}
+ * on a synthetic files table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BurstIndexBenchmarkTest {
+    private static final String TAG = "BurstIndexBenchmarkTest";
+
+    private static final int ROW_COUNT = 200000;
+    // One burst group of 20 shots every 1000 rows
+    private static final int BURST_PERIOD = 1000;
+    private static final int BURST_SIZE = 20;
+    private static final int LOOKUP_COUNT = 200;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE files (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT,"
+                + " datetaken INTEGER, file_flag INTEGER DEFAULT 0)");
+        ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                int inPeriod = i % BURST_PERIOD;
+                values.clear();
+                values.put(MediaFileAssist.Files.TITLE, "IMG_" + i);
+                if (inPeriod < BURST_SIZE) {
+                    values.put(MediaFileAssist.Images.DATE_TAKEN, getBurstDatetaken(i / BURST_PERIOD));
+                    values.put(MediaFileAssist.Files.FILE_FLAG, inPeriod == 0
+                            ? MediaFileAssist.IMG_TYPE_MODE_BURST_COVER
+                            : MediaFileAssist.IMG_TYPE_MODE_BURST);
+                } else {
+                    values.put(MediaFileAssist.Images.DATE_TAKEN, 1000000L + i);
+                    values.put(MediaFileAssist.Files.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_NORMAL);
+                }
+                mDb.insert("files", null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void testBurstGroupLookup() throws Exception {
+        String planBefore = getQueryPlan();
+        long costBefore = measureLookups();
+        assertFalse(planBefore, planBefore.contains(MediaProviderAssist.BURST_INDEX_NAME));
+
+        MediaProviderAssist.createBurstIndex(mDb);
+        // Creating twice must be harmless, it runs on every upgrade
+        MediaProviderAssist.createBurstIndex(mDb);
+
+        String planAfter = getQueryPlan();
+        long costAfter = measureLookups();
+        assertTrue(planAfter, planAfter.contains(MediaProviderAssist.BURST_INDEX_NAME));
+
+        Log.i(TAG, "rows: " + ROW_COUNT + ", lookups: " + LOOKUP_COUNT);
+        Log.i(TAG, "without index: " + planBefore + " -> " + costBefore + " us/lookup");
+        Log.i(TAG, "with index: " + planAfter + " -> " + costAfter + " us/lookup");
+    }
+
+    private static long getBurstDatetaken(int group) {
+        return 5000000000L + group;
+    }
+
+    private String getQueryPlan() {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN SELECT _id, title FROM files WHERE "
+                + MediaProviderAssist.BURST_GROUP_SELECTION, new String[]{"0"})) {
+            int detail = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                plan.append(c.getString(detail)).append(';');
+            }
+        }
+        return plan.toString();
+    }
+
+    private long measureLookups() {
+        int groups = ROW_COUNT / BURST_PERIOD;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            try (Cursor c = mDb.query("files", new String[]{"_id", "title"},
+                    MediaProviderAssist.BURST_GROUP_SELECTION,
+                    new String[]{String.valueOf(getBurstDatetaken(i % groups))}, null, null, null)) {
+                assertEquals(BURST_SIZE, c.getCount());
+            }
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000 / LOOKUP_COUNT;
+    }
+}
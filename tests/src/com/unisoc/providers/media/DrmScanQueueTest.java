@@ -0,0 +1,186 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.DrmScanQueue}
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrmScanQueueTest {
+    private File mDir;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "drm_scan_queue_test_" + System.nanoTime());
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File touch(String path) throws IOException {
+        File file = new File(mDir, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        return file;
+    }
+
+    private static class RecordingScanner implements DrmScanQueue.Scanner {
+        final List<String> calls = new ArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+        // one per worker
+        final CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch done;
+
+        RecordingScanner(int expectedCalls) {
+            done = new CountDownLatch(expectedCalls);
+        }
+
+        private void record(String call) {
+            synchronized (calls) {
+                calls.add(call);
+            }
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void scanFile(File file) {
+            record("file:" + file.getPath());
+        }
+
+        @Override
+        public void scanDirectory(File dir) {
+            record("dir:" + dir.getPath());
+        }
+    }
+
+    @Test
+    public void testDedupeAndGrouping() throws Exception {
+        // busy, busy, one directory pass for /c and a single file scan for /d
+        RecordingScanner scanner = new RecordingScanner(4);
+        DrmScanQueue queue = new DrmScanQueue(scanner);
+        //1.occupy both workers
+        queue.enqueue("/a/1.dcf");
+        queue.enqueue("/b/1.dcf");
+        assertTrue(scanner.started.await(5, TimeUnit.SECONDS));
+        //2.queue up behind them, with duplicates
+        for (int i = 0; i < DrmScanQueue.MIN_DIRECTORY_BATCH; i++) {
+            final String path = touch("c/" + i + ".dcf").getPath();
+            queue.enqueue(path);
+            queue.enqueue(path);
+        }
+        queue.enqueue("/d/1.dcf");
+        queue.enqueue("/d/1.dcf");
+        assertEquals(DrmScanQueue.MIN_DIRECTORY_BATCH + 1, queue.getQueueDepth());
+        //3.let them run
+        scanner.release.countDown();
+        assertTrue(scanner.done.await(5, TimeUnit.SECONDS));
+        synchronized (scanner.calls) {
+            assertEquals(4, scanner.calls.size());
+            assertTrue(scanner.calls.contains("dir:" + new File(mDir, "c")));
+            assertTrue(scanner.calls.contains("file:/d/1.dcf"));
+        }
+        assertEquals(0, queue.getQueueDepth());
+
+        StringWriter sw = new StringWriter();
+        queue.dump(new PrintWriter(sw));
+        String dump = sw.toString();
+        assertTrue(dump, dump.contains("deduped=" + (DrmScanQueue.MIN_DIRECTORY_BATCH + 1)));
+        assertTrue(dump, dump.contains("batches=4"));
+    }
+
+    @Test
+    public void testSmallBatchScansFiles() throws Exception {
+        RecordingScanner scanner = new RecordingScanner(DrmScanQueue.MIN_DIRECTORY_BATCH + 1);
+        DrmScanQueue queue = new DrmScanQueue(scanner);
+        queue.enqueue("/a/1.dcf");
+        queue.enqueue("/b/1.dcf");
+        assertTrue(scanner.started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < DrmScanQueue.MIN_DIRECTORY_BATCH - 1; i++) {
+            queue.enqueue("/c/" + i + ".dcf");
+        }
+        scanner.release.countDown();
+        assertTrue(scanner.done.await(5, TimeUnit.SECONDS));
+        synchronized (scanner.calls) {
+            for (int i = 0; i < DrmScanQueue.MIN_DIRECTORY_BATCH - 1; i++) {
+                assertTrue(scanner.calls.contains("file:/c/" + i + ".dcf"));
+            }
+            assertTrue(!scanner.calls.contains("dir:/c"));
+        }
+    }
+
+    @Test
+    public void testShouldScanDirectory() throws Exception {
+        for (int i = 0; i < DrmScanQueue.MIN_DIRECTORY_BATCH * 2; i++) {
+            touch("flat/" + i + ".dcf");
+        }
+        final File flat = new File(mDir, "flat");
+        assertTrue(DrmScanQueue.shouldScanDirectory(flat, DrmScanQueue.MIN_DIRECTORY_BATCH));
+        assertFalse(DrmScanQueue.shouldScanDirectory(flat, DrmScanQueue.MIN_DIRECTORY_BATCH - 1));
+        // A small part of a large folder
+        touch("flat/" + DrmScanQueue.MIN_DIRECTORY_BATCH * 2 + ".dcf");
+        assertFalse(DrmScanQueue.shouldScanDirectory(flat, DrmScanQueue.MIN_DIRECTORY_BATCH));
+        // A directory scan would walk the subfolder as well
+        for (int i = 0; i < DrmScanQueue.MIN_DIRECTORY_BATCH; i++) {
+            touch("tree/" + i + ".dcf");
+        }
+        touch("tree/sub/a.jpg");
+        assertFalse(DrmScanQueue.shouldScanDirectory(new File(mDir, "tree"), DrmScanQueue.MIN_DIRECTORY_BATCH));
+        assertFalse(DrmScanQueue.shouldScanDirectory(new File(mDir, "missing"), DrmScanQueue.MIN_DIRECTORY_BATCH));
+    }
+
+    @Test
+    public void testPendingCapped() throws Exception {
+        RecordingScanner scanner = new RecordingScanner(2 + DrmScanQueue.MAX_PENDING);
+        DrmScanQueue queue = new DrmScanQueue(scanner);
+        queue.enqueue("/a/1.dcf");
+        queue.enqueue("/b/1.dcf");
+        assertTrue(scanner.started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < DrmScanQueue.MAX_PENDING + 10; i++) {
+            queue.enqueue("/c" + i + "/1.dcf");
+        }
+        assertEquals(DrmScanQueue.MAX_PENDING, queue.getQueueDepth());
+        scanner.release.countDown();
+        assertTrue(scanner.done.await(5, TimeUnit.SECONDS));
+
+        StringWriter sw = new StringWriter();
+        queue.dump(new PrintWriter(sw));
+        assertTrue(sw.toString(), sw.toString().contains("dropped=10"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for the file_flag cache of {@link MediaProviderAssist#updateContentValuesForSpecialPictures(SQLiteDatabase,
+ * Uri, ContentValues)}
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileFlagCacheTest {
+    private static final String IMAGES = "content://media/external/images/media";
+
+    private SQLiteDatabase mDb;
+    private MediaProviderAssist mAssist;
+
+    private final MediaProviderAssist.ProviderPlugin mPlugin = new MediaProviderAssist.ProviderPlugin() {
+        @Override
+        public Context providerGetContext() {
+            return InstrumentationRegistry.getTargetContext();
+        }
+
+        @Override
+        public Cursor providerQuery(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+            return mDb.query(false, "files", projection, null, null, null, null, null, null, signal);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE files (_id INTEGER PRIMARY KEY AUTOINCREMENT, file_flag INTEGER DEFAULT 0)");
+        ContentValues values = new ContentValues();
+        for (int i = 1; i <= 3; i++) {
+            mDb.insert("files", null, values);
+        }
+        mAssist = new MediaProviderAssist(mPlugin);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    private void setFileFlag(long id, int fileFlag) {
+        mDb.execSQL("UPDATE files SET file_flag = " + fileFlag + " WHERE _id = " + id);
+    }
+
+    /**
+     * Return whether an update of the dates of row id keeps them, which the bokeh flag does.
+     */
+    private boolean keepsDates(long id) {
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        mAssist.updateContentValuesForSpecialPictures(mDb, Uri.parse(IMAGES + "/" + id), values);
+        return !values.containsKey(MediaFileAssist.Images.DATE_TAKEN);
+    }
+
+    @Test
+    public void testFlagCached() throws Exception {
+        assertFalse(keepsDates(1));
+        // Changed behind the back of the assist, the cached flag is still served
+        setFileFlag(1, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        assertFalse(keepsDates(1));
+        mAssist.invalidateFileFlagCache(1);
+        assertTrue(keepsDates(1));
+    }
+
+    @Test
+    public void testItemUpdateEvictsRow() throws Exception {
+        assertFalse(keepsDates(1));
+        assertFalse(keepsDates(2));
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        mAssist.updateContentValuesForSpecialPictures(mDb, Uri.parse(IMAGES + "/1"), values);
+        setFileFlag(1, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        setFileFlag(2, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        assertTrue(keepsDates(1));
+        // Only the updated row is evicted
+        assertFalse(keepsDates(2));
+    }
+
+    @Test
+    public void testCollectionUpdateEvictsAll() throws Exception {
+        assertFalse(keepsDates(1));
+        assertFalse(keepsDates(2));
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        mAssist.updateContentValuesForSpecialPictures(mDb, Uri.parse(IMAGES), values);
+        setFileFlag(1, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        setFileFlag(2, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        assertTrue(keepsDates(1));
+        assertTrue(keepsDates(2));
+    }
+
+    @Test
+    public void testCollectionUpdateWithoutFlagKeepsCache() throws Exception {
+        assertFalse(keepsDates(1));
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        mAssist.updateContentValuesForSpecialPictures(mDb, Uri.parse(IMAGES), values);
+        setFileFlag(1, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        assertFalse(keepsDates(1));
+    }
+}
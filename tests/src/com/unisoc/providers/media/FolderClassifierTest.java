@@ -0,0 +1,54 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.FolderClassifier}
+ */
+@RunWith(AndroidJUnit4.class)
+public class FolderClassifierTest {
+
+    private final FolderClassifier mClassifier = FolderClassifier.getDefault();
+
+    @Test
+    public void testEmulatedStorage() throws Exception {
+        assertEquals(FolderClassifier.CATEGORY_RINGTONES,
+                mClassifier.classifyParent("/storage/emulated/0/Ringtones/ring.3gp"));
+        assertEquals(FolderClassifier.CATEGORY_CAMERA,
+                mClassifier.classifyDirectory("/storage/emulated/0/DCIM/Camera"));
+        assertEquals(FolderClassifier.CATEGORY_DCIM_THUMBNAILS,
+                mClassifier.classifyParent("/storage/emulated/0/DCIM/.thumbnails/1.jpg"));
+        assertEquals(FolderClassifier.CATEGORY_DCIM,
+                mClassifier.classifyParent("/storage/emulated/0/DCIM/Screenshots/1.png"));
+        assertEquals(FolderClassifier.CATEGORY_NONE,
+                mClassifier.classifyParent("/storage/emulated/0/1.png"));
+    }
+
+    @Test
+    public void testOtherVolumes() throws Exception {
+        assertEquals(FolderClassifier.CATEGORY_DOWNLOADS,
+                mClassifier.classifyParent("/storage/1234-ABCD/Download/a.dcf"));
+        assertEquals(FolderClassifier.CATEGORY_ALARMS,
+                mClassifier.classifyParent("/storage/self/primary/Alarms/alarm.3gp"));
+        assertEquals(FolderClassifier.CATEGORY_NONE,
+                mClassifier.classifyParent("/data/local/tmp/Alarms/alarm.3gp"));
+    }
+
+    @Test
+    public void testNestedAndCaseInsensitive() throws Exception {
+        assertEquals(FolderClassifier.CATEGORY_NOTIFICATIONS,
+                mClassifier.classifyParent("/storage/emulated/0/notifications/custom/n.3gp"));
+        // Only public folders at the volume root count
+        assertEquals(FolderClassifier.CATEGORY_NONE,
+                mClassifier.classifyParent("/storage/emulated/0/backup/Ringtones/ring.3gp"));
+        assertTrue(FolderClassifier.isSoundFolder(FolderClassifier.CATEGORY_RINGTONES));
+        assertFalse(FolderClassifier.isSoundFolder(FolderClassifier.CATEGORY_MUSIC));
+    }
+}
@@ -0,0 +1,171 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.FileObserver;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.FolderWatcher}
+ */
+@RunWith(AndroidJUnit4.class)
+public class FolderWatcherTest {
+    private static final File CAMERA = new File("/storage/emulated/0/DCIM/Camera");
+    private static final File DOWNLOAD = new File("/storage/emulated/0/Download");
+
+    private final ArrayList<File> mFiles = new ArrayList<>();
+    private final ArrayList<File> mDirs = new ArrayList<>();
+    // The handler is only used by the public entry points, the tests drive time themselves
+    private final FolderWatcher mWatcher = new FolderWatcher(new FolderWatcher.Scanner() {
+        @Override
+        public void scanFile(File file) {
+            mFiles.add(file);
+        }
+
+        @Override
+        public void scanDirectory(File dir) {
+            mDirs.add(dir);
+        }
+    }, null);
+
+    @Test
+    public void testCoalesce() throws Exception {
+        long due = mWatcher.onEvent(CAMERA, FileObserver.CLOSE_WRITE, "IMG_1.jpg", 1000);
+        assertEquals(1000 + FolderWatcher.BATCH_WINDOW_MS, due);
+        mWatcher.onEvent(CAMERA, FileObserver.CLOSE_WRITE, "IMG_1.jpg", 1005);
+        due = mWatcher.onEvent(DOWNLOAD, FileObserver.MOVED_TO, "song.mp3", 1010);
+        assertEquals(1010 + FolderWatcher.BATCH_WINDOW_MS, due);
+        assertEquals(due, mWatcher.flush(due - 1));
+        assertTrue(mFiles.isEmpty());
+        assertEquals(-1, mWatcher.flush(due));
+        assertEquals(Arrays.asList(new File(CAMERA, "IMG_1.jpg"), new File(DOWNLOAD, "song.mp3")), mFiles);
+        assertTrue(mDirs.isEmpty());
+        assertEquals(-1, mWatcher.flush(due + 1000));
+    }
+
+    @Test
+    public void testDelayIsBounded() throws Exception {
+        long due = 0;
+        for (long now = 1000; now < 2000; now += 10) {
+            due = mWatcher.onEvent(CAMERA, FileObserver.CLOSE_WRITE, "IMG_" + now + ".jpg", now);
+            if (now >= 1000 + FolderWatcher.MAX_BATCH_DELAY_MS) {
+                break;
+            }
+        }
+        assertEquals(1000 + FolderWatcher.MAX_BATCH_DELAY_MS, due);
+    }
+
+    @Test
+    public void testIgnoredEvents() throws Exception {
+        assertEquals(-1, mWatcher.onEvent(CAMERA, FileObserver.CREATE, "IMG_1.jpg", 1000));
+        assertEquals(-1, mWatcher.onEvent(DOWNLOAD, FileObserver.CLOSE_WRITE, ".pending-123-song.mp3", 1000));
+        assertEquals(-1, mWatcher.flush(2000));
+        assertTrue(mFiles.isEmpty());
+    }
+
+    @Test
+    public void testDeleteAndDirectories() throws Exception {
+        mWatcher.onEvent(CAMERA, FileObserver.DELETE, "IMG_1.jpg", 1000);
+        mWatcher.onEvent(DOWNLOAD, FileObserver.CREATE | FolderWatcher.IN_ISDIR, "album", 1000);
+        mWatcher.flush(2000);
+        assertEquals(Arrays.asList(new File(CAMERA, "IMG_1.jpg")), mFiles);
+        assertEquals(Arrays.asList(new File(DOWNLOAD, "album")), mDirs);
+    }
+
+    /**
+     * Too many changed files in one directory fall back to one scan of the directory.
+     */
+    @Test
+    public void testOverflowRescansDirectory() throws Exception {
+        for (int i = 0; i <= FolderWatcher.MAX_PENDING_FILES + 10; i++) {
+            mWatcher.onEvent(CAMERA, FileObserver.CLOSE_WRITE, "IMG_" + i + ".jpg", 1000);
+        }
+        mWatcher.onEvent(DOWNLOAD, FileObserver.CLOSE_WRITE, "song.mp3", 1000);
+        mWatcher.onEvent(DOWNLOAD, FileObserver.DELETE_SELF, null, 1000);
+        mWatcher.flush(2000);
+        assertEquals(Arrays.asList(CAMERA, DOWNLOAD), mDirs);
+        assertTrue(mFiles.isEmpty());
+    }
+
+    private static File mkdirs(File root, String path) {
+        File dir = new File(root, path);
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testCollectDirs() throws Exception {
+        File root = new File(System.getProperty("java.io.tmpdir"), "folder_watcher_test_" + System.nanoTime());
+        try {
+            File download = mkdirs(root, "Download");
+            mkdirs(root, "Download/app/sub/deeper");
+            mkdirs(root, "Download/.hidden");
+            new File(mkdirs(root, "Download/cache"), ".nomedia").createNewFile();
+            HashMap<File, Integer> dirs = new HashMap<>();
+            FolderWatcher.collectDirs(download, 0, dirs);
+            assertEquals(3, dirs.size());
+            assertEquals(0, (int) dirs.get(download));
+            assertEquals(1, (int) dirs.get(new File(download, "app")));
+            assertEquals(FolderWatcher.MAX_WATCH_DEPTH, (int) dirs.get(new File(download, "app/sub")));
+        } finally {
+            delete(root);
+        }
+    }
+
+    /**
+     * Subfolders are watched, also when they are created later, until they go away.
+     */
+    @Test
+    public void testSubfoldersWatched() throws Exception {
+        File root = new File(System.getProperty("java.io.tmpdir"), "folder_watcher_test_" + System.nanoTime());
+        try {
+            File screenshots = mkdirs(root, "Pictures/Screenshots");
+            File download = mkdirs(root, "Download");
+            mWatcher.startWatching(root);
+            assertTrue(mWatcher.isWatching(screenshots));
+            assertTrue(mWatcher.isWatching(download));
+
+            File app = mkdirs(root, "Download/app");
+            mWatcher.onEvent(download, FileObserver.CREATE | FolderWatcher.IN_ISDIR, "app", 1000);
+            assertTrue(mWatcher.isWatching(app));
+            // Covered by the scan of the new folder
+            mWatcher.onEvent(app, FileObserver.CLOSE_WRITE, "book.mp3", 1000);
+            mWatcher.flush(2000);
+            assertEquals(Arrays.asList(app), mDirs);
+            assertTrue(mFiles.isEmpty());
+            mWatcher.onEvent(app, FileObserver.CLOSE_WRITE, "book2.mp3", 2000);
+            mWatcher.flush(3000);
+            assertEquals(Arrays.asList(new File(app, "book2.mp3")), mFiles);
+
+            mWatcher.onEvent(app, FileObserver.DELETE_SELF, null, 4000);
+            assertFalse(mWatcher.isWatching(app));
+            assertTrue(mWatcher.isWatching(download));
+            mWatcher.stopWatching(root);
+            assertFalse(mWatcher.isWatching(screenshots));
+        } finally {
+            delete(root);
+        }
+    }
+}
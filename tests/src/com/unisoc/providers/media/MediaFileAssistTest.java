@@ -401,6 +401,32 @@ public class MediaFileAssistTest {
         assertEquals("apk", MimeUtils.guessExtensionFromMimeType(mimeType.toLowerCase(Locale.US)));
     }
 
+    @Test
+    public void testFlagPolicy() throws Exception {
+        assertEquals(MediaFileAssist.FLAG_POLICY_KEEP,
+                MediaFileAssist.getFlagPolicy(MediaFileAssist.IMG_TYPE_MODE_HDR));
+        assertEquals(MediaFileAssist.FLAG_POLICY_KEEP,
+                MediaFileAssist.getFlagPolicy(MediaFileAssist.IMG_TYPE_MODE_MOTION_FDR_AI_PHOTO));
+        assertEquals(MediaFileAssist.FLAG_POLICY_NORMALIZE,
+                MediaFileAssist.getFlagPolicy(MediaFileAssist.IMG_TYPE_MODE_BURST_COVER));
+        assertEquals(MediaFileAssist.FLAG_POLICY_KEEP | MediaFileAssist.FLAG_POLICY_KEEP_DATES,
+                MediaFileAssist.getFlagPolicy(MediaFileAssist.IMG_TYPE_MODE_HDR_BOKEH_NO_BOKEH));
+        assertEquals(0, MediaFileAssist.getFlagPolicy(MediaFileAssist.IMG_TYPE_MODE_3D_CAPTURE));
+        assertEquals(0, MediaFileAssist.getFlagPolicy(1030));
+        assertEquals(0, MediaFileAssist.getFlagPolicy(-1));
+    }
+
+    @Test
+    public void testParseCameraType() throws Exception {
+        assertEquals(1025, MediaFileAssist.parseCameraType("1025"));
+        assertEquals(12, MediaFileAssist.parseCameraType(" 12 "));
+        assertEquals(51, MediaFileAssist.parseCameraType(new byte[]{'5', '1', 0}, 0, 3));
+        assertEquals(-1, MediaFileAssist.parseCameraType(""));
+        assertEquals(-1, MediaFileAssist.parseCameraType("-1"));
+        assertEquals(-1, MediaFileAssist.parseCameraType("0x10"));
+        assertEquals(-1, MediaFileAssist.parseCameraType("12345678901"));
+    }
+
     private static void checkInvalidExtension(String s) {
         assertFalse(MimeUtils.hasExtension(s));
         assertNull(MimeUtils.guessMimeTypeFromExtension(s));
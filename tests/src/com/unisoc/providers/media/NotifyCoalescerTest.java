@@ -0,0 +1,95 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.NotifyCoalescer}
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotifyCoalescerTest {
+
+    private final ArrayList<Uri> mDelivered = new ArrayList<>();
+    // The handler is only used by the public entry points, the tests drive time themselves
+    private final NotifyCoalescer mCoalescer = new NotifyCoalescer(mDelivered::add, null);
+
+    private static Uri image(long id) {
+        return Uri.parse("content://media/external/images/media/" + id);
+    }
+
+    @Test
+    public void testDedupe() throws Exception {
+        long due = 0;
+        for (int i = 0; i < 3; i++) {
+            due = mCoalescer.notifyChange(image(1), 1000);
+        }
+        assertEquals(1000 + NotifyCoalescer.MIN_WINDOW_MS, due);
+        assertEquals(due, mCoalescer.flush(due - 1));
+        assertTrue(mDelivered.isEmpty());
+        assertEquals(-1, mCoalescer.flush(due));
+        assertEquals(1, mDelivered.size());
+        assertEquals(image(1), mDelivered.get(0));
+    }
+
+    @Test
+    public void testMergeIntoAncestor() throws Exception {
+        long now = 1000;
+        for (int i = 0; i <= NotifyCoalescer.MERGE_THRESHOLD; i++) {
+            mCoalescer.notifyChange(image(i), now);
+        }
+        // Covered by the merged ancestor
+        mCoalescer.notifyChange(image(100), now);
+        mCoalescer.flush(now + NotifyCoalescer.MAX_LATENCY_MS);
+        assertEquals(1, mDelivered.size());
+        assertEquals(Uri.parse("content://media/external/images/media"), mDelivered.get(0));
+    }
+
+    @Test
+    public void testWindowGrowsWithRateAndLatencyIsBounded() throws Exception {
+        long now = 1000;
+        final long first = now;
+        long due = 0;
+        // One frame every 20ms for longer than the latency bound
+        for (; now < first + 3 * NotifyCoalescer.MAX_LATENCY_MS; now += 20) {
+            due = mCoalescer.notifyChange(image(now), now);
+            if (mCoalescer.flush(now) < 0) {
+                break;
+            }
+        }
+        assertTrue(due > first + NotifyCoalescer.MIN_WINDOW_MS);
+        assertEquals(first + NotifyCoalescer.MAX_LATENCY_MS, now);
+        assertEquals(1, mDelivered.size());
+    }
+
+    @Test
+    public void testCameraActivity() throws Exception {
+        mCoalescer.noteCameraActivity(1000);
+        assertEquals(1000 + NotifyCoalescer.CAMERA_WINDOW_MS, mCoalescer.notifyChange(image(1), 1000));
+        mDelivered.clear();
+        mCoalescer.flush(5000);
+        // The camera went quiet
+        long now = 1000 + NotifyCoalescer.CAMERA_HOLD_MS + 10000;
+        assertEquals(now + NotifyCoalescer.MIN_WINDOW_MS, mCoalescer.notifyChange(image(2), now));
+    }
+
+    @Test
+    public void testCommonAncestor() throws Exception {
+        assertEquals(Uri.parse("content://media/external"), NotifyCoalescer.commonAncestor(
+                image(1), Uri.parse("content://media/external/video/media/2")));
+        assertEquals(Uri.parse("content://media/external/images/media"), NotifyCoalescer.commonAncestor(
+                Uri.parse("content://media/external/images/media"), image(3)));
+        assertNull(NotifyCoalescer.commonAncestor(image(1), Uri.parse("content://media/internal/audio/media/1")));
+        assertNull(NotifyCoalescer.commonAncestor(image(1), Uri.parse("content://downloads/external/images/media/1")));
+        assertTrue(NotifyCoalescer.isAncestorOrSelf(Uri.parse("content://media/external"), image(1)));
+    }
+}
@@ -0,0 +1,161 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.OperationBudget}
+ */
+@RunWith(AndroidJUnit4.class)
+public class OperationBudgetTest {
+    private static final long DATETAKEN = 1562227200000L;
+
+    @Test
+    public void testClientCancel() throws Exception {
+        CancellationSignal client = new CancellationSignal();
+        try (OperationBudget budget = OperationBudget.start(client, 10000)) {
+            budget.throwIfCanceled();
+            client.cancel();
+            try {
+                budget.throwIfCanceled();
+                fail("client canceled");
+            } catch (OperationCanceledException expected) {
+            }
+            assertTrue(budget.getSignal().isCanceled());
+        }
+    }
+
+    @Test
+    public void testBudgetRunsOut() throws Exception {
+        try (OperationBudget budget = OperationBudget.start(new CancellationSignal(), 1)) {
+            SystemClock.sleep(5);
+            try {
+                budget.throwIfCanceled();
+                fail("budget ran out");
+            } catch (OperationCanceledException expected) {
+            }
+            assertTrue(budget.getSignal().isCanceled());
+        }
+    }
+
+    @Test
+    public void testNoSignalNeverThrows() throws Exception {
+        try (OperationBudget budget = OperationBudget.start(null, 1)) {
+            SystemClock.sleep(5);
+            budget.throwIfCanceled();
+            assertFalse(budget.getSignal().isCanceled());
+        }
+    }
+
+    @Test
+    public void testClientListenerKept() throws Exception {
+        CancellationSignal client = new CancellationSignal();
+        final boolean[] notified = new boolean[1];
+        client.setOnCancelListener(() -> notified[0] = true);
+        try (OperationBudget budget = OperationBudget.start(client, 10000)) {
+            client.cancel();
+            assertTrue(notified[0]);
+            try {
+                budget.throwIfCanceled();
+                fail("client canceled");
+            } catch (OperationCanceledException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testPartRunsOut() throws Exception {
+        try (OperationBudget budget = OperationBudget.start(new CancellationSignal(), 10000)) {
+            try (OperationBudget part = budget.startPart(1)) {
+                SystemClock.sleep(5);
+                try {
+                    part.throwIfCanceled();
+                    fail("part ran out");
+                } catch (OperationCanceledException expected) {
+                }
+            }
+            budget.throwIfCanceled();
+            assertFalse(budget.getSignal().isCanceled());
+        }
+        // Without a client signal only the part has a deadline
+        try (OperationBudget budget = OperationBudget.start(null, 1);
+             OperationBudget part = budget.startPart(1)) {
+            SystemClock.sleep(5);
+            try {
+                part.throwIfCanceled();
+                fail("part ran out");
+            } catch (OperationCanceledException expected) {
+            }
+            budget.throwIfCanceled();
+        }
+    }
+
+    @Test
+    public void testPartCanceledWithOperation() throws Exception {
+        CancellationSignal client = new CancellationSignal();
+        try (OperationBudget budget = OperationBudget.start(client, 10000);
+             OperationBudget part = budget.startPart(10000)) {
+            client.cancel();
+            budget.throwIfCanceled();
+            fail("client canceled");
+        } catch (OperationCanceledException expected) {
+        }
+    }
+
+    @Test
+    public void testCanceledBurstReelection() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            db.execSQL("CREATE TABLE files (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT,"
+                    + " datetaken INTEGER, file_flag INTEGER DEFAULT 0)");
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < 3; i++) {
+                values.put(MediaFileAssist.Images.DATE_TAKEN, DATETAKEN);
+                values.put(MediaFileAssist.Files.FILE_FLAG, i == 0
+                        ? MediaFileAssist.IMG_TYPE_MODE_BURST_COVER : MediaFileAssist.IMG_TYPE_MODE_BURST);
+                db.insert("files", null, values);
+            }
+            // The cover is deleted by a client which gives up right away
+            db.delete("files", "_id = 1", null);
+            MediaProviderAssist assist = new MediaProviderAssist(null);
+            CancellationSignal client = new CancellationSignal();
+            client.cancel();
+            try {
+                assist.updateBurstImages(db, new long[]{1}, new long[]{DATETAKEN},
+                        new int[]{MediaFileAssist.IMG_TYPE_MODE_BURST_COVER}, client);
+                fail();
+            } catch (OperationCanceledException expected) {
+            }
+            assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST, getFileFlag(db, 2));
+
+            // Nothing left behind by the canceled attempt
+            assist.updateBurstImages(db, new long[]{1}, new long[]{DATETAKEN},
+                    new int[]{MediaFileAssist.IMG_TYPE_MODE_BURST_COVER}, new CancellationSignal());
+            assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST_COVER, getFileFlag(db, 2));
+            assertEquals(MediaFileAssist.IMG_TYPE_MODE_BURST, getFileFlag(db, 3));
+        } finally {
+            db.close();
+        }
+    }
+
+    private static int getFileFlag(SQLiteDatabase db, long id) {
+        try (Cursor c = db.rawQuery("SELECT file_flag FROM files WHERE _id = " + id, null)) {
+            assertTrue(c.moveToFirst());
+            return c.getInt(0);
+        }
+    }
+}
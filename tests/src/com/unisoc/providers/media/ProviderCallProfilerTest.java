@@ -0,0 +1,83 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.ProviderCallProfiler}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderCallProfilerTest {
+
+    @Test
+    public void testPackKey() throws Exception {
+        long key = ProviderCallProfiler.packKey(1010123, 4194303, 63, 701);
+        assertEquals(1010123, ProviderCallProfiler.uidOf(key));
+        assertEquals(4194303, ProviderCallProfiler.pidOf(key));
+        assertEquals(63, ProviderCallProfiler.tagOf(key));
+        assertEquals(701, ProviderCallProfiler.matchOf(key));
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        assertEquals(0, ProviderCallProfiler.bucketOf(500));
+        assertEquals(1, ProviderCallProfiler.bucketOf(1000));
+        assertEquals(11, ProviderCallProfiler.bucketOf(1500000));
+        assertEquals(ProviderCallProfiler.BUCKETS - 1, ProviderCallProfiler.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRecordAndReport() throws Exception {
+        AssistTrace trace = new AssistTrace();
+        int query = trace.tagId("query");
+        int update = trace.tagId("update");
+        ProviderCallProfiler profiler = new ProviderCallProfiler();
+        // A noisy app issuing many cheap queries, and a quiet one issuing a few slow updates
+        for (int i = 0; i < 1000; i++) {
+            profiler.record(10123, 4567, query, 1, 200000, 1);
+        }
+        for (int i = 0; i < 3; i++) {
+            profiler.record(10200, 8910, update, 2, 500000000, 50);
+        }
+        assertEquals(2, profiler.recorders().size());
+
+        StringWriter out = new StringWriter();
+        profiler.dump(new PrintWriter(out), 1, trace);
+        String[] lines = out.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[2], lines[2].contains("uid=10200 pid=8910 update match=2 calls=3 rows=150"));
+        assertTrue(lines[4], lines[4].contains("uid=10123 pid=4567 query match=1 calls=1000 rows=1000"));
+        assertTrue(lines[4], lines[4].contains("p50Us<=256 p99Us<=256"));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        final ProviderCallProfiler profiler = new ProviderCallProfiler();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    profiler.record(10000 + i % 8, 100, 1, 1, 1000, 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long calls = 0;
+        for (ProviderCallProfiler.Recorder recorder : profiler.recorders()) {
+            calls += recorder.calls.sum();
+        }
+        assertEquals(8, profiler.recorders().size());
+        assertTrue(calls <= 40000 && calls > 39000);
+    }
+}
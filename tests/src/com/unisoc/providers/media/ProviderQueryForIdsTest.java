@@ -0,0 +1,221 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Test for {@link MediaProviderAssist.ProviderPlugin#providerQueryForIds}
+ * and {@link MediaProviderAssist#prefetchSpecialPictureFlags}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderQueryForIdsTest {
+    private static final String IMAGES = "content://media/external/images/media";
+    private static final String VIDEO = "content://media/external/video/media";
+    private static final String INTERNAL_IMAGES = "content://media/internal/images/media";
+    private static final int ROW_COUNT = 1200;
+
+    private SQLiteDatabase mDb;
+    private int mQueryCount;
+    private RuntimeException mQueryFailure;
+
+    private final MediaProviderAssist.ProviderPlugin mPlugin = new MediaProviderAssist.ProviderPlugin() {
+        @Override
+        public Context providerGetContext() {
+            return InstrumentationRegistry.getTargetContext();
+        }
+
+        @Override
+        public Cursor providerQuery(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+            mQueryCount++;
+            if (mQueryFailure != null) {
+                throw mQueryFailure;
+            }
+            // Like the provider, only the images and files projections have file_flag
+            if (Arrays.asList(projection).contains(MediaFileAssist.Files.FILE_FLAG)
+                    && !MediaProviderAssist.hasFileFlagColumn(uri)) {
+                throw new IllegalArgumentException("Invalid column " + MediaFileAssist.Files.FILE_FLAG);
+            }
+            String selection = queryArgs != null
+                    ? queryArgs.getString(ContentResolver.QUERY_ARG_SQL_SELECTION) : null;
+            String last = uri.getLastPathSegment();
+            if (last.matches("\\d+")) {
+                selection = "_id = " + last;
+            }
+            // The internal database hands out the same row ids
+            final String table = MediaProviderAssist.isInternalVolume(uri) ? "internal_files" : "files";
+            return mDb.query(false, table, projection, selection, null, null, null, null, null, signal);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE files (_id INTEGER PRIMARY KEY AUTOINCREMENT, file_flag INTEGER DEFAULT 0)");
+        ContentValues values = new ContentValues();
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            values.put(MediaFileAssist.Files.FILE_FLAG, i % 3 == 0 ? MediaFileAssist.IMG_TYPE_MODE_BURST : 0);
+            mDb.insert("files", null, values);
+        }
+        mDb.execSQL("CREATE TABLE internal_files (_id INTEGER PRIMARY KEY AUTOINCREMENT, file_flag INTEGER DEFAULT 0)");
+        values.clear();
+        for (int i = 1; i <= 10; i++) {
+            mDb.insert("internal_files", null, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void testQueryForIdsChunks() throws Exception {
+        long[] ids = new long[ROW_COUNT];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        HashSet<Long> seen = new HashSet<>();
+        try (Cursor c = mPlugin.providerQueryForIds(Uri.parse(IMAGES),
+                new String[]{MediaFileAssist.Files._ID}, ids, 1100, null)) {
+            assertEquals(1100, c.getCount());
+            while (c.moveToNext()) {
+                assertTrue(seen.add(c.getLong(0)));
+            }
+        }
+        assertEquals(3, mQueryCount);
+        assertFalse(seen.contains(1101L));
+    }
+
+    @Test
+    public void testPrefetchSpecialPictureFlags() throws Exception {
+        MediaProviderAssist assist = new MediaProviderAssist(mPlugin);
+        ArrayList<Uri> uris = new ArrayList<>();
+        for (int i = 1; i <= 600; i++) {
+            uris.add(Uri.parse((i <= 550 ? IMAGES : VIDEO) + "/" + i));
+        }
+        Map<Long, Integer> prefetched = assist.prefetchSpecialPictureFlags(uris, null);
+        // Two chunks of images, the videos have no file_flag
+        assertEquals(2, mQueryCount);
+
+        // The per operation lookups of the images are served from the prefetched flags
+        ContentValues values = new ContentValues();
+        for (Uri uri : uris.subList(0, 550)) {
+            values.clear();
+            values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+            assist.updateContentValuesForSpecialPictures(uri, values, prefetched, null);
+        }
+        assertEquals(2, mQueryCount);
+        assertTrue(prefetched.isEmpty());
+    }
+
+    /**
+     * The prefetched flags live as long as the batch, they never serve a later call.
+     */
+    @Test
+    public void testPrefetchScopedToBatch() throws Exception {
+        MediaProviderAssist assist = new MediaProviderAssist(mPlugin);
+        ArrayList<Uri> uris = new ArrayList<>();
+        uris.add(Uri.parse(IMAGES + "/5"));
+        uris.add(Uri.parse(IMAGES + "/5"));
+        Map<Long, Integer> prefetched = assist.prefetchSpecialPictureFlags(uris, null);
+        assertEquals(1, mQueryCount);
+        assertEquals(1, prefetched.size());
+
+        // The row changes after the prefetch, the first operation still sees the flag it had
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        values.put(MediaFileAssist.Images.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH);
+        assist.updateContentValuesForSpecialPictures(uris.get(0), values, prefetched, null);
+        assertTrue(values.containsKey(MediaFileAssist.Images.DATE_TAKEN));
+        assertEquals(1, mQueryCount);
+        mDb.execSQL("UPDATE files SET file_flag = " + MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH + " WHERE _id = 5");
+
+        // The second operation of the batch looks the new flag up
+        values.clear();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        assist.updateContentValuesForSpecialPictures(uris.get(1), values, prefetched, null);
+        assertFalse(values.containsKey(MediaFileAssist.Images.DATE_TAKEN));
+        assertEquals(2, mQueryCount);
+
+        // And so does a call after the batch
+        assist.prefetchSpecialPictureFlags(uris, null);
+        values.clear();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        assist.updateContentValuesForSpecialPictures(uris.get(0), values);
+        assertFalse(values.containsKey(MediaFileAssist.Images.DATE_TAKEN));
+        assertEquals(4, mQueryCount);
+    }
+
+    @Test
+    public void testPrefetchFailureIgnored() throws Exception {
+        MediaProviderAssist assist = new MediaProviderAssist(mPlugin);
+        ArrayList<Uri> uris = new ArrayList<>();
+        uris.add(Uri.parse(IMAGES + "/3"));
+        mQueryFailure = new IllegalStateException("provider failure");
+        assist.prefetchSpecialPictureFlags(uris, null);
+        assertEquals(1, mQueryCount);
+
+        // A canceled prefetch doesn't query at all
+        mQueryFailure = new OperationCanceledException();
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        assist.prefetchSpecialPictureFlags(uris, signal);
+        assertEquals(1, mQueryCount);
+        assist.prefetchSpecialPictureFlags(uris, null);
+        assertEquals(2, mQueryCount);
+
+        // The flag is looked up on its own afterwards
+        mQueryFailure = null;
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        assist.updateContentValuesForSpecialPictures(uris.get(0), values);
+        assertEquals(3, mQueryCount);
+    }
+
+    @Test
+    public void testCacheKeyedByDatabase() throws Exception {
+        mDb.execSQL("UPDATE files SET file_flag = " + MediaFileAssist.IMG_TYPE_MODE_BLUR_HAS_BOKEH + " WHERE _id = 5");
+        MediaProviderAssist assist = new MediaProviderAssist(mPlugin);
+        ArrayList<Uri> uris = new ArrayList<>();
+        uris.add(Uri.parse(IMAGES + "/5"));
+        Map<Long, Integer> prefetched = assist.prefetchSpecialPictureFlags(uris, null);
+
+        // The bokeh flag of external row 5 keeps its dates
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        assist.updateContentValuesForSpecialPictures(Uri.parse(IMAGES + "/5"), values, prefetched, null);
+        assertEquals(1, mQueryCount);
+        assertFalse(values.containsKey(MediaFileAssist.Images.DATE_TAKEN));
+
+        // Internal row 5 is another picture, it isn't served the flag of the external one
+        final int queries = mQueryCount;
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1L);
+        assist.updateContentValuesForSpecialPictures(Uri.parse(INTERNAL_IMAGES + "/5"), values, prefetched, null);
+        assertTrue(values.containsKey(MediaFileAssist.Images.DATE_TAKEN));
+        assertEquals(queries + 1, mQueryCount);
+    }
+}
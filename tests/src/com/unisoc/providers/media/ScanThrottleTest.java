@@ -0,0 +1,93 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.ScanThrottle}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanThrottleTest {
+
+    private final ScanThrottle mThrottle = new ScanThrottle();
+
+    @Test
+    public void testIdleRunsAtFullSpeed() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, mThrottle.reserve(ScanThrottle.COST_DRM, 1000));
+        }
+        assertEquals(32, mThrottle.getBatchSize(32, 1000));
+        // A single picture is no active camera
+        mThrottle.noteCameraInsert(1000);
+        assertEquals(ScanThrottle.STATE_IDLE, mThrottle.getState(1000));
+    }
+
+    @Test
+    public void testCameraInsertRate() throws Exception {
+        mThrottle.noteCameraInsert(1000);
+        mThrottle.noteCameraInsert(1000 + ScanThrottle.CAMERA_RATE_WINDOW_MS + 1);
+        assertEquals(ScanThrottle.STATE_IDLE, mThrottle.getState(1000 + ScanThrottle.CAMERA_RATE_WINDOW_MS + 1));
+        final long now = 1000 + ScanThrottle.CAMERA_RATE_WINDOW_MS + 500;
+        mThrottle.noteCameraInsert(now);
+        assertEquals(ScanThrottle.STATE_CAMERA, mThrottle.getState(now));
+        assertEquals(8, mThrottle.getBatchSize(32, now));
+        // Full speed once the camera was quiet
+        assertEquals(ScanThrottle.STATE_IDLE, mThrottle.getState(now + ScanThrottle.CAMERA_QUIET_MS));
+    }
+
+    @Test
+    public void testTokenBucket() throws Exception {
+        mThrottle.noteCameraInsert(1000);
+        mThrottle.noteCameraInsert(1001);
+        long now = 1001;
+        // The bucket starts full
+        for (int i = 0; i < ScanThrottle.BUCKET_SIZE; i++) {
+            assertEquals(0, mThrottle.reserve(ScanThrottle.COST_FILE, now));
+        }
+        long wait = mThrottle.reserve(ScanThrottle.COST_DRM, now);
+        assertEquals((long) Math.ceil(ScanThrottle.COST_DRM * 1000 / ScanThrottle.CAMERA_TOKENS_PER_SECOND), wait);
+        // After the debt is paid back, the refill rate limits the work
+        now += wait;
+        long allowed = 0;
+        for (long t = now; t < now + 1000; t += 10) {
+            if (mThrottle.reserve(ScanThrottle.COST_FILE, t) == 0) {
+                allowed++;
+            }
+        }
+        assertTrue("allowed " + allowed, allowed <= ScanThrottle.CAMERA_TOKENS_PER_SECOND + 1);
+    }
+
+    @Test
+    public void testBurstPauses() throws Exception {
+        mThrottle.noteBurstFrame(1000);
+        assertEquals(ScanThrottle.STATE_BURST, mThrottle.getState(1000));
+        assertEquals(ScanThrottle.BURST_QUIET_MS, mThrottle.pauseTime(1000));
+        assertEquals(1, mThrottle.getBatchSize(32, 1000));
+        final long quiet = 1000 + ScanThrottle.BURST_QUIET_MS;
+        assertEquals(0, mThrottle.pauseTime(quiet));
+        // Still throttled until the camera is quiet as well
+        assertEquals(ScanThrottle.STATE_CAMERA, mThrottle.getState(quiet));
+        assertEquals(ScanThrottle.STATE_IDLE, mThrottle.getState(1000 + ScanThrottle.CAMERA_QUIET_MS));
+    }
+
+    @Test
+    public void testScannerInsertsIgnored() throws Exception {
+        MediaProviderAssist assist = new MediaProviderAssist(null);
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Files.DATA, "/storage/emulated/0/DCIM/Camera/IMG_20190704_160000_BURST1.jpg");
+        values.put(MediaFileAssist.Images.DATE_TAKEN, 1562227200000L);
+        values.put(MediaFileAssist.Images.FILE_FLAG, MediaFileAssist.IMG_TYPE_MODE_BURST);
+        for (int i = 1; i <= 10; i++) {
+            assist.onImageInserted(i, values, true);
+        }
+        assertEquals(ScanThrottle.STATE_IDLE, ScanThrottle.getInstance().getState(SystemClock.uptimeMillis()));
+    }
+}
@@ -0,0 +1,229 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.SortedMergeCursor}
+ * and {@link com.unisoc.providers.media.MultiVolumeQuery}
+ */
+@RunWith(AndroidJUnit4.class)
+public class SortedMergeCursorTest {
+    private static final String[] PROJECTION = {"_id", "_display_name", "datetaken"};
+
+    private static MatrixCursor cursor(Object[]... rows) {
+        MatrixCursor c = new MatrixCursor(PROJECTION);
+        for (Object[] row : rows) {
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    private static Cursor[] volumes() {
+        return new Cursor[]{
+                cursor(new Object[]{1, "b.jpg", 300}, new Object[]{2, "D.jpg", 100}),
+                null,
+                cursor(new Object[]{11, "a.jpg", 300}, new Object[]{12, "c.jpg", 200},
+                        new Object[]{13, "e.jpg", null}),
+                cursor(),
+        };
+    }
+
+    private static long[] readIds(Cursor c) {
+        long[] ids = new long[c.getCount()];
+        c.moveToPosition(-1);
+        while (c.moveToNext()) {
+            ids[c.getPosition()] = c.getLong(0);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        try (Cursor c = SortedMergeCursor.merge(volumes(), "datetaken DESC, _display_name COLLATE NOCASE")) {
+            assertTrue(c instanceof SortedMergeCursor);
+            assertEquals(5, c.getCount());
+            assertTrue(Arrays.toString(readIds(c)),
+                    Arrays.equals(new long[]{11, 1, 12, 2, 13}, readIds(c)));
+            // Moving backward restarts the merge
+            assertTrue(c.moveToPosition(3));
+            assertEquals("D.jpg", c.getString(1));
+            assertTrue(c.moveToPosition(1));
+            assertEquals(1, c.getLong(0));
+            assertFalse(c.moveToPosition(5));
+        }
+        try (Cursor c = SortedMergeCursor.merge(volumes(), "files.datetaken DESC")) {
+            // Equal keys keep the order of the sources
+            assertTrue(Arrays.equals(new long[]{1, 11, 12, 2, 13}, readIds(c)));
+        }
+    }
+
+    @Test
+    public void testConcatenateWithoutSortOrder() throws Exception {
+        try (Cursor c = SortedMergeCursor.merge(volumes(), null)) {
+            assertTrue(Arrays.equals(new long[]{1, 2, 11, 12, 13}, readIds(c)));
+        }
+    }
+
+    @Test
+    public void testUnmergeableSortOrder() throws Exception {
+        for (String sortOrder : new String[]{"length(_display_name)", "title DESC", "datetaken COLLATE LOCALIZED"}) {
+            assertNull(sortOrder, SortedMergeCursor.merge(volumes(), sortOrder));
+        }
+        assertNull(SortedMergeCursor.getSortColumns("length(_display_name)"));
+        assertTrue(Arrays.equals(new String[]{"datetaken", "title"},
+                SortedMergeCursor.getSortColumns("files.datetaken DESC, title COLLATE NOCASE")));
+    }
+
+    /**
+     * Sort columns queried only for the merge are hidden.
+     */
+    @Test
+    public void testHiddenSortColumn() throws Exception {
+        try (Cursor c = SortedMergeCursor.merge(volumes(), "datetaken DESC, _display_name COLLATE NOCASE", 2)) {
+            assertEquals(2, c.getColumnCount());
+            assertEquals(-1, c.getColumnIndex("datetaken"));
+            assertTrue(Arrays.equals(new long[]{11, 1, 12, 2, 13}, readIds(c)));
+        }
+        assertTrue(Arrays.equals(new String[]{"_id", "datetaken"},
+                MultiVolumeQuery.appendMissingColumns(new String[]{"_id"}, new String[]{"datetaken", "_ID"})));
+        assertNull(MultiVolumeQuery.appendMissingColumns(null, new String[]{"datetaken"}));
+    }
+
+    @Test
+    public void testMultiVolumeQuery() throws Exception {
+        final Cursor[] volumes = volumes();
+        final Thread caller = Thread.currentThread();
+        MediaProviderAssist.ProviderPlugin plugin = new MediaProviderAssist.ProviderPlugin() {
+            @Override
+            public Context providerGetContext() {
+                return null;
+            }
+
+            @Override
+            public Cursor providerQuery(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                assertEquals("images", uri.getPathSegments().get(1));
+                // The default plugin can't carry the caller's identity, nothing leaves the calling thread
+                assertEquals(caller, Thread.currentThread());
+                return volumes[Integer.parseInt(uri.getPathSegments().get(0).substring("volume".length()))];
+            }
+        };
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, "datetaken DESC, _display_name COLLATE NOCASE");
+        try (Cursor c = MultiVolumeQuery.query(plugin, Uri.parse("content://media/external/images/media"),
+                Arrays.asList("volume0", "volume1", "volume2", "volume3"), PROJECTION, queryArgs, null)) {
+            assertTrue(Arrays.equals(new long[]{11, 1, 12, 2, 13}, readIds(c)));
+        }
+        assertEquals(Uri.parse("content://media/1234-5678/images/media/12?limit=1"),
+                MultiVolumeQuery.getVolumeUri(Uri.parse("content://media/external/images/media/12?limit=1"),
+                        "1234-5678"));
+    }
+
+    @Test
+    public void testMultiVolumeQueryConcurrent() throws Exception {
+        final Cursor[] volumes = volumes();
+        final CancellationSignal client = new CancellationSignal();
+        final Set<CancellationSignal> signals = Collections.synchronizedSet(new HashSet<>());
+        MediaProviderAssist.ProviderPlugin plugin = new MediaProviderAssist.ProviderPlugin() {
+            @Override
+            public Context providerGetContext() {
+                return null;
+            }
+
+            @Override
+            public Cursor providerQuery(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                signals.add(signal);
+                return volumes[Integer.parseInt(uri.getPathSegments().get(0).substring("volume".length()))];
+            }
+
+            @Override
+            public <T> Callable<T> providerWithCallingIdentity(Callable<T> task) {
+                return task;
+            }
+        };
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, "datetaken DESC, _display_name COLLATE NOCASE");
+        try (Cursor c = MultiVolumeQuery.query(plugin, Uri.parse("content://media/external/images/media"),
+                Arrays.asList("volume0", "volume1", "volume2", "volume3"), PROJECTION, queryArgs, client)) {
+            assertTrue(Arrays.equals(new long[]{11, 1, 12, 2, 13}, readIds(c)));
+        }
+        // Every query had a signal of its own, the client signal was left to the client
+        assertEquals(4, signals.size());
+        assertFalse(signals.contains(client));
+    }
+
+    @Test
+    public void testMultiVolumeQuerySortColumnNotProjected() throws Exception {
+        final Cursor[] volumes = volumes();
+        MediaProviderAssist.ProviderPlugin plugin = new MediaProviderAssist.ProviderPlugin() {
+            @Override
+            public Context providerGetContext() {
+                return null;
+            }
+
+            @Override
+            public Cursor providerQuery(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                assertTrue(Arrays.equals(new String[]{"_id", "_display_name", "datetaken"}, projection));
+                return volumes[Integer.parseInt(uri.getPathSegments().get(0).substring("volume".length()))];
+            }
+        };
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, "datetaken DESC, _display_name COLLATE NOCASE");
+        try (Cursor c = MultiVolumeQuery.query(plugin, Uri.parse("content://media/external/images/media"),
+                Arrays.asList("volume0", "volume1", "volume2", "volume3"), new String[]{"_id", "_display_name"},
+                queryArgs, null)) {
+            assertEquals(2, c.getColumnCount());
+            assertTrue(Arrays.equals(new long[]{11, 1, 12, 2, 13}, readIds(c)));
+        }
+    }
+
+    /**
+     * An ORDER BY which can't be merged is left to one query over all external volumes.
+     */
+    @Test
+    public void testMultiVolumeQueryUnmergeableSortOrder() throws Exception {
+        final Cursor sorted = cursor(new Object[]{11, "a.jpg", 300}, new Object[]{1, "b.jpg", 300});
+        final ArrayList<Uri> uris = new ArrayList<>();
+        MediaProviderAssist.ProviderPlugin plugin = new MediaProviderAssist.ProviderPlugin() {
+            @Override
+            public Context providerGetContext() {
+                return null;
+            }
+
+            @Override
+            public Cursor providerQuery(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal signal) {
+                uris.add(uri);
+                return sorted;
+            }
+        };
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, "length(_display_name)");
+        try (Cursor c = MultiVolumeQuery.query(plugin, Uri.parse("content://media/volume0/images/media"),
+                Arrays.asList("volume0", "volume1"), PROJECTION, queryArgs, null)) {
+            assertEquals(sorted, c);
+        }
+        assertEquals(Arrays.asList(Uri.parse("content://media/external/images/media")), uris);
+    }
+}
@@ -0,0 +1,167 @@
+package com.unisoc.providers.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for {@link MediaProviderAssist#updateBurstImages}, through the burst registry and through the database
+ */
+@RunWith(AndroidJUnit4.class)
+public class UpdateBurstImagesTest {
+    private static final long GROUP_A = 1562227200000L;
+    private static final long GROUP_B = 1562227300000L;
+    private static final int NORMAL = MediaFileAssist.IMG_TYPE_MODE_NORMAL;
+    private static final int BURST = MediaFileAssist.IMG_TYPE_MODE_BURST;
+    private static final int COVER = MediaFileAssist.IMG_TYPE_MODE_BURST_COVER;
+
+    private SQLiteDatabase mDb;
+    private MediaProviderAssist mAssist;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE files (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT,"
+                + " datetaken INTEGER, file_flag INTEGER DEFAULT 0)");
+        mAssist = new MediaProviderAssist(null);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    private long insert(long datetaken, int fileFlag) {
+        ContentValues values = new ContentValues();
+        values.put(MediaFileAssist.Images.DATE_TAKEN, datetaken);
+        values.put(MediaFileAssist.Files.FILE_FLAG, fileFlag);
+        return mDb.insert("files", null, values);
+    }
+
+    private int getFileFlag(long id) {
+        try (Cursor c = mDb.rawQuery("SELECT file_flag FROM files WHERE _id = " + id, null)) {
+            assertTrue(c.moveToFirst());
+            return c.getInt(0);
+        }
+    }
+
+    /**
+     * Delete the given rows the way MediaProvider does: their flags are read first,
+     * then updateBurstImages runs before the rows are gone.
+     */
+    private void delete(boolean fromDatabase, long... ids) {
+        long[] datetakens = new long[ids.length];
+        int[] fileFlags = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            try (Cursor c = mDb.rawQuery("SELECT datetaken, file_flag FROM files WHERE _id = " + ids[i], null)) {
+                assertTrue(c.moveToFirst());
+                datetakens[i] = c.getLong(0);
+                fileFlags[i] = c.getInt(1);
+            }
+        }
+        if (fromDatabase) {
+            mAssist.suspendBurstRegistry(MediaProviderAssist.REGISTRY_LOAD_RETRY_MS);
+        }
+        mAssist.updateBurstImages(mDb, ids, datetakens, fileFlags);
+        for (long id : ids) {
+            mDb.delete("files", "_id = " + id, null);
+        }
+    }
+
+    @Test
+    public void testMixedGroups() throws Exception {
+        runMixedGroups(false);
+        tearDown();
+        setUp();
+        runMixedGroups(true);
+    }
+
+    private void runMixedGroups(boolean fromDatabase) {
+        long coverA = insert(GROUP_A, COVER);
+        long a2 = insert(GROUP_A, BURST);
+        long a3 = insert(GROUP_A, BURST);
+        long coverB = insert(GROUP_B, COVER);
+        long b2 = insert(GROUP_B, BURST);
+        long b3 = insert(GROUP_B, BURST);
+        long normal = insert(GROUP_A + 1, NORMAL);
+        delete(fromDatabase, coverA, b2, normal);
+        // A lost its cover, B only a member
+        assertEquals(COVER, getFileFlag(a2));
+        assertEquals(BURST, getFileFlag(a3));
+        assertEquals(COVER, getFileFlag(coverB));
+        assertEquals(BURST, getFileFlag(b3));
+    }
+
+    @Test
+    public void testCoverOnlyDeleted() throws Exception {
+        runCoverOnlyDeleted(false);
+        tearDown();
+        setUp();
+        runCoverOnlyDeleted(true);
+    }
+
+    private void runCoverOnlyDeleted(boolean fromDatabase) {
+        long cover = insert(GROUP_A, COVER);
+        long second = insert(GROUP_A, BURST);
+        long third = insert(GROUP_A, BURST);
+        delete(fromDatabase, cover);
+        assertEquals(COVER, getFileFlag(second));
+        assertEquals(BURST, getFileFlag(third));
+
+        // Down to one picture, it becomes a normal one
+        delete(fromDatabase, second);
+        assertEquals(NORMAL, getFileFlag(third));
+    }
+
+    @Test
+    public void testWholeGroupDeleted() throws Exception {
+        runWholeGroupDeleted(false);
+        tearDown();
+        setUp();
+        runWholeGroupDeleted(true);
+    }
+
+    private void runWholeGroupDeleted(boolean fromDatabase) {
+        long cover = insert(GROUP_A, COVER);
+        long second = insert(GROUP_A, BURST);
+        long third = insert(GROUP_A, BURST);
+        long otherCover = insert(GROUP_B, COVER);
+        long otherSecond = insert(GROUP_B, BURST);
+        delete(fromDatabase, cover, second, third);
+        try (Cursor c = mDb.rawQuery("SELECT _id FROM files WHERE datetaken = " + GROUP_A, null)) {
+            assertEquals(0, c.getCount());
+        }
+        assertEquals(COVER, getFileFlag(otherCover));
+        assertEquals(BURST, getFileFlag(otherSecond));
+    }
+
+    /**
+     * A group without a cover, left by an older version, keeps none when one of its members is deleted.
+     */
+    @Test
+    public void testGroupWithoutCover() throws Exception {
+        runGroupWithoutCover(false);
+        tearDown();
+        setUp();
+        runGroupWithoutCover(true);
+    }
+
+    private void runGroupWithoutCover(boolean fromDatabase) {
+        long first = insert(GROUP_A, BURST);
+        long second = insert(GROUP_A, BURST);
+        long third = insert(GROUP_A, BURST);
+        delete(fromDatabase, first);
+        assertEquals(BURST, getFileFlag(second));
+        assertEquals(BURST, getFileFlag(third));
+    }
+}
@@ -0,0 +1,87 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.drm.DrmManagerClientEx;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.os.BackgroundThread;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.DrmClientPool}
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrmClientPoolTest {
+    private Context mContext;
+    private DrmClientPool mPool;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mPool = new DrmClientPool(BackgroundThread.getHandler());
+    }
+
+    private String dump() {
+        StringWriter sw = new StringWriter();
+        mPool.dump(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        DrmManagerClientEx client = mPool.acquire(mContext);
+        mPool.release(client);
+        assertSame(client, mPool.acquire(mContext));
+        // Handed out once at a time
+        DrmManagerClientEx other = mPool.acquire(mContext);
+        assertNotSame(client, other);
+        mPool.release(client);
+        mPool.release(other);
+        assertTrue(dump(), dump().contains("idle=2 created=2 reused=1 closed=0"));
+    }
+
+    @Test
+    public void testIdleBounded() throws Exception {
+        DrmManagerClientEx first = mPool.acquire(mContext);
+        DrmManagerClientEx second = mPool.acquire(mContext);
+        DrmManagerClientEx third = mPool.acquire(mContext);
+        mPool.release(first);
+        mPool.release(second);
+        mPool.release(third);
+        // The least recently released one is closed
+        assertTrue(dump(), dump().contains("idle=2 created=3 reused=0 closed=1"));
+        assertSame(third, mPool.acquire(mContext));
+        assertSame(second, mPool.acquire(mContext));
+        assertNotSame(first, mPool.acquire(mContext));
+    }
+
+    @Test
+    public void testFailedClientClosed() throws Exception {
+        DrmManagerClientEx client = mPool.acquire(mContext);
+        mPool.release(client, true);
+        assertTrue(dump(), dump().contains("idle=0 created=1 reused=0 closed=1 discarded=1"));
+        assertNotSame(client, mPool.acquire(mContext));
+    }
+
+    @Test
+    public void testReleasedTwice() throws Exception {
+        DrmManagerClientEx client = mPool.acquire(mContext);
+        mPool.release(client);
+        mPool.release(client);
+        assertTrue(dump(), dump().contains("idle=1"));
+        assertSame(client, mPool.acquire(mContext));
+        assertNotSame(client, mPool.acquire(mContext));
+    }
+}
@@ -0,0 +1,110 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.util.SparseArray;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.DrmInfoCache}
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrmInfoCacheTest {
+    private File mDir;
+    private File mCacheFile;
+
+    @Before
+    public void setUp() {
+        mDir = new File(System.getProperty("java.io.tmpdir"), "drm_info_cache_test_" + System.nanoTime());
+        mDir.mkdirs();
+        mCacheFile = new File(mDir, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private File createFile(String name) throws IOException {
+        File file = new File(mDir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[16]);
+        }
+        return file;
+    }
+
+    private static SparseArray drmInfo(String mimeType) {
+        SparseArray drminfo = new SparseArray();
+        drminfo.append(ModernMediaScannerAssist.KEY_DRMINFO_MIMETYPE, mimeType);
+        return drminfo;
+    }
+
+    @Test
+    public void testNegativeEntryExpires() throws Exception {
+        final long now = System.currentTimeMillis();
+        DrmInfoCache.Entry negative = new DrmInfoCache.Entry(16, 1000, null, 0, 0, now);
+        assertFalse(negative.isExpired(now + DrmInfoCache.NEGATIVE_TTL_MS));
+        assertTrue(negative.isExpired(now + DrmInfoCache.NEGATIVE_TTL_MS + 1));
+        // The clock was set back
+        assertTrue(negative.isExpired(now - 1));
+        DrmInfoCache.Entry positive = new DrmInfoCache.Entry(16, 1000, "audio/mpeg", 0, 0, now);
+        assertFalse(positive.isExpired(now + DrmInfoCache.NEGATIVE_TTL_MS * 24));
+    }
+
+    @Test
+    public void testFlushAndReload() throws Exception {
+        File song = createFile("song.dcf");
+        File broken = createFile("broken.dcf");
+        DrmInfoCache cache = new DrmInfoCache(mCacheFile);
+        cache.put(song, drmInfo("audio/mpeg"));
+        cache.put(broken, null);
+        cache.flush();
+
+        DrmInfoCache reloaded = new DrmInfoCache(mCacheFile);
+        DrmInfoCache.Entry entry = reloaded.lookup(song);
+        assertNotNull(entry);
+        assertEquals("audio/mpeg", entry.toDrmInfo().get(ModernMediaScannerAssist.KEY_DRMINFO_MIMETYPE));
+        entry = reloaded.lookup(broken);
+        assertNotNull(entry);
+        assertNull(entry.toDrmInfo());
+    }
+
+    @Test
+    public void testSweepDropsDeletedFiles() throws Exception {
+        File kept = createFile("kept.dcf");
+        File deleted = createFile("deleted.dcf");
+        DrmInfoCache cache = new DrmInfoCache(mCacheFile);
+        cache.put(kept, drmInfo("audio/mpeg"));
+        cache.put(deleted, drmInfo("image/jpeg"));
+        cache.flush();
+
+        DrmInfoCache reloaded = new DrmInfoCache(mCacheFile);
+        assertNotNull(reloaded.lookup(kept));
+        assertTrue(deleted.delete());
+        reloaded.sweepAndFlush(mDir.getPath());
+        // Same name and size, the swept entry must not come back
+        createFile("deleted.dcf");
+        assertNotNull(new DrmInfoCache(mCacheFile).lookup(kept));
+        assertNull(new DrmInfoCache(mCacheFile).lookup(new File(mDir, "deleted.dcf")));
+    }
+}
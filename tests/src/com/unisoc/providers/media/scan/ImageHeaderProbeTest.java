@@ -0,0 +1,98 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.ImageHeaderProbe}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageHeaderProbeTest {
+
+    private static ImageHeaderProbe.Reader reader(byte[] data) {
+        return (buffer, length, offset) -> {
+            if (offset >= data.length) return 0;
+            int read = (int) Math.min(length, data.length - offset);
+            System.arraycopy(data, (int) offset, buffer, 0, read);
+            return read;
+        };
+    }
+
+    private static int[] probe(byte[] data) {
+        int[] size = new int[2];
+        assertTrue(new ImageHeaderProbe().probe(reader(data), size));
+        return size;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    @Test
+    public void testJpeg() throws Exception {
+        // SOI, APP1 larger than one probe window, then SOF0 640x480
+        int app1Length = ImageHeaderProbe.WINDOW_SIZE + 100;
+        byte[] data = new byte[4 + app1Length + 11];
+        byte[] head = bytes(0xFF, 0xD8, 0xFF, 0xE1, app1Length >> 8, app1Length & 0xFF);
+        System.arraycopy(head, 0, data, 0, head.length);
+        byte[] sof = bytes(0xFF, 0xC0, 0x00, 0x11, 0x08, 0x01, 0xE0, 0x02, 0x80, 0x03, 0x01);
+        System.arraycopy(sof, 0, data, 4 + app1Length, sof.length);
+        assertArrayEquals(new int[]{640, 480}, probe(data));
+    }
+
+    @Test
+    public void testPng() throws Exception {
+        byte[] data = bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+                0, 0, 0, 13, 'I', 'H', 'D', 'R',
+                0, 0, 0x05, 0x00, 0, 0, 0x02, 0xD0, 8, 6, 0, 0, 0);
+        assertArrayEquals(new int[]{1280, 720}, probe(data));
+    }
+
+    @Test
+    public void testGif() throws Exception {
+        byte[] data = bytes('G', 'I', 'F', '8', '9', 'a', 0x40, 0x01, 0xC8, 0x00, 0, 0, 0);
+        assertArrayEquals(new int[]{320, 200}, probe(data));
+    }
+
+    @Test
+    public void testWebpExtended() throws Exception {
+        byte[] data = bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', 'X', 10, 0, 0, 0, 0, 0, 0, 0,
+                0x7F, 0x07, 0x00, 0x37, 0x04, 0x00);
+        assertArrayEquals(new int[]{1920, 1080}, probe(data));
+    }
+
+    @Test
+    public void testBmp() throws Exception {
+        byte[] data = new byte[30];
+        data[0] = 'B';
+        data[1] = 'M';
+        data[18] = 100;
+        // negative height means a top-down bitmap
+        data[22] = (byte) -50;
+        data[23] = (byte) 0xFF;
+        data[24] = (byte) 0xFF;
+        data[25] = (byte) 0xFF;
+        assertArrayEquals(new int[]{100, 50}, probe(data));
+    }
+
+    @Test
+    public void testUnknownOrTruncated() throws Exception {
+        int[] size = new int[2];
+        ImageHeaderProbe probe = new ImageHeaderProbe();
+        assertFalse(probe.probe(reader(bytes('I', 'D', '3', 4, 0, 0, 0, 0, 0, 0, 0, 0)), size));
+        // SOS before any frame header
+        assertFalse(probe.probe(reader(bytes(0xFF, 0xD8, 0xFF, 0xDA, 0, 2, 0, 0, 0, 0, 0, 0)), size));
+        assertFalse(probe.probe(reader(bytes(0xFF, 0xD8)), size));
+    }
+}
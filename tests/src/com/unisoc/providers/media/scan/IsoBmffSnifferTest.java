@@ -0,0 +1,98 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.IsoBmffSniffer}
+ */
+@RunWith(AndroidJUnit4.class)
+public class IsoBmffSnifferTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("sniff", ".3gp");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static byte[] box(String type, byte[]... children) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            payload.write(child);
+        }
+        int size = 8 + payload.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) (size >>> 24), (byte) (size >>> 16), (byte) (size >>> 8), (byte) size});
+        out.write(type.getBytes(StandardCharsets.US_ASCII));
+        out.write(payload.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static byte[] track(String handler) throws IOException {
+        byte[] hdlr = new byte[12 + 13];
+        System.arraycopy(handler.getBytes(StandardCharsets.US_ASCII), 0, hdlr, 8, 4);
+        return box("trak", box("tkhd", new byte[84]), box("mdia", box("mdhd", new byte[24]), box("hdlr", hdlr)));
+    }
+
+    private int sniff(byte[]... boxes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            for (byte[] b : boxes) {
+                out.write(b);
+            }
+        }
+        return IsoBmffSniffer.sniff(mFile);
+    }
+
+    private static byte[] ftyp() throws IOException {
+        return box("ftyp", "3gp4".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+    }
+
+    @Test
+    public void testAudioOnly() throws Exception {
+        assertEquals(IsoBmffSniffer.RESULT_AUDIO_ONLY,
+                sniff(ftyp(), box("moov", box("mvhd", new byte[100]), track("soun"))));
+    }
+
+    @Test
+    public void testVideo() throws Exception {
+        assertEquals(IsoBmffSniffer.RESULT_HAS_VIDEO,
+                sniff(ftyp(), box("moov", track("soun"), track("vide"))));
+    }
+
+    @Test
+    public void testMoovAfterMediaData() throws Exception {
+        assertEquals(IsoBmffSniffer.RESULT_AUDIO_ONLY,
+                sniff(ftyp(), box("mdat", new byte[64 * 1024]), box("moov", track("soun"))));
+    }
+
+    @Test
+    public void testUnknown() throws Exception {
+        // no ftyp
+        assertEquals(IsoBmffSniffer.RESULT_UNKNOWN, sniff(box("moov", track("soun"))));
+        // truncated moov
+        byte[] moov = box("moov", track("soun"));
+        byte[] truncated = new byte[moov.length - 10];
+        System.arraycopy(moov, 0, truncated, 0, truncated.length);
+        assertEquals(IsoBmffSniffer.RESULT_UNKNOWN, sniff(ftyp(), truncated));
+        // no moov at all
+        assertEquals(IsoBmffSniffer.RESULT_UNKNOWN, sniff(ftyp(), box("mdat", new byte[16])));
+    }
+}
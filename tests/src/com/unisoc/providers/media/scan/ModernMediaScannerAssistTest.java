@@ -301,7 +301,7 @@ public class ModernMediaScannerAssistTest {
     }
 
     private DrmManagerClientEx getDrmManagerClient(){
-        mDrmManagerClient = mModern.mAssist.mDrmManagerClient;
+        mDrmManagerClient = mModern.mAssist.getDrmManagerClient(mDir);
         if(mDrmManagerClient == null){
             mDrmManagerClient = new DrmManagerClientEx(mIsolatedContext);
         }
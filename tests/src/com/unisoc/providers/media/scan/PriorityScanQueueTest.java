@@ -0,0 +1,202 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.PriorityScanQueue}
+ */
+@RunWith(AndroidJUnit4.class)
+public class PriorityScanQueueTest {
+    private File mRoot;
+    // "dir:" or "file:" followed by the path relative to mRoot, in scan order
+    private final List<String> mScanned = new ArrayList<>();
+    private final List<File> mCleaned = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = new File(System.getProperty("java.io.tmpdir"), "priority_scan_test_" + System.nanoTime());
+        for (String path : new String[] {
+                "DCIM/Camera/IMG_1.jpg",
+                "DCIM/Screenshots/shot.png",
+                "DCIM/loose.jpg",
+                "Pictures/p.jpg",
+                "Music/m.mp3",
+                "Other/o.jpg",
+                "root.txt",
+        }) {
+            touch(new File(mRoot, path));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        delete(mRoot);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void touch(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
+    private String relative(String kind, File file) {
+        return kind + file.getPath().substring(mRoot.getPath().length() + 1);
+    }
+
+    @Test
+    public void testTierOrder() throws Exception {
+        final PriorityScanQueue.TierProgress[][] progressAtCamera = new PriorityScanQueue.TierProgress[1][];
+        final int[] scannedBeforeClean = new int[1];
+        new PriorityScanQueue(mRoot, new PriorityScanQueue.Scanner() {
+            @Override
+            public void scanFile(File file) {
+                mScanned.add(relative("file:", file));
+            }
+
+            @Override
+            public void scanDirectory(File dir) {
+                mScanned.add(relative("dir:", dir));
+                if (dir.getName().equals("Camera")) {
+                    progressAtCamera[0] = PriorityScanQueue.getProgress(mRoot.getPath());
+                }
+            }
+
+            @Override
+            public void cleanDirectory(File dir) {
+                if (mCleaned.isEmpty()) {
+                    scannedBeforeClean[0] = mScanned.size();
+                }
+                mCleaned.add(dir);
+            }
+        }).run();
+
+        // Pictures and DCIM/Camera first, in the order of DEFAULT_FOLDER_NAME
+        assertEquals(Arrays.asList("dir:Pictures", "dir:DCIM/Camera"), mScanned.subList(0, 2));
+        // Then the other public folders, DCIM is scanned around DCIM/Camera
+        assertEquals("dir:Music", mScanned.get(2));
+        assertEquals(new HashSet<>(Arrays.asList("dir:DCIM/Screenshots", "file:DCIM/loose.jpg")),
+                new HashSet<>(mScanned.subList(3, 5)));
+        // Then the rest of the volume, nothing twice
+        assertEquals(new HashSet<>(Arrays.asList("dir:Other", "file:root.txt")),
+                new HashSet<>(mScanned.subList(5, mScanned.size())));
+        assertEquals(7, mScanned.size());
+        // Then the directories scanned around the planned folders
+        assertEquals(7, scannedBeforeClean[0]);
+        assertEquals(new HashSet<>(Arrays.asList(mRoot, new File(mRoot, "DCIM"))), new HashSet<>(mCleaned));
+        assertEquals(2, mCleaned.size());
+
+        PriorityScanQueue.TierProgress[] progress = progressAtCamera[0];
+        assertNotNull(progress);
+        assertEquals(2, progress[PriorityScanQueue.TIER_CAMERA].stages);
+        assertEquals(1, progress[PriorityScanQueue.TIER_CAMERA].finishedStages);
+        assertEquals(0, progress[PriorityScanQueue.TIER_OTHER].finishedStages);
+        assertNull(PriorityScanQueue.getProgress(mRoot.getPath()));
+    }
+
+    /**
+     * A directory hidden by .nomedia is left to the scanner as a whole.
+     */
+    @Test
+    public void testNomediaIsNotExpanded() throws Exception {
+        touch(new File(mRoot, "DCIM/.nomedia"));
+        List<PriorityScanQueue.Stage> stages = new PriorityScanQueue(mRoot, null).plan();
+        int dcim = 0;
+        for (PriorityScanQueue.Stage stage : stages) {
+            if (stage.target.getName().equals("DCIM")) {
+                assertNull(stage.files);
+                assertEquals(PriorityScanQueue.TIER_DEFAULT_FOLDERS, stage.tier);
+                dcim++;
+            }
+            assertTrue(!stage.target.getPath().startsWith(new File(mRoot, "DCIM/").getPath() + "/"));
+        }
+        assertEquals(1, dcim);
+    }
+
+    /**
+     * Rows of the media database, as the real scanner keeps them.
+     */
+    private static class RowScanner implements PriorityScanQueue.Scanner {
+        final HashSet<String> rows = new HashSet<>();
+
+        @Override
+        public void scanFile(File file) {
+            if (file.exists()) {
+                rows.add(file.getPath());
+            } else {
+                rows.remove(file.getPath());
+            }
+        }
+
+        @Override
+        public void scanDirectory(File dir) {
+            rows.removeIf(path -> path.startsWith(dir.getPath() + "/") && !new File(path).exists());
+            addTree(dir);
+        }
+
+        private void addTree(File dir) {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    addTree(child);
+                } else {
+                    rows.add(child.getPath());
+                }
+            }
+        }
+
+        @Override
+        public void cleanDirectory(File dir) {
+            rows.removeIf(path -> new File(path).getParentFile().equals(dir) && !new File(path).exists());
+        }
+    }
+
+    /**
+     * No stage scans the volume root as a whole, a loose file deleted from it must still lose its row.
+     */
+    @Test
+    public void testDeletedLooseFileRemoved() throws Exception {
+        RowScanner scanner = new RowScanner();
+        new PriorityScanQueue(mRoot, scanner).run();
+        final File rootFile = new File(mRoot, "root.txt");
+        final File dcimFile = new File(mRoot, "DCIM/loose.jpg");
+        assertTrue(scanner.rows.contains(rootFile.getPath()));
+        assertTrue(scanner.rows.contains(dcimFile.getPath()));
+
+        assertTrue(rootFile.delete());
+        assertTrue(dcimFile.delete());
+        new PriorityScanQueue(mRoot, scanner).run();
+        assertTrue(!scanner.rows.contains(rootFile.getPath()));
+        assertTrue(!scanner.rows.contains(dcimFile.getPath()));
+        assertTrue(scanner.rows.contains(new File(mRoot, "Other/o.jpg").getPath()));
+        assertEquals(5, scanner.rows.size());
+    }
+}
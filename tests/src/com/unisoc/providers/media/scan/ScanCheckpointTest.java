@@ -0,0 +1,191 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.ScanCheckpoint}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanCheckpointTest {
+    private File mRoot;
+    private File mFile;
+    private final AtomicInteger mFlushes = new AtomicInteger();
+
+    /**
+     * Stands for the media process being killed.
+     */
+    private static final class KilledError extends Error {
+    }
+
+    private static final class RecordingScanner implements PriorityScanQueue.Scanner {
+        final List<String> calls = new ArrayList<>();
+        final int killAt;
+
+        RecordingScanner(int killAt) {
+            this.killAt = killAt;
+        }
+
+        private void record(String call) {
+            if (calls.size() == killAt) {
+                throw new KilledError();
+            }
+            calls.add(call);
+        }
+
+        @Override
+        public void scanFile(File file) {
+            record("file:" + file);
+        }
+
+        @Override
+        public void scanDirectory(File dir) {
+            record("dir:" + dir);
+        }
+
+        @Override
+        public void cleanDirectory(File dir) {
+            record("clean:" + dir);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mRoot = new File(System.getProperty("java.io.tmpdir"), "scan_checkpoint_test_" + System.nanoTime());
+        mFile = new File(System.getProperty("java.io.tmpdir"), "scan_checkpoint_" + System.nanoTime());
+        for (String path : new String[] {
+                "DCIM/Camera/IMG_1.jpg",
+                "DCIM/Screenshots/shot.png",
+                "DCIM/a.jpg",
+                "DCIM/b.jpg",
+                "Pictures/p.jpg",
+                "Download/d.pdf",
+                "Music/m.mp3",
+                "Movies/v.mp4",
+                "Other/o.jpg",
+                "Other2/o.jpg",
+                "root1.txt",
+                "root2.txt",
+        }) {
+            touch(new File(mRoot, path));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        delete(mRoot);
+        mFile.delete();
+    }
+
+    private static void touch(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private ScanCheckpoint newCheckpoint() {
+        // A checkpoint after every stage, and a fresh instance as after a restart of the process
+        return new ScanCheckpoint(mFile, 0, mFlushes::incrementAndGet);
+    }
+
+    private List<String> scan(int killAt) {
+        RecordingScanner scanner = new RecordingScanner(killAt);
+        try {
+            new PriorityScanQueue(mRoot, scanner, newCheckpoint()).run();
+        } catch (KilledError e) {
+            // killed midway
+        }
+        return scanner.calls;
+    }
+
+    /**
+     * Kill the scan at random points, the resumed scan covers the rest of the uninterrupted scan.
+     */
+    @Test
+    public void testResumeAfterKill() throws Exception {
+        final List<String> full = scan(-1);
+        assertTrue(full.size() > 5);
+        // Nothing left to resume
+        assertEquals(full, scan(-1));
+
+        Random random = new Random(24);
+        for (int i = 0; i < 20; i++) {
+            final int killAt = random.nextInt(full.size());
+            final List<String> killed = scan(killAt);
+            assertEquals(full.subList(0, killAt), killed);
+            final int flushes = mFlushes.get();
+            final List<String> resumed = scan(-1);
+
+            // The resumed scan is the end of the full scan, from the interrupted stage on
+            assertTrue(resumed.size() <= full.size());
+            assertEquals(full.subList(full.size() - resumed.size(), full.size()), resumed);
+            assertTrue(killed.size() + resumed.size() >= full.size());
+            // At most the calls of the interrupted stage are repeated, the largest stage here has 2 files
+            assertTrue(killed.size() + resumed.size() - full.size() <= 1);
+            assertTrue(mFlushes.get() > flushes);
+            // The finished scan clears its checkpoint
+            assertEquals(full, scan(-1));
+        }
+    }
+
+    @Test
+    public void testChangedPlanStartsOver() throws Exception {
+        final List<String> full = scan(-1);
+        scan(full.size() - 1);
+        // A new folder shows up before the checkpoint
+        assertTrue(new File(mRoot, "Alarms").mkdir());
+        final List<String> rescan = scan(-1);
+        assertEquals(full.size() + 1, rescan.size());
+        assertEquals("dir:" + new File(mRoot, "Pictures"), rescan.get(0));
+    }
+
+    @Test
+    public void testCorruptFileStartsOver() throws Exception {
+        final List<String> full = scan(-1);
+        scan(full.size() - 1);
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+        assertEquals(full, scan(-1));
+    }
+
+    @Test
+    public void testFailedFlushWritesNoCheckpoint() throws Exception {
+        final List<String> full = scan(-1);
+        RecordingScanner scanner = new RecordingScanner(full.size() - 1);
+        try {
+            new PriorityScanQueue(mRoot, scanner, new ScanCheckpoint(mFile, 0, () -> {
+                throw new IllegalStateException("disk full");
+            })).run();
+            fail("the scan should have been killed");
+        } catch (KilledError e) {
+            // killed midway
+        }
+        assertEquals(full, scan(-1));
+    }
+}
@@ -0,0 +1,184 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.ScanJournal}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanJournalTest {
+    private static final String IMAGE = "/storage/emulated/0/DCIM/Camera/IMG_0001.jpg";
+    private static final String VIDEO = "/storage/emulated/0/Download/song.3gp";
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(System.getProperty("java.io.tmpdir"), "scan_journal_test_" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static ScanJournal.Entry image(long size, int fileFlag) {
+        return new ScanJournal.Entry(size, 1000, 1000, 42, fileFlag, "image/jpeg");
+    }
+
+    @Test
+    public void testLookupChecksSizeTimesInode() throws Exception {
+        ScanJournal journal = new ScanJournal(mFile, ScanJournal.MAX_RECORDS);
+        assertNull(journal.lookup(IMAGE, 100, 1000, 1000, 42));
+        journal.put(IMAGE, image(100, 7));
+        ScanJournal.Entry entry = journal.lookup(IMAGE, 100, 1000, 1000, 42);
+        assertNotNull(entry);
+        assertEquals(7, entry.fileFlag);
+        assertNull(journal.lookup(IMAGE, 101, 1000, 1000, 42));
+        // Rewritten in place within the same second
+        assertNull(journal.lookup(IMAGE, 100, 1001, 1000, 42));
+        // mtime set back after a rewrite
+        assertNull(journal.lookup(IMAGE, 100, 1000, 1001, 42));
+        // Replaced by another file with the same name
+        assertNull(journal.lookup(IMAGE, 100, 1000, 1000, 43));
+    }
+
+    @Test
+    public void testFlushAndReload() throws Exception {
+        ScanJournal journal = new ScanJournal(mFile, ScanJournal.MAX_RECORDS);
+        journal.put(IMAGE, image(100, ScanJournal.NO_FILE_FLAG));
+        journal.put(VIDEO, new ScanJournal.Entry(200, 2000, 2000, 43, ScanJournal.NO_FILE_FLAG, "audio/3gpp"));
+        journal.flush();
+
+        ScanJournal reloaded = new ScanJournal(mFile, ScanJournal.MAX_RECORDS);
+        ScanJournal.Entry image = reloaded.lookup(IMAGE, 100, 1000, 1000, 42);
+        assertNotNull(image);
+        assertEquals(ScanJournal.NO_FILE_FLAG, image.fileFlag);
+        assertEquals("image/jpeg", image.mimeType);
+        ScanJournal.Entry video = reloaded.lookup(VIDEO, 200, 2000, 2000, 43);
+        assertNotNull(video);
+        assertEquals("audio/3gpp", video.mimeType);
+    }
+
+    /**
+     * Records of a later scan are merged into the mapped records and replace those of the same path.
+     */
+    @Test
+    public void testMerge() throws Exception {
+        ScanJournal journal = new ScanJournal(mFile, ScanJournal.MAX_RECORDS);
+        for (int i = 0; i < 1000; i += 2) {
+            journal.put("/storage/emulated/0/Pictures/" + i + ".jpg", image(i, i % 5));
+        }
+        journal.flush();
+        for (int i = 0; i < 1000; i += 3) {
+            journal.put("/storage/emulated/0/Pictures/" + i + ".jpg", image(i + 1, i % 7));
+        }
+        journal.flush();
+
+        ScanJournal reloaded = new ScanJournal(mFile, ScanJournal.MAX_RECORDS);
+        for (int i = 0; i < 1000; i++) {
+            final String path = "/storage/emulated/0/Pictures/" + i + ".jpg";
+            if (i % 3 == 0) {
+                assertEquals(i % 7, reloaded.lookup(path, i + 1, 1000, 1000, 42).fileFlag);
+                assertNull(reloaded.lookup(path, i, 1000, 1000, 42));
+            } else if (i % 2 == 0) {
+                assertEquals(i % 5, reloaded.lookup(path, i, 1000, 1000, 42).fileFlag);
+            } else {
+                assertNull(reloaded.lookup(path, i, 1000, 1000, 42));
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptFileStartsEmpty() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(new byte[ScanJournal.HEADER_SIZE + 3]);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        ScanJournal journal = new ScanJournal(mFile, ScanJournal.MAX_RECORDS);
+        assertNull(journal.lookup(IMAGE, 100, 1000, 1000, 42));
+        journal.put(IMAGE, image(100, 7));
+        journal.flush();
+        assertEquals(7, new ScanJournal(mFile, ScanJournal.MAX_RECORDS).lookup(IMAGE, 100, 1000, 1000, 42).fileFlag);
+    }
+
+    private static String picture(int i) {
+        return "/storage/emulated/0/Pictures/" + i + ".jpg";
+    }
+
+    /**
+     * Past the limit the least recently used records go, also when they were used before the last load.
+     */
+    @Test
+    public void testPruneLeastRecentlyUsed() throws Exception {
+        ScanJournal journal = new ScanJournal(mFile, 10);
+        for (int i = 0; i < 10; i++) {
+            journal.put(picture(i), image(i, i));
+        }
+        journal.flush();
+        // 0-4 are used by the next scan, which records nothing new
+        journal = new ScanJournal(mFile, 10);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(journal.lookup(picture(i), i, 1000, 1000, 42));
+        }
+        journal.put(picture(0), image(0, 0));
+        journal.flush();
+        // A later scan only adds files, the records used two loads ago are still the recent ones
+        journal = new ScanJournal(mFile, 10);
+        for (int i = 10; i < 13; i++) {
+            journal.put(picture(i), image(i, i));
+        }
+        journal.flush();
+
+        ScanJournal reloaded = new ScanJournal(mFile, 10);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(picture(i), reloaded.lookup(picture(i), i, 1000, 1000, 42));
+        }
+        int kept = 0;
+        for (int i = 5; i < 10; i++) {
+            if (reloaded.lookup(picture(i), i, 1000, 1000, 42) != null) {
+                kept++;
+            }
+        }
+        assertEquals(2, kept);
+        for (int i = 10; i < 13; i++) {
+            assertNotNull(picture(i), reloaded.lookup(picture(i), i, 1000, 1000, 42));
+        }
+    }
+
+    @Test
+    public void testPendingNeverDropped() throws Exception {
+        ScanJournal journal = new ScanJournal(mFile, 10);
+        for (int i = 0; i < 10; i++) {
+            journal.put(picture(i), image(i, i));
+        }
+        journal.flush();
+        journal = new ScanJournal(mFile, 10);
+        for (int i = 10; i < 25; i++) {
+            journal.put(picture(i), image(i, i));
+        }
+        journal.flush();
+
+        ScanJournal reloaded = new ScanJournal(mFile, 10);
+        for (int i = 0; i < 10; i++) {
+            assertNull(reloaded.lookup(picture(i), i, 1000, 1000, 42));
+        }
+        for (int i = 10; i < 25; i++) {
+            assertNotNull(picture(i), reloaded.lookup(picture(i), i, 1000, 1000, 42));
+        }
+    }
+}
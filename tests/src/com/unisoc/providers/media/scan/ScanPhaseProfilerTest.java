@@ -0,0 +1,139 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.ScanPhaseProfiler}
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScanPhaseProfilerTest {
+    private static final String INTERNAL = "/storage/emulated/0";
+    private static final String SDCARD = "/storage/1234-5678";
+
+    @Test
+    public void testBuckets() throws Exception {
+        // Every value falls into the bucket whose bounds hold it
+        for (long micros = 0; micros < (1L << 28); micros = micros < 64 ? micros + 1 : micros * 5 / 4) {
+            final int bucket = ScanPhaseProfiler.bucketOf(micros * 1000);
+            assertTrue(bucket >= 0 && bucket < ScanPhaseProfiler.BUCKETS);
+            assertTrue(ScanPhaseProfiler.bucketLowerMicros(bucket) <= micros);
+            if (bucket < ScanPhaseProfiler.BUCKETS - 1) {
+                assertTrue(micros < ScanPhaseProfiler.bucketLowerMicros(bucket + 1));
+            }
+        }
+        assertEquals(0, ScanPhaseProfiler.bucketOf(999));
+        assertEquals(ScanPhaseProfiler.BUCKETS - 1, ScanPhaseProfiler.bucketOf(Long.MAX_VALUE));
+        // Bounds are within 25% of each other past the linear buckets
+        for (int bucket = ScanPhaseProfiler.SUB_BUCKETS; bucket < ScanPhaseProfiler.BUCKETS - 1; bucket++) {
+            final long lower = ScanPhaseProfiler.bucketLowerMicros(bucket);
+            assertTrue(ScanPhaseProfiler.bucketLowerMicros(bucket + 1) - lower <= lower / 4);
+        }
+    }
+
+    @Test
+    public void testBreakdowns() throws Exception {
+        ScanPhaseProfiler profiler = new ScanPhaseProfiler();
+        for (int i = 0; i < 99; i++) {
+            profiler.record(ScanPhaseProfiler.PHASE_MIME, INTERNAL + "/Movies/" + i + ".mp4",
+                    ScanPhaseProfiler.FAMILY_VIDEO, 100 * 1000);
+        }
+        profiler.record(ScanPhaseProfiler.PHASE_MIME, SDCARD + "/Music/a.3gp", ScanPhaseProfiler.FAMILY_AUDIO,
+                50 * 1000 * 1000);
+        profiler.record(ScanPhaseProfiler.PHASE_DRM, SDCARD + "/Download/a.dcf",
+                ScanPhaseProfiler.familyOf(null, SDCARD + "/Download/a.dcf"), 1000);
+        profiler.record(ScanPhaseProfiler.PHASE_CAMERA_TYPE, null, ScanPhaseProfiler.familyOf("image/*", null), 1000);
+
+        ScanPhaseProfiler.Histogram total = profiler.total(ScanPhaseProfiler.PHASE_MIME);
+        assertEquals(100, total.count());
+        assertEquals(50 * 1000 * 1000, total.maxNanos());
+        final long p50 = total.percentileMicros(0.5);
+        assertTrue(p50 > 100 && p50 <= 125);
+        assertTrue(total.percentileMicros(1) > 50 * 1000);
+
+        assertEquals(99, profiler.get(ScanPhaseProfiler.PHASE_MIME, INTERNAL, 0).count());
+        assertEquals(1, profiler.get(ScanPhaseProfiler.PHASE_MIME, SDCARD, 0).count());
+        assertEquals(99, profiler.get(ScanPhaseProfiler.PHASE_MIME, null, ScanPhaseProfiler.FAMILY_VIDEO).count());
+        assertEquals(1, profiler.get(ScanPhaseProfiler.PHASE_DRM, null, ScanPhaseProfiler.FAMILY_DRM).count());
+        assertEquals(1, profiler.get(ScanPhaseProfiler.PHASE_CAMERA_TYPE, "other", 0).count());
+        assertEquals(1, profiler.get(ScanPhaseProfiler.PHASE_CAMERA_TYPE, null, ScanPhaseProfiler.FAMILY_IMAGE).count());
+        assertNull(profiler.get(ScanPhaseProfiler.PHASE_APPLY, null, ScanPhaseProfiler.FAMILY_NONE));
+
+        StringWriter sw = new StringWriter();
+        profiler.dump(new PrintWriter(sw));
+        assertTrue(sw.toString().contains("mime: count=100"));
+        assertTrue(sw.toString().contains("volume " + SDCARD + ": count=1"));
+
+        // Throttle waits are reported apart from the DRM decode they delay
+        profiler.record(ScanPhaseProfiler.PHASE_THROTTLE, SDCARD + "/Download/a.dcf",
+                ScanPhaseProfiler.FAMILY_DRM, 200000);
+        assertEquals(1, profiler.total(ScanPhaseProfiler.PHASE_DRM).count());
+        sw = new StringWriter();
+        profiler.dump(new PrintWriter(sw));
+        assertTrue(sw.toString().contains("throttle: count=1"));
+    }
+
+    @Test
+    public void testDumpToFile() throws Exception {
+        ScanPhaseProfiler profiler = new ScanPhaseProfiler();
+        profiler.record(ScanPhaseProfiler.PHASE_STAT, INTERNAL + "/DCIM/Camera/a.jpg",
+                ScanPhaseProfiler.FAMILY_NONE, 5000);
+        profiler.record(ScanPhaseProfiler.PHASE_STAT, INTERNAL + "/DCIM/Camera/b.jpg",
+                ScanPhaseProfiler.FAMILY_NONE, 5000);
+        File file = File.createTempFile("scan_phase_profile", ".txt");
+        try {
+            assertTrue(profiler.dumpToFile(file));
+            List<String> lines = Files.readAllLines(file.toPath());
+            assertTrue(lines.get(0).startsWith("#"));
+            assertEquals(3, lines.size());
+            assertEquals("stat\tvolume\t" + INTERNAL + "\t2\t10000\t5000\t5:2", lines.get(1));
+            assertEquals("stat\tmime\tnone\t2\t10000\t5000\t5:2", lines.get(2));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        final ScanPhaseProfiler profiler = new ScanPhaseProfiler();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final String volume = "/storage/000" + t + "-0000";
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    profiler.record(ScanPhaseProfiler.PHASE_STAT, (i % 2 == 0 ? INTERNAL : volume) + "/a.jpg",
+                            ScanPhaseProfiler.FAMILY_IMAGE, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, profiler.total(ScanPhaseProfiler.PHASE_STAT).count());
+        ScanPhaseProfiler.Histogram internal = profiler.get(ScanPhaseProfiler.PHASE_STAT, INTERNAL, 0);
+        assertNotNull(internal);
+        assertEquals(40000, internal.count());
+        // 9 volumes for 8 slots, one of them goes to the overflow slot
+        long volumes = 0;
+        for (int t = 0; t < threads.length; t++) {
+            ScanPhaseProfiler.Histogram histogram = profiler.get(ScanPhaseProfiler.PHASE_STAT, "/storage/000" + t + "-0000", 0);
+            volumes += histogram != null ? histogram.count() : 0;
+        }
+        ScanPhaseProfiler.Histogram other = profiler.get(ScanPhaseProfiler.PHASE_STAT, "other", 0);
+        assertEquals(40000, volumes + (other != null ? other.count() : 0));
+    }
+}
@@ -0,0 +1,146 @@
+package com.unisoc.providers.media.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.provider.MediaStore;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for Class {@link com.unisoc.providers.media.scan.VolumeScanScheduler}
+ */
+@RunWith(AndroidJUnit4.class)
+public class VolumeScanSchedulerTest {
+    private static final File PRIMARY = new File("/storage/emulated/0");
+    private static final File SECONDARY_USER = new File("/storage/emulated/10");
+    private static final File SD_CARD = new File("/storage/1234-5678");
+    private static final File USB = new File("/storage/ABCD-EF01");
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testDeviceName() throws Exception {
+        assertEquals(VolumeScanScheduler.DEVICE_INTERNAL, VolumeScanScheduler.getDeviceName("/storage/emulated/0"));
+        assertEquals(VolumeScanScheduler.DEVICE_INTERNAL, VolumeScanScheduler.getDeviceName("/storage/emulated/10"));
+        assertEquals(VolumeScanScheduler.DEVICE_INTERNAL, VolumeScanScheduler.getDeviceName("/system/media"));
+        assertEquals("/storage/1234-5678", VolumeScanScheduler.getDeviceName("/storage/1234-5678"));
+        assertEquals("/storage/1234-5678", VolumeScanScheduler.getDeviceName("/storage/1234-5678/DCIM"));
+        assertEquals("/storage/1234-5678", VolumeScanScheduler.getDeviceName("/mnt/media_rw/1234-5678"));
+    }
+
+    @Test
+    public void testVolumeName() throws Exception {
+        assertEquals(MediaStore.VOLUME_EXTERNAL_PRIMARY, VolumeScanScheduler.getVolumeName("/storage/emulated/0/DCIM"));
+        assertEquals(MediaStore.VOLUME_EXTERNAL_PRIMARY, VolumeScanScheduler.getVolumeName("/sdcard/Music"));
+        assertEquals("1234-abcd", VolumeScanScheduler.getVolumeName("/storage/1234-ABCD/DCIM"));
+        assertEquals("1234-abcd", VolumeScanScheduler.getVolumeName("/mnt/media_rw/1234-ABCD"));
+        assertEquals(MediaStore.VOLUME_EXTERNAL, VolumeScanScheduler.getVolumeName("/data/local/tmp"));
+    }
+
+    /**
+     * An SD card scan doesn't hold back the scans of the internal storage and of a USB stick.
+     */
+    @Test
+    public void testDevicesScanInParallel() throws Exception {
+        final CountDownLatch allStarted = new CountDownLatch(3);
+        final CountDownLatch finished = new CountDownLatch(3);
+        VolumeScanScheduler scheduler = new VolumeScanScheduler(mExecutor, root -> {
+            allStarted.countDown();
+            try {
+                allStarted.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 1, 1);
+        for (File root : new File[] {SD_CARD, PRIMARY, USB}) {
+            assertTrue(scheduler.schedule(root, finished::countDown));
+        }
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(0, allStarted.getCount());
+        assertTrue(scheduler.isIdle());
+    }
+
+    /**
+     * Volumes of the same device never exceed the device limit.
+     */
+    @Test
+    public void testDeviceLimit() throws Exception {
+        final HashMap<String, Integer> running = new HashMap<>();
+        final List<String> maxConcurrency = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch finished = new CountDownLatch(2);
+        VolumeScanScheduler scheduler = new VolumeScanScheduler(mExecutor, root -> {
+            final String device = VolumeScanScheduler.getDeviceName(root.getPath());
+            synchronized (running) {
+                int count = running.getOrDefault(device, 0) + 1;
+                running.put(device, count);
+                maxConcurrency.add(device + "=" + count);
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (running) {
+                running.put(device, running.get(device) - 1);
+            }
+        }, 1, 1);
+        scheduler.schedule(PRIMARY, finished::countDown);
+        scheduler.schedule(SECONDARY_USER, finished::countDown);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxConcurrency.size());
+        for (String entry : maxConcurrency) {
+            assertEquals(VolumeScanScheduler.DEVICE_INTERNAL + "=1", entry);
+        }
+    }
+
+    /**
+     * A volume waiting for its scan is merged, a volume scheduled during its scan is scanned once more.
+     */
+    @Test
+    public void testDedupeAndRescan() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<File> scanned = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch finished = new CountDownLatch(4);
+        VolumeScanScheduler scheduler = new VolumeScanScheduler(mExecutor, root -> {
+            scanned.add(root);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 1, 1);
+        // Runs right away and blocks the device
+        assertTrue(scheduler.schedule(PRIMARY, finished::countDown));
+        // Waits behind the primary scan, the second request is merged into the first
+        assertTrue(scheduler.schedule(SECONDARY_USER, finished::countDown));
+        assertFalse(scheduler.schedule(SECONDARY_USER, finished::countDown));
+        // Primary is running, it is scanned once more afterwards
+        assertTrue(scheduler.schedule(PRIMARY, finished::countDown));
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(3, scanned.size());
+        assertEquals(PRIMARY, scanned.get(0));
+        assertTrue(scheduler.isIdle());
+    }
+}